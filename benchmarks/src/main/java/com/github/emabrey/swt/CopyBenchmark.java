@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copies each of the 24 bundles out of the artifact with the strategies the library has used, independently of the
+ * platform the benchmark runs on.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CopyBenchmark {
+
+    /**
+     * The SWT version of the bundle
+     */
+    @Param({"_3_5_1", "_3_7_2", "_3_8", "_4_2_1"})
+    public String version;
+
+    /**
+     * The OS platform of the bundle
+     */
+    @Param({"windows", "macosx", "linux"})
+    public String platform;
+
+    /**
+     * The processor architecture of the bundle
+     */
+    @Param({"x86", "x64"})
+    public String arch;
+
+    /**
+     * The bundle's location in the artifact
+     */
+    private URL resource;
+
+    /**
+     * The file each copy overwrites
+     */
+    private File destination;
+
+    /**
+     * Buffer sizes for the stream copy, which the library used before channel transfers.
+     */
+    @State(Scope.Thread)
+    public static class StreamBuffer {
+
+        /**
+         * The buffer size in bytes
+         */
+        @Param({"8192", "65536", "262144"})
+        public int size;
+    }
+
+    /**
+     * Resolves the bundle and creates the destination.
+     * @throws IOException If the destination cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BundleIndex.Record bundle = BundleIndex.get(SWT_VERSION.valueOf(version), SWT_PLATFORM.valueOf(platform),
+                SWT_PLATFORM_ARCH.valueOf(arch));
+
+        if (bundle == null) {
+            throw new IllegalStateException("The artifact under test carries no index entry for " + version + "/"
+                    + platform + "/" + arch);
+        }
+
+        resource = ClassLoader.getSystemClassLoader().getResource(bundle.resourcePath);
+
+        if (resource == null) {
+            throw new IllegalStateException("The artifact under test does not carry " + bundle.resourcePath);
+        }
+
+        destination = File.createTempFile("swt-copy.", ".jar");
+    }
+
+    /**
+     * Removes the destination.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (!destination.delete()) {
+            destination.deleteOnExit();
+        }
+    }
+
+    /**
+     * The channel transfer used by the unpack methods.
+     * @return The number of bytes copied
+     * @throws IOException If the copy fails
+     */
+    @Benchmark
+    public long channel() throws IOException {
+        FileOutputStream out = new FileOutputStream(destination);
+        try {
+            FileChannel channel = out.getChannel();
+            return BundleChannels.copy(resource, channel);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * A buffered stream copy, as the unpack methods fall back to.
+     * @param buffer The buffer size
+     * @return The number of bytes copied
+     * @throws IOException If the copy fails
+     */
+    @Benchmark
+    public long stream(StreamBuffer buffer) throws IOException {
+        byte[] buf = new byte[buffer.size];
+        long copied = 0;
+        InputStream in = resource.openStream();
+        try {
+            FileOutputStream out = new FileOutputStream(destination);
+            try {
+                int readLength;
+                while ((readLength = in.read(buf)) >= 0) {
+                    out.write(buf, 0, readLength);
+                    copied += readLength;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return copied;
+    }
+
+    /**
+     * Memory-maps the bundle, as the in-memory class loader and native extraction do.
+     * @return The size of the mapped bundle
+     * @throws IOException If the bundle cannot be read
+     */
+    @Benchmark
+    public int map() throws IOException {
+        ByteBuffer mapped = BundleChannels.map(resource);
+        return mapped.get(mapped.limit() - 1) + mapped.limit();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what each {@link Durability} level adds to an unpack, writing in place and replacing atomically.
+ * <br>
+ * The results depend on the device far more than on the JVM; run this benchmark on the storage the application
+ * unpacks to, e.g. with <code>-Djava.io.tmpdir</code> pointing there.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DurabilityBenchmark {
+
+    /**
+     * The durability level under test
+     */
+    @Param({"NONE", "DATA", "FULL"})
+    public String durability;
+
+    /**
+     * The directory holding the destinations
+     */
+    private File directory;
+
+    /**
+     * The destination of each unpack
+     */
+    private File destination;
+
+    /**
+     * Creates the destination directory and chooses the level.
+     * @throws IOException If the directory cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = File.createTempFile("swt-durability.", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        destination = new File(directory, "swt.jar");
+        SWTNatives.setDurability(Durability.valueOf(durability));
+    }
+
+    /**
+     * Makes sure unpackTo finds no destination.
+     */
+    @Setup(Level.Invocation)
+    public void removeDestination() {
+        destination.delete();
+    }
+
+    /**
+     * Removes the destination directory and restores the default level.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SWTNatives.setDurability(null);
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Writing the destination in place.
+     * @return The destination
+     * @throws InstantiationException If the unpack fails
+     */
+    @Benchmark
+    public File unpackTo() throws InstantiationException {
+        SWTNatives.unpackTo(destination, SWT_VERSION._4_2_1);
+        return destination;
+    }
+
+    /**
+     * Writing a temporary file and renaming it over the destination.
+     * @return Whether the destination was written
+     * @throws InstantiationException If the unpack fails
+     */
+    @Benchmark
+    public boolean unpackToAtomic() throws InstantiationException {
+        return SWTNatives.unpackToAtomic(destination, SWT_VERSION._4_2_1);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to work out which bundle to unpack: platform detection, the index lookup, the
+ * classpath presence check and each bundle source.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResolutionBenchmark {
+
+    /**
+     * SWTNatives.getCurrentPlatform
+     */
+    private Method currentPlatform;
+
+    /**
+     * SWTNatives.getCurrentArch
+     */
+    private Method currentArch;
+
+    /**
+     * The cached platform, cleared to measure detection itself
+     */
+    private Field platformCache;
+
+    /**
+     * The cached architecture, cleared to measure detection itself
+     */
+    private Field archCache;
+
+    /**
+     * The bundle the sources are asked for
+     */
+    private BundleTarget target;
+
+    /**
+     * The bundle's ClassLoader path
+     */
+    private String resourcePath;
+
+    /**
+     * A class loader source which has already found the bundle
+     */
+    private BundleSource classLoaderSource;
+
+    /**
+     * The directory the bundle is staged in
+     */
+    private File staged;
+
+    /**
+     * A source of the staged bundle
+     */
+    private BundleSource directorySource;
+
+    /**
+     * Opens up the private detection methods and stages a bundle for the directory source.
+     * @throws ReflectiveOperationException If SWTNatives no longer has them
+     * @throws InstantiationException If the bundle cannot be staged
+     * @throws IOException If the staging directory cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException, InstantiationException, IOException {
+        currentPlatform = SWTNatives.class.getDeclaredMethod("getCurrentPlatform");
+        currentArch = SWTNatives.class.getDeclaredMethod("getCurrentArch");
+        platformCache = SWTNatives.class.getDeclaredField("currentPlatform");
+        archCache = SWTNatives.class.getDeclaredField("currentArch");
+        currentPlatform.setAccessible(true);
+        currentArch.setAccessible(true);
+        platformCache.setAccessible(true);
+        archCache.setAccessible(true);
+
+        target = BundleTarget.of(SWT_VERSION._4_2_1, SWT_PLATFORM.linux, SWT_PLATFORM_ARCH.x64);
+        resourcePath = BundleIndex.get(SWT_VERSION._4_2_1, SWT_PLATFORM.linux, SWT_PLATFORM_ARCH.x64).resourcePath;
+        classLoaderSource = BundleSources.classLoader(ResolutionBenchmark.class.getClassLoader());
+        classLoaderSource.locate(target, resourcePath);
+
+        staged = File.createTempFile("swt-staged.", "");
+        if (!staged.delete()) {
+            throw new IOException("Unable to create " + staged);
+        }
+        SWTNatives.unpackAll(Collections.singleton(target), staged, StandardBundleLayout.BY_VERSION);
+        directorySource = BundleSources.directory(staged, StandardBundleLayout.BY_VERSION);
+    }
+
+    /**
+     * Removes the staged bundle.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File bundle = new File(staged, StandardBundleLayout.BY_VERSION.pathOf(target));
+        bundle.delete();
+        for (File directory = bundle.getParentFile(); !directory.equals(staged.getParentFile());
+                directory = directory.getParentFile()) {
+            directory.delete();
+        }
+    }
+
+    /**
+     * Detects the platform and architecture from the system properties.
+     * @return The index slot of the current platform, so nothing is optimized away
+     * @throws ReflectiveOperationException If the detection fails
+     */
+    @Benchmark
+    public int detectUncached() throws ReflectiveOperationException {
+        platformCache.set(null, null);
+        archCache.set(null, null);
+        return ((SWT_PLATFORM) currentPlatform.invoke(null)).ordinal()
+                + ((SWT_PLATFORM_ARCH) currentArch.invoke(null)).ordinal();
+    }
+
+    /**
+     * Returns the platform and architecture detected by an earlier call.
+     * @return The index slot of the current platform, so nothing is optimized away
+     * @throws ReflectiveOperationException If the detection fails
+     */
+    @Benchmark
+    public int detectCached() throws ReflectiveOperationException {
+        return ((SWT_PLATFORM) currentPlatform.invoke(null)).ordinal()
+                + ((SWT_PLATFORM_ARCH) currentArch.invoke(null)).ordinal();
+    }
+
+    /**
+     * Looks a bundle up in the build-time index.
+     * @return The bundle record
+     */
+    @Benchmark
+    public BundleIndex.Record indexLookup() {
+        return BundleIndex.get(SWT_VERSION._4_2_1, SWT_PLATFORM.linux, SWT_PLATFORM_ARCH.x64);
+    }
+
+    /**
+     * Searches the class path for the bundle, as a class loader source does the first time.
+     * @return The location of the bundle
+     */
+    @Benchmark
+    public URL classLoaderSourceUncached() {
+        return ResolutionBenchmark.class.getClassLoader().getResource(resourcePath);
+    }
+
+    /**
+     * Asks a class loader source which has already found the bundle.
+     * @return The location of the bundle
+     */
+    @Benchmark
+    public URL classLoaderSourceCached() {
+        return classLoaderSource.locate(target, resourcePath);
+    }
+
+    /**
+     * Asks a directory source, which checks the staged file every time.
+     * @return The location of the bundle
+     */
+    @Benchmark
+    public URL directorySource() {
+        return directorySource.locate(target, resourcePath);
+    }
+
+    /**
+     * The whole resolution the unpack methods start with, including the classpath presence check.
+     * @return Whether the bundle is on the classpath
+     * @throws InstantiationException If the platform is unsupported
+     */
+    @Benchmark
+    public boolean isAvailable() throws InstantiationException {
+        return SWTNatives.isAvailable(SWT_VERSION._4_2_1);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the public unpack methods for the platform the benchmark runs on.
+ * <br>
+ * The cold benchmark runs once per fresh JVM, so it includes class initialization, index loading and the first copy;
+ * the others measure the steady state.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class UnpackBenchmark {
+
+    /**
+     * The SWT version to unpack
+     */
+    @Param({"_3_5_1", "_3_7_2", "_3_8", "_4_2_1"})
+    public String version;
+
+    /**
+     * The version to unpack
+     */
+    private SWT_VERSION swtVersion;
+
+    /**
+     * The directory holding the destinations
+     */
+    private File directory;
+
+    /**
+     * The destination of each unpack
+     */
+    private File destination;
+
+    /**
+     * Creates the destination directory.
+     * @throws IOException If the directory cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        swtVersion = SWT_VERSION.valueOf(version);
+        directory = File.createTempFile("swt-unpack.", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        destination = new File(directory, "swt.jar");
+    }
+
+    /**
+     * Makes sure unpackTo finds no destination.
+     */
+    @Setup(Level.Invocation)
+    public void removeDestination() {
+        destination.delete();
+    }
+
+    /**
+     * Removes the destination directory.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * The first unpack in a fresh JVM.
+     * @return The destination
+     * @throws InstantiationException If the unpack fails
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public File coldUnpackTo() throws InstantiationException {
+        SWTNatives.unpackTo(destination, swtVersion);
+        return destination;
+    }
+
+    /**
+     * Unpacking to a destination which does not exist yet.
+     * @return The destination
+     * @throws InstantiationException If the unpack fails
+     */
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public File warmUnpackTo() throws InstantiationException {
+        SWTNatives.unpackTo(destination, swtVersion);
+        return destination;
+    }
+
+    /**
+     * Unpacking over an existing destination. The destination is removed before each call because unpackToForced
+     * only overwrites destinations that exist; measuring the overwrite path needs the file recreated, which is
+     * included.
+     * @return The destination
+     * @throws InstantiationException If the unpack fails
+     */
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public File warmUnpackToForced() throws InstantiationException {
+        SWTNatives.unpackTo(destination, swtVersion);
+        SWTNatives.unpackToForced(destination, swtVersion);
+        return destination;
+    }
+
+    /**
+     * Unpacking to a destination which already holds the bundle, i.e. the cost of the verification alone.
+     * @return Whether the destination was written, which is only the case on the first call
+     * @throws InstantiationException If the unpack fails
+     */
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public boolean upToDate() throws InstantiationException {
+        return SWTNatives.unpackToIfChanged(new File(directory, "current.jar"), swtVersion);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures checking an unpacked bundle against the index, for each of the 24 bundles.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VerificationBenchmark {
+
+    /**
+     * The SWT version of the bundle
+     */
+    @Param({"_3_5_1", "_3_7_2", "_3_8", "_4_2_1"})
+    public String version;
+
+    /**
+     * The OS platform of the bundle
+     */
+    @Param({"windows", "macosx", "linux"})
+    public String platform;
+
+    /**
+     * The processor architecture of the bundle
+     */
+    @Param({"x86", "x64"})
+    public String arch;
+
+    /**
+     * The bundle as known to the index
+     */
+    private BundleIndex.Record bundle;
+
+    /**
+     * A copy of the bundle
+     */
+    private File copy;
+
+    /**
+     * Unpacks the bundle once.
+     * @throws IOException If the bundle cannot be copied
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        bundle = BundleIndex.get(SWT_VERSION.valueOf(version), SWT_PLATFORM.valueOf(platform),
+                SWT_PLATFORM_ARCH.valueOf(arch));
+
+        if (bundle == null) {
+            throw new IllegalStateException("The artifact under test carries no index entry for " + version + "/"
+                    + platform + "/" + arch);
+        }
+
+        URL resource = ClassLoader.getSystemClassLoader().getResource(bundle.resourcePath);
+        copy = File.createTempFile("swt-verify.", ".jar");
+        FileOutputStream out = new FileOutputStream(copy);
+        try {
+            BundleChannels.copy(resource, out.getChannel());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Removes the copy.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (!copy.delete()) {
+            copy.deleteOnExit();
+        }
+    }
+
+    /**
+     * Compares the copy's size and SHA-256 digest with the index.
+     * @return True, as the copy matches
+     * @throws IOException If the copy cannot be read
+     */
+    @Benchmark
+    public boolean matches() throws IOException {
+        return bundle.matches(copy);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt.maven;
+
+import com.github.emabrey.swt.BatchUnpackReport;
+import com.github.emabrey.swt.BundleTarget;
+import com.github.emabrey.swt.SWTFeature;
+import com.github.emabrey.swt.SWTNatives;
+import java.io.File;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Stages the bundles of the chosen platforms into the application image during <code>package</code>, so packaged
+ * deployments find them with {@link SWTNatives#stagedBundle(File, SWTNatives.SWT_VERSION)} instead of unpacking them
+ * at every launch.
+ * <br>
+ * The bundles are written by {@link SWTNatives#stageAll(java.util.Collection, File)}, in the
+ * {@link com.github.emabrey.swt.StandardBundleLayout#BY_VERSION} layout, together with the manifest the runtime
+ * checks them against. If <code>features</code> are given, each bundle is trimmed to the core of SWT and those
+ * features by {@link SWTNatives#stageAll(java.util.Collection, File, Set)}.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+@Mojo(name = "stage", defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true)
+public final class StageMojo extends AbstractMojo {
+
+    /**
+     * The bundles to stage, by classifier, e.g. <code>linux-x64-4.2.1</code>.
+     */
+    @Parameter(required = true)
+    private List<String> targets;
+
+    /**
+     * The staging directory, which the application passes to the runtime, e.g. through the
+     * <code>swt.natives.staged.directory</code> system property.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/swt-natives", required = true)
+    private File outputDirectory;
+
+    /**
+     * The {@link SWTFeature features} the application uses, e.g. <code>BROWSER</code>. If set, the classes and native
+     * libraries of the other features are left out of the staged bundles; if not, the whole bundles are staged.
+     */
+    @Parameter
+    private List<String> features;
+
+    /**
+     * Skips staging.
+     */
+    @Parameter(property = "swt.natives.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        if (skip) {
+            getLog().info("Staging SWT bundles is skipped");
+            return;
+        }
+
+        Map<String, BundleTarget> known = new LinkedHashMap<String, BundleTarget>();
+        for (BundleTarget target : BundleTarget.all()) {
+            known.put(target.getClassifier(), target);
+        }
+
+        Set<BundleTarget> chosen = new LinkedHashSet<BundleTarget>();
+        for (String classifier : targets) {
+            BundleTarget target = known.get(classifier.trim());
+            if (target == null) {
+                throw new MojoFailureException("Unknown SWT bundle " + classifier + ", expected one of "
+                        + known.keySet());
+            }
+            chosen.add(target);
+        }
+
+        Set<SWTFeature> kept = null;
+        if (features != null) {
+            kept = EnumSet.noneOf(SWTFeature.class);
+            for (String feature : features) {
+                try {
+                    kept.add(SWTFeature.valueOf(feature.trim().toUpperCase(Locale.ENGLISH)));
+                } catch (IllegalArgumentException e) {
+                    throw new MojoFailureException("Unknown SWT feature " + feature + ", expected one of "
+                            + EnumSet.allOf(SWTFeature.class));
+                }
+            }
+        }
+
+        BatchUnpackReport report;
+        try {
+            report = kept == null ? SWTNatives.stageAll(chosen, outputDirectory.getAbsoluteFile())
+                    : SWTNatives.stageAll(chosen, outputDirectory.getAbsoluteFile(), kept);
+        } catch (InstantiationException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+
+        for (Map.Entry<BundleTarget, InstantiationException> failure : report.getFailures().entrySet()) {
+            getLog().error("Unable to stage " + failure.getKey().getClassifier() + ": "
+                    + failure.getValue().getMessage());
+        }
+
+        if (!report.isSuccessful()) {
+            throw new MojoExecutionException("Unable to stage " + report.getFailures().size() + " of "
+                    + chosen.size() + " SWT bundles");
+        }
+
+        getLog().info("Staged " + chosen.size() + (kept == null ? "" : " trimmed") + " SWT bundles ("
+                + report.getBytes() + " bytes) into " + outputDirectory + " in "
+                + TimeUnit.NANOSECONDS.toMillis(report.getDurationNanos()) + " ms");
+    }
+}
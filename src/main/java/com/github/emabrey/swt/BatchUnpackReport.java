@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of a batch unpack: the bundle written for each target which succeeded, the failure of each which did
+ * not, and how fast the batch went overall.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public final class BatchUnpackReport {
+
+    /**
+     * Nanoseconds per second
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * The unpacked bundles by target, in the order the targets were given
+     */
+    private final Map<BundleTarget, UnpackedBundle> unpacked;
+
+    /**
+     * The failures by target, in the order the targets were given
+     */
+    private final Map<BundleTarget, InstantiationException> failures;
+
+    /**
+     * The wall clock time of the whole batch
+     */
+    private final long durationNanos;
+
+    /**
+     * The number of bytes written by the batch
+     */
+    private final long bytes;
+
+    /**
+     * Creates a report.
+     * @param unpacked The unpacked bundles by target
+     * @param failures The failures by target
+     * @param durationNanos The wall clock time of the whole batch
+     */
+    BatchUnpackReport(Map<BundleTarget, UnpackedBundle> unpacked, Map<BundleTarget, InstantiationException> failures,
+            long durationNanos){
+        this.unpacked = Collections.unmodifiableMap(unpacked);
+        this.failures = Collections.unmodifiableMap(failures);
+        this.durationNanos = durationNanos;
+
+        long total = 0;
+        for(UnpackedBundle bundle : unpacked.values()){
+            total += bundle.getSize();
+        }
+        this.bytes = total;
+    }
+
+    /**
+     * The bundles which were written.
+     * @return An unmodifiable map from target to bundle, in the order the targets were given
+     */
+    public Map<BundleTarget, UnpackedBundle> getUnpacked(){
+        return unpacked;
+    }
+
+    /**
+     * The targets which could not be written, e.g. because their bundle is not on the classpath.
+     * @return An unmodifiable map from target to failure, in the order the targets were given
+     */
+    public Map<BundleTarget, InstantiationException> getFailures(){
+        return failures;
+    }
+
+    /**
+     * Whether every target was written.
+     * @return True if there were no failures
+     */
+    public boolean isSuccessful(){
+        return failures.isEmpty();
+    }
+
+    /**
+     * The wall clock time of the whole batch.
+     * @return The duration in nanoseconds
+     */
+    public long getDurationNanos(){
+        return durationNanos;
+    }
+
+    /**
+     * The number of bytes written.
+     * @return The combined size of the unpacked bundles
+     */
+    public long getBytes(){
+        return bytes;
+    }
+
+    /**
+     * The overall write rate of the batch.
+     * @return Bytes written per second of wall clock time
+     */
+    public double getBytesPerSecond(){
+        return durationNanos == 0 ? 0 : bytes * NANOS_PER_SECOND / durationNanos;
+    }
+
+    @Override
+    public String toString(){
+        return "BatchUnpackReport[" + unpacked.size() + " unpacked, " + failures.size() + " failed, " + bytes
+                + " bytes in " + durationNanos + " ns]";
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.localization.ErrorMessage;
+import com.github.emabrey.swt.localization.ErrorMessages;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The per-user directory bundles are unpacked to when the application does not choose a destination itself.
+ * <br>
+ * Each bundle lives in its own entry directory, <code>&lt;classifier&gt;/&lt;digest&gt;/swt.jar</code>, named after
+ * the first 64 bits of its SHA-256 digest so that applications built against different artifacts never share an
+ * entry by accident. The modification time of the entry directory records when the bundle was last used. Sweeps
+ * remove leftover temporary files and outdated verification records, and evict the least recently used bundles beyond
+ * the size and age budgets. An entry
+ * is only ever touched while holding its unpack lock, and entries used within the last hour are never evicted, so a
+ * sweep cannot pull a bundle from under a JVM that is about to load it. Entry directories and their lock files are
+ * left in place, since removing a lock file while another process waits on it would let two unpacks run at once.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class BundleCache {
+
+    /**
+     * The SLF4J Logger instance for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(BundleCache.class);
+
+    /**
+     * The localized error messages
+     */
+    private static final ErrorMessage ERROR_MESSAGE = ErrorMessages.get();
+
+    /**
+     * Name of the cache directory below the platform's cache location
+     */
+    private static final String DIRECTORY_NAME = "swt-natives";
+
+    /**
+     * Name of the bundle in each entry directory
+     */
+    private static final String BUNDLE_NAME = "swt.jar";
+
+    /**
+     * Name of the lock file in each entry directory, as {@link SWTNatives#unpackToAtomic} names it
+     */
+    private static final String LOCK_NAME = BUNDLE_NAME + ".lock";
+
+    /**
+     * Suffix of the temporary files an interrupted unpack leaves behind
+     */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Name of the file whose modification time records the last sweep of the cache
+     */
+    private static final String SWEEP_MARKER = ".swept";
+
+    /**
+     * Number of hexadecimal digest digits naming an entry directory
+     */
+    private static final int KEY_LENGTH = 16;
+
+    /**
+     * Entry directory name of bundles without a digest
+     */
+    private static final String UNINDEXED_KEY = "unindexed";
+
+    /**
+     * Size budget used unless {@link SWTNatives#CACHE_MAX_SIZE_PROPERTY} says otherwise
+     */
+    static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * Age budget in days used unless {@link SWTNatives#CACHE_MAX_AGE_PROPERTY} says otherwise
+     */
+    static final long DEFAULT_MAX_AGE_DAYS = 60;
+
+    /**
+     * How long a used entry is protected from eviction
+     */
+    private static final long RECENT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * How often the use of an entry is recorded, half of {@link #RECENT_MILLIS} so that an entry in use never looks
+     * older than the protection lasts
+     */
+    private static final long TOUCH_INTERVAL_MILLIS = RECENT_MILLIS / 2;
+
+    /**
+     * How often the cache is swept in the background, across all JVMs sharing it
+     */
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Set once this JVM has considered a background sweep
+     */
+    private static final AtomicBoolean SWEEP_CONSIDERED = new AtomicBoolean();
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private BundleCache() {
+        //Do nothing
+    }
+
+    /**
+     * An entry found by a sweep.
+     */
+    private static final class Entry {
+
+        /**
+         * The entry directory
+         */
+        final File directory;
+
+        /**
+         * When the bundle was last used
+         */
+        final long lastUsed;
+
+        /**
+         * The size of the bundle, or 0 if the entry holds none
+         */
+        final long size;
+
+        /**
+         * Creates an entry.
+         * @param directory The entry directory
+         * @param lastUsed When the bundle was last used
+         * @param size The size of the bundle
+         */
+        Entry(File directory, long lastUsed, long size) {
+            this.directory = directory;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Determines the cache directory: {@link SWTNatives#CACHE_DIRECTORY_PROPERTY} if set, otherwise
+     * <code>swt-natives</code> below <code>$XDG_CACHE_HOME</code> or the platform's per-user cache location.
+     * @param platform The current OS platform
+     * @return The cache directory, which may not exist yet, or null if there is no known location
+     */
+    static File root(SWT_PLATFORM platform) {
+        String configured = System.getProperty(SWTNatives.CACHE_DIRECTORY_PROPERTY);
+
+        if (configured != null) {
+            return new File(configured);
+        }
+
+        String xdg = System.getenv("XDG_CACHE_HOME");
+
+        if (xdg != null && new File(xdg).isAbsolute()) {
+            //The XDG specification says relative values are to be ignored
+            return new File(xdg, DIRECTORY_NAME);
+        }
+
+        String home = System.getProperty("user.home");
+
+        switch (platform) {
+            case windows:
+                String local = System.getenv("LOCALAPPDATA");
+                return local == null ? null : new File(local, DIRECTORY_NAME);
+            case macosx:
+                return home == null ? null : new File(home, "Library/Caches/" + DIRECTORY_NAME);
+            default:
+                return home == null ? null : new File(home, ".cache/" + DIRECTORY_NAME);
+        }
+    }
+
+    /**
+     * Forms the location of a bundle in the cache.
+     * @param root The cache directory
+     * @param classifier The classifier of the bundle, naming its platform, architecture and version
+     * @param bundle The bundle
+     * @return The location of the bundle inside its entry directory
+     */
+    static File entry(File root, String classifier, BundleIndex.Record bundle) {
+        String key = bundle.isIndexed() ? bundle.sha256Hex().substring(0, KEY_LENGTH) : UNINDEXED_KEY;
+        return new File(new File(new File(root, classifier), key), BUNDLE_NAME);
+    }
+
+    /**
+     * Records that a cached bundle is being used, protecting it from eviction for a while. The entry directory is
+     * created if needed. Uses less than {@link #TOUCH_INTERVAL_MILLIS} apart are recorded once, which keeps cache hits
+     * free of metadata writes.
+     * @param bundle The location of the bundle in the cache
+     * @return False if the entry directory could not be created
+     */
+    static boolean use(File bundle) {
+        File directory = bundle.getParentFile();
+
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (now - directory.lastModified() >= TOUCH_INTERVAL_MILLIS) {
+            //A failure only costs the bundle its place in the eviction order
+            directory.setLastModified(now);
+        }
+        return true;
+    }
+
+    /**
+     * Sweeps the cache on a background thread, unless this JVM already did or any JVM did within the last day.
+     * @param root The cache directory
+     */
+    static void sweepInBackground(final File root) {
+        if (!SWEEP_CONSIDERED.compareAndSet(false, true)) {
+            return;
+        }
+
+        final File marker = new File(root, SWEEP_MARKER);
+
+        if (System.currentTimeMillis() - marker.lastModified() < SWEEP_INTERVAL_MILLIS) {
+            return;
+        }
+
+        UnpackExecutor.shared().execute(new Runnable() {
+            @Override
+            public void run() {
+                sweep(root, maxSize(), maxAgeMillis());
+            }
+        });
+    }
+
+    /**
+     * Removes leftover temporary files and the verification records which no longer describe their destination, see
+     * {@link BundleVerifier#prune(File, long)}, then evicts bundles unused for longer than the age budget and, least
+     * recently used first, bundles beyond the size budget. Entries which are being unpacked or which were used within
+     * the last hour are skipped.
+     * @param root The cache directory
+     * @param maxSize The size budget in bytes
+     * @param maxAgeMillis The age budget in milliseconds
+     * @return The number of bytes freed
+     */
+    static long sweep(File root, long maxSize, long maxAgeMillis) {
+        File[] bundles = root.listFiles();
+
+        if (bundles == null) {
+            //Nothing cached yet
+            return 0;
+        }
+
+        markSwept(root);
+
+        long now = System.currentTimeMillis();
+        BundleVerifier.prune(root, now - RECENT_MILLIS);
+
+        long freed = 0;
+        long total = 0;
+        List<Entry> entries = new ArrayList<Entry>();
+
+        for (File bundle : bundles) {
+            File[] directories = bundle.listFiles();
+
+            if (directories == null) {
+                //The marker, or something which is not ours
+                continue;
+            }
+
+            for (File directory : directories) {
+                Entry entry = inspect(directory);
+
+                if (entry != null && entry.size > 0) {
+                    entries.add(entry);
+                    total += entry.size;
+                }
+            }
+        }
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry first, Entry second) {
+                return first.lastUsed < second.lastUsed ? -1 : first.lastUsed == second.lastUsed ? 0 : 1;
+            }
+        });
+
+        for (Entry entry : entries) {
+            if (now - entry.lastUsed < RECENT_MILLIS
+                    || (now - entry.lastUsed <= maxAgeMillis && total <= maxSize)) {
+                //Sorted by last use, so every later entry is kept as well
+                break;
+            }
+
+            if (evict(entry, now)) {
+                total -= entry.size;
+                freed += entry.size;
+            }
+        }
+
+        return freed;
+    }
+
+    /**
+     * Removes the temporary files of an entry and describes it, if no unpack holds the entry.
+     * @param directory The entry directory
+     * @return The entry, or null if it is busy or not an entry directory
+     */
+    private static Entry inspect(File directory) {
+        File lockFile = new File(directory, LOCK_NAME);
+
+        if (!directory.isDirectory() || !lockFile.isFile()) {
+            //Only entries which have been unpacked to can hold anything to sweep
+            return null;
+        }
+
+        ExclusiveFileLock lock = tryLock(lockFile);
+
+        if (lock == null) {
+            return null;
+        }
+
+        try {
+            long lastUsed = directory.lastModified();
+            boolean deleted = false;
+            File[] files = directory.listFiles();
+
+            if (files != null) {
+                for (File file : files) {
+                    //Nobody is unpacking, so these were left by an unpack which died
+                    if (file.getName().endsWith(TEMPORARY_SUFFIX)) {
+                        if (file.delete()) {
+                            deleted = true;
+                        } else {
+                            LOG.warn(ERROR_MESSAGE.unableToDeleteTemporaryFile());
+                        }
+                    }
+                }
+            }
+
+            if (deleted) {
+                restoreLastUse(directory, lastUsed);
+            }
+
+            return new Entry(directory, lastUsed, new File(directory, BUNDLE_NAME).length());
+
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Deletes the bundle of an entry, unless it is being unpacked or was used since the sweep inspected it.
+     * @param entry The entry
+     * @param now When the sweep started
+     * @return True if the bundle was deleted
+     */
+    private static boolean evict(Entry entry, long now) {
+        ExclusiveFileLock lock = tryLock(new File(entry.directory, LOCK_NAME));
+
+        if (lock == null) {
+            return false;
+        }
+
+        try {
+            if (entry.directory.lastModified() != entry.lastUsed) {
+                //Used since it was inspected
+                return false;
+            }
+
+            File bundle = new File(entry.directory, BUNDLE_NAME);
+
+            if (!bundle.delete() && bundle.exists()) {
+                //Open in another process on platforms which forbid that
+                LOG.warn(ERROR_MESSAGE.unableToSweepCache());
+                return false;
+            }
+
+            restoreLastUse(entry.directory, entry.lastUsed);
+            return true;
+
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Resets the modification time of an entry directory after a sweep deleted something in it, which would otherwise
+     * make the entry look recently used.
+     * @param directory The entry directory
+     * @param lastUsed When the bundle was last used
+     */
+    private static void restoreLastUse(File directory, long lastUsed) {
+        //A failure only protects the entry until its next sweep
+        directory.setLastModified(lastUsed);
+    }
+
+    /**
+     * Takes the lock of an entry if it is free.
+     * @param lockFile The lock file of the entry
+     * @return The held lock, or null if it is held elsewhere or cannot be taken
+     */
+    private static ExclusiveFileLock tryLock(File lockFile) {
+        try {
+            return ExclusiveFileLock.tryAcquire(lockFile);
+        } catch (IOException e) {
+            LOG.warn(ERROR_MESSAGE.unableToSweepCache(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Records that the cache has been swept, which holds off the background sweeps of other JVMs.
+     * @param root The cache directory
+     */
+    private static void markSwept(File root) {
+        File marker = new File(root, SWEEP_MARKER);
+
+        try {
+            if (!marker.createNewFile()) {
+                marker.setLastModified(System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            //Other JVMs will merely sweep again
+        }
+    }
+
+    /**
+     * The size budget.
+     * @return The size budget in bytes
+     */
+    static long maxSize() {
+        return longProperty(SWTNatives.CACHE_MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * The age budget.
+     * @return The age budget in milliseconds
+     */
+    static long maxAgeMillis() {
+        return TimeUnit.DAYS.toMillis(longProperty(SWTNatives.CACHE_MAX_AGE_PROPERTY, DEFAULT_MAX_AGE_DAYS));
+    }
+
+    /**
+     * Reads a non-negative number from a system property.
+     * @param property The system property
+     * @param defaultValue The value used if the property is unset or invalid
+     * @return The value of the property
+     */
+    private static long longProperty(String property, long defaultValue) {
+        String value = System.getProperty(property);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            long parsed = Long.parseLong(value.trim());
+
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            //Reported below
+        }
+
+        LOG.warn(ERROR_MESSAGE.invalidCacheSetting(property));
+        return defaultValue;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * An open bundle, read as a channel, whose size and digest are known before the first byte is read.
+ * <br>
+ * Bundles which are plain files, or stored entries of a jar on the local file system, are read straight from a
+ * memory mapping; others are streamed. Either way nothing is written to the file system.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public final class BundleChannel implements ReadableByteChannel {
+
+    /**
+     * The bundle being read
+     */
+    private final BundleTarget target;
+
+    /**
+     * The size of the bundle, or -1 if it is not indexed
+     */
+    private final long size;
+
+    /**
+     * The SHA-256 digest of the bundle, or null if it is not indexed
+     */
+    private final byte[] sha256;
+
+    /**
+     * The bundle's data
+     */
+    private final ReadableByteChannel source;
+
+    /**
+     * Creates a bundle channel.
+     * @param target The bundle being read
+     * @param size The size of the bundle, or -1 if unknown
+     * @param sha256 The SHA-256 digest of the bundle, or null if unknown
+     * @param source The bundle's data
+     */
+    BundleChannel(BundleTarget target, long size, byte[] sha256, ReadableByteChannel source) {
+        this.target = target;
+        this.size = size;
+        this.sha256 = sha256;
+        this.source = source;
+    }
+
+    /**
+     * The bundle being read.
+     * @return The version, platform and architecture of the bundle
+     */
+    public BundleTarget getTarget() {
+        return target;
+    }
+
+    /**
+     * The size of the bundle, e.g. to size a buffer or a file before reading.
+     * @return The size in bytes, or -1 for a bundle missing from the build-time index
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * The SHA-256 digest of the bundle, as recorded at build time.
+     * @return A copy of the digest, or null for a bundle missing from the build-time index
+     */
+    public byte[] getSha256() {
+        return sha256 == null ? null : sha256.clone();
+    }
+
+    /**
+     * The SHA-256 digest of the bundle in hexadecimal.
+     * @return The lower case digest, or null for a bundle missing from the build-time index
+     */
+    public String getSha256Hex() {
+        return sha256 == null ? null : BundleIndex.toHex(sha256);
+    }
+
+    /**
+     * Views this channel as a stream. Closing the stream closes this channel.
+     * @return An unbuffered stream over the rest of the bundle
+     */
+    public InputStream asInputStream() {
+        return Channels.newInputStream(this);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return source.read(dst);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return source.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    @Override
+    public String toString() {
+        return "BundleChannel[" + target.getVersion() + "/" + target.getPlatform() + "/" + target.getArch() + ", "
+                + size + " bytes]";
+    }
+}
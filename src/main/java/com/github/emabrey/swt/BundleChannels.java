@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+
+/**
+ * Channel based copying of bundles into files and other channels.
+ * <br>
+ * A bundle that is a plain file, or a stored entry of a jar on the local file system, is transferred with
+ * {@link FileChannel#transferTo} so the kernel can copy it without it passing through the heap. Anything else is
+ * streamed through a small pool of reusable direct buffers.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class BundleChannels {
+
+    /**
+     * Size of each pooled buffer
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The most buffers kept around for reuse
+     */
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    /**
+     * Direct buffers available for reuse
+     */
+    private static final Queue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * Central directories of the archives we have transferred from, by archive path
+     */
+    private static final ConcurrentMap<String, CachedDirectory> DIRECTORIES =
+            new ConcurrentHashMap<String, CachedDirectory>();
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private BundleChannels() {
+        //Do nothing
+    }
+
+    /**
+     * Copies a bundle resource into a file channel, starting at the channel's current position.
+     * @param resource The location of the bundle
+     * @param destination The channel to write into
+     * @return The number of bytes copied
+     * @throws IOException If the copy fails
+     */
+    static long copy(URL resource, FileChannel destination) throws IOException {
+
+        if ("file".equals(resource.getProtocol())) {
+            FileChannel source = FileChannel.open(toFile(resource).toPath(), StandardOpenOption.READ);
+            try {
+                return transfer(source, 0, source.size(), destination);
+            } finally {
+                source.close();
+            }
+        }
+
+        URLConnection connection = resource.openConnection();
+
+        if (connection instanceof JarURLConnection) {
+            JarURLConnection jarConnection = (JarURLConnection) connection;
+            URL archive = jarConnection.getJarFileURL();
+
+            if ("file".equals(archive.getProtocol())) {
+                long copied = copyStoredEntry(toFile(archive), jarConnection.getEntryName(), destination);
+                if (copied >= 0) {
+                    return copied;
+                }
+            }
+        }
+
+        InputStream in = connection.getInputStream();
+        try {
+            return copy(Channels.newChannel(in), destination);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Makes the whole of a bundle resource available as a read-only buffer.
+     * <br>
+     * A plain file, or a stored entry of a jar on the local file system, is memory-mapped so nothing is copied onto
+     * the heap; anything else is read into a heap buffer.
+     * @param resource The location of the bundle
+     * @return A buffer holding exactly the bundle, positioned at zero
+     * @throws IOException If the bundle cannot be read
+     */
+    static ByteBuffer map(URL resource) throws IOException {
+
+        ByteBuffer mapped = mapDirectly(resource);
+
+        if (mapped != null) {
+            return mapped;
+        }
+
+        URLConnection connection = resource.openConnection();
+        InputStream in = connection.getInputStream();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(connection.getContentLength(), BUFFER_SIZE));
+            copy(Channels.newChannel(in), Channels.newChannel(bytes));
+            return ByteBuffer.wrap(bytes.toByteArray()).asReadOnlyBuffer();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Opens a bundle resource for reading, straight from a memory mapping where possible.
+     * @param resource The location of the bundle
+     * @return A channel over the whole bundle
+     * @throws IOException If the bundle cannot be opened
+     */
+    static ReadableByteChannel open(URL resource) throws IOException {
+
+        ByteBuffer mapped = mapDirectly(resource);
+
+        if (mapped != null) {
+            return new BufferChannel(mapped);
+        }
+
+        return Channels.newChannel(resource.openStream());
+    }
+
+    /**
+     * Copies a bundle resource into any channel. File channels get a kernel transfer, and mapped bundles are written
+     * straight from the mapping; only compressed bundles pass through a pooled buffer.
+     * @param resource The location of the bundle
+     * @param destination The channel to write into; it is not closed
+     * @return The number of bytes copied
+     * @throws IOException If the copy fails
+     */
+    static long copy(URL resource, WritableByteChannel destination) throws IOException {
+
+        if (destination instanceof FileChannel) {
+            return copy(resource, (FileChannel) destination);
+        }
+
+        ByteBuffer mapped = mapDirectly(resource);
+
+        if (mapped != null) {
+            long copied = mapped.remaining();
+            while (mapped.hasRemaining()) {
+                destination.write(mapped);
+            }
+            return copied;
+        }
+
+        InputStream in = resource.openStream();
+        try {
+            return copy(Channels.newChannel(in), destination);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates a channel which reads a buffer without copying it.
+     * @param buffer The data to read, from its position to its limit
+     * @return A channel over the data
+     */
+    static ReadableByteChannel source(ByteBuffer buffer) {
+        return new BufferChannel(buffer);
+    }
+
+    /**
+     * Creates a channel which writes into a buffer.
+     * @param buffer The buffer to fill from its position
+     * @return A channel failing with an IOException once the buffer is full
+     */
+    static WritableByteChannel sink(ByteBuffer buffer) {
+        return new BufferSink(buffer);
+    }
+
+    /**
+     * Memory-maps a bundle resource if it is a plain file, or a stored entry of a jar on the local file system.
+     * @param resource The location of the bundle
+     * @return A read-only buffer holding exactly the bundle, or null if the bundle cannot be mapped
+     * @throws IOException If the bundle cannot be read
+     */
+    private static ByteBuffer mapDirectly(URL resource) throws IOException {
+
+        if ("file".equals(resource.getProtocol())) {
+            FileChannel source = FileChannel.open(toFile(resource).toPath(), StandardOpenOption.READ);
+            try {
+                return source.map(FileChannel.MapMode.READ_ONLY, 0, source.size());
+            } finally {
+                source.close();
+            }
+        }
+
+        URLConnection connection = resource.openConnection();
+
+        if (connection instanceof JarURLConnection) {
+            JarURLConnection jarConnection = (JarURLConnection) connection;
+            URL archive = jarConnection.getJarFileURL();
+
+            if ("file".equals(archive.getProtocol())) {
+                File archiveFile = toFile(archive);
+                FileChannel source = FileChannel.open(archiveFile.toPath(), StandardOpenOption.READ);
+                try {
+                    ZipDirectory.Entry entry = storedEntry(archiveFile, source, jarConnection.getEntryName());
+                    if (entry != null) {
+                        return source.map(FileChannel.MapMode.READ_ONLY, ZipDirectory.dataOffset(source, entry),
+                                entry.size);
+                    }
+                } finally {
+                    source.close();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Streams a channel into another through a pooled direct buffer.
+     * @param source The channel to read until its end
+     * @param destination The channel to write into
+     * @return The number of bytes copied
+     * @throws IOException If the copy fails
+     */
+    static long copy(ReadableByteChannel source, WritableByteChannel destination) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        long copied = 0;
+        try {
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    copied += destination.write(buffer);
+                }
+                buffer.clear();
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+        return copied;
+    }
+
+    /**
+     * Transfers a stored archive entry directly out of the archive file.
+     * @param archive The archive on the local file system
+     * @param entryName The entry to transfer
+     * @param destination The channel to write into
+     * @return The number of bytes copied, or -1 if the entry is compressed and must be streamed instead
+     * @throws IOException If the archive cannot be read or the entry does not exist
+     */
+    private static long copyStoredEntry(File archive, String entryName, FileChannel destination) throws IOException {
+        FileChannel source = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+        try {
+            ZipDirectory.Entry entry = storedEntry(archive, source, entryName);
+
+            if (entry == null) {
+                return -1;
+            }
+
+            return transfer(source, ZipDirectory.dataOffset(source, entry), entry.size, destination);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Looks up an archive entry which can be read straight out of the archive file.
+     * @param archive The archive on the local file system
+     * @param channel An open channel on the archive
+     * @param entryName The entry to look up
+     * @return The entry, or null if it is compressed
+     * @throws IOException If the archive cannot be read or the entry does not exist
+     */
+    private static ZipDirectory.Entry storedEntry(File archive, FileChannel channel, String entryName)
+            throws IOException {
+        ZipDirectory.Entry entry = directoryOf(archive, channel).get(entryName);
+
+        if (entry == null) {
+            throw new IOException("No entry " + entryName + " in " + archive);
+        }
+
+        return entry.method == ZipEntry.STORED ? entry : null;
+    }
+
+    /**
+     * Looks up the cached central directory of an archive, reading it on first use and again whenever the archive's
+     * size or modification time changed since, e.g. after a new version of the jar was installed at the same path.
+     * @param archive The archive file
+     * @param channel An open channel on the archive
+     * @return The archive's central directory
+     * @throws IOException If the central directory cannot be read
+     */
+    private static ZipDirectory directoryOf(File archive, FileChannel channel) throws IOException {
+        String key = archive.getAbsolutePath();
+        long size = channel.size();
+        long lastModified = archive.lastModified();
+        CachedDirectory cached = DIRECTORIES.get(key);
+
+        if (cached == null || cached.size != size || cached.lastModified != lastModified) {
+            //Concurrent reads simply parse twice, the result is identical
+            cached = new CachedDirectory(size, lastModified, ZipDirectory.read(channel));
+            DIRECTORIES.put(key, cached);
+        }
+        return cached.directory;
+    }
+
+    /**
+     * Transfers a region of a file, looping until the kernel has copied all of it.
+     * @param source The file to read
+     * @param position The start of the region
+     * @param length The length of the region
+     * @param destination The channel to write into
+     * @return The number of bytes copied
+     * @throws IOException If the file ends early or the transfer fails
+     */
+    private static long transfer(FileChannel source, long position, long length, FileChannel destination)
+            throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            long transferred = source.transferTo(position + copied, length - copied, destination);
+            if (transferred <= 0) {
+                throw new IOException("Source ended after " + copied + " of " + length + " bytes");
+            }
+            copied += transferred;
+        }
+        return copied;
+    }
+
+    /**
+     * Converts a file URL into a file.
+     * @param url A URL with the file protocol
+     * @return The file it names
+     * @throws IOException If the URL is malformed
+     */
+    private static File toFile(URL url) throws IOException {
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads a buffer as a channel.
+     */
+    private static final class BufferChannel implements ReadableByteChannel {
+
+        /**
+         * The data left to read
+         */
+        private final ByteBuffer data;
+
+        /**
+         * Whether the channel is still open
+         */
+        private volatile boolean open = true;
+
+        /**
+         * Creates a channel.
+         * @param data The data to read, from its position to its limit
+         */
+        BufferChannel(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+
+            int length = Math.min(dst.remaining(), data.remaining());
+            ByteBuffer chunk = data.duplicate();
+            chunk.limit(chunk.position() + length);
+            dst.put(chunk);
+            data.position(data.position() + length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    /**
+     * Writes a channel into a buffer.
+     */
+    private static final class BufferSink implements WritableByteChannel {
+
+        /**
+         * The buffer being filled
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Creates a channel.
+         * @param buffer The buffer to fill from its position
+         */
+        BufferSink(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int length = src.remaining();
+            if (length > buffer.remaining()) {
+                throw new IOException("Buffer full after " + buffer.position() + " bytes");
+            }
+            buffer.put(src);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            //Nothing to release
+        }
+    }
+
+    /**
+     * Takes a buffer from the pool, allocating one if the pool is empty.
+     * @return A cleared direct buffer
+     */
+    static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = BUFFER_POOL.poll();
+        return buffer == null ? ByteBuffer.allocateDirect(BUFFER_SIZE) : buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool, unless the pool is already full.
+     * @param buffer A buffer obtained from {@link #acquireBuffer()}
+     */
+    static void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        if (BUFFER_POOL.size() < MAX_POOLED_BUFFERS) {
+            BUFFER_POOL.offer(buffer);
+        }
+    }
+
+    /**
+     * A central directory together with the size and modification time of the archive it was read from.
+     */
+    private static final class CachedDirectory {
+
+        /**
+         * Size of the archive when the directory was read
+         */
+        final long size;
+
+        /**
+         * Modification time of the archive when the directory was read
+         */
+        final long lastModified;
+
+        /**
+         * The central directory
+         */
+        final ZipDirectory directory;
+
+        /**
+         * Creates a cached directory.
+         * @param size Size of the archive
+         * @param lastModified Modification time of the archive
+         * @param directory The central directory
+         */
+        CachedDirectory(long size, long lastModified, ZipDirectory directory) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.directory = directory;
+        }
+    }
+}
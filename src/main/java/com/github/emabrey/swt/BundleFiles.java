@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The few helpers which both the unpacker and the build-time generators use, so that the index written at build time
+ * and the checks made at run time cannot disagree.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class BundleFiles {
+
+    /**
+     * File name suffixes of the native libraries SWT ships for each platform
+     */
+    private static final String[] NATIVE_SUFFIXES = {".so", ".dll", ".jnilib", ".dylib"};
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private BundleFiles(){
+        //Do nothing
+    }
+
+    /**
+     * Checks whether a bundle entry is one of the native libraries SWT loads, which sit in the root of the bundle.
+     * @param entryName The name of the entry
+     * @return True for native libraries
+     */
+    static boolean isNativeLibrary(String entryName){
+        if(entryName.indexOf('/') >= 0){
+            return false;
+        }
+        for(String suffix : NATIVE_SUFFIXES){
+            if(entryName.endsWith(suffix)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a SHA-256 digest.
+     * @return A fresh digest
+     */
+    static MessageDigest newSha256(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e){
+            //Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file.
+     * @param file The file to digest
+     * @return The digest
+     * @throws IOException If the file cannot be read
+     */
+    static byte[] sha256(File file) throws IOException{
+        MessageDigest digest = newSha256();
+
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[8192];
+            int readLength;
+            while((readLength = in.read(buf)) >= 0){
+                digest.update(buf, 0, readLength);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Computes the SHA-256 digest of the remaining bytes of a buffer, leaving the buffer's position unchanged.
+     * @param data The bytes to digest
+     * @return The digest
+     */
+    static byte[] sha256(ByteBuffer data){
+        MessageDigest digest = newSha256();
+        digest.update(data.duplicate());
+        return digest.digest();
+    }
+}
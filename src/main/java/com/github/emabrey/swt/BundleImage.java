@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A bundle held in a single read-only buffer together with the index of its entries.
+ * <br>
+ * The buffer is normally a memory-mapped region of the artifact, so an image can be shared freely between threads
+ * and class loaders; entries are only inflated when they are read.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class BundleImage {
+
+    /**
+     * The whole bundle
+     */
+    private final ByteBuffer archive;
+
+    /**
+     * The index of the bundle's entries
+     */
+    private final ZipDirectory directory;
+
+    /**
+     * Creates an image.
+     * @param archive The whole bundle
+     * @param directory The index of the bundle's entries
+     */
+    private BundleImage(ByteBuffer archive, ZipDirectory directory) {
+        this.archive = archive;
+        this.directory = directory;
+    }
+
+    /**
+     * Indexes a bundle held in memory.
+     * @param archive The whole bundle
+     * @return The indexed image
+     * @throws IOException If the buffer is not a supported zip archive
+     */
+    static BundleImage of(ByteBuffer archive) throws IOException {
+        return new BundleImage(archive, ZipDirectory.read(archive));
+    }
+
+    /**
+     * The whole bundle.
+     * @return A read-only view of the bundle
+     */
+    ByteBuffer archive() {
+        return archive.duplicate();
+    }
+
+    /**
+     * The index of the bundle's entries.
+     * @return The central directory of the bundle
+     */
+    ZipDirectory directory() {
+        return directory;
+    }
+
+    /**
+     * Reads the uncompressed data of an entry.
+     * @param entry An entry of this bundle
+     * @return The entry's data, verified against its CRC-32
+     * @throws IOException If the entry is corrupt
+     */
+    byte[] read(ZipDirectory.Entry entry) throws IOException {
+        return read(archive, entry);
+    }
+
+    /**
+     * Reads the uncompressed data of an entry of a bundle held in memory.
+     * @param archive The whole bundle
+     * @param entry An entry of that bundle
+     * @return The entry's data, verified against its CRC-32
+     * @throws IOException If the entry is corrupt
+     */
+    static byte[] read(ByteBuffer archive, ZipDirectory.Entry entry) throws IOException {
+        ByteBuffer data = archive.duplicate();
+        int offset = ZipDirectory.dataOffset(archive, entry);
+        data.position(offset).limit(offset + (int) entry.compressedSize);
+
+        byte[] bytes = new byte[(int) entry.size];
+
+        if (entry.method == ZipEntry.STORED) {
+            data.get(bytes);
+
+        } else if (entry.method == ZipEntry.DEFLATED) {
+            byte[] compressed = new byte[(int) entry.compressedSize];
+            data.get(compressed);
+
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                int inflated = 0;
+                while (inflated < bytes.length) {
+                    int count = inflater.inflate(bytes, inflated, bytes.length - inflated);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new ZipException("Truncated entry " + entry.name);
+                    }
+                    inflated += count;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Corrupt entry " + entry.name + ": " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+
+        } else {
+            throw new ZipException("Unsupported compression method for " + entry.name);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if (crc.getValue() != entry.crc) {
+            throw new ZipException("CRC mismatch for " + entry.name);
+        }
+
+        return bytes;
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import com.github.emabrey.swt.natives.NativeLibrariesLocation;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only view of the bundle index written at build time by {@link BundleIndexGenerator}.
+ * <br>
+ * The index is loaded once into a flat table addressed by the ordinals of the version, platform and architecture, so
+ * looking up a bundle is constant time and allocates nothing.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class BundleIndex {
+
+    /**
+     * Number of platforms, the stride of the table per version
+     */
+    private static final int PLATFORMS = SWT_PLATFORM.values().length;
+
+    /**
+     * Number of architectures, the stride of the table per platform
+     */
+    private static final int ARCHES = SWT_PLATFORM_ARCH.values().length;
+
+    /**
+     * Number of slots in a table addressed by {@link #slot}
+     */
+    static final int SLOTS = SWT_VERSION.values().length * PLATFORMS * ARCHES;
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private BundleIndex() {
+        //Do nothing
+    }
+
+    /**
+     * A native library contained in a bundle.
+     */
+    static final class NativeLibrary {
+
+        /**
+         * The entry name, which is also the library's file name
+         */
+        final String name;
+
+        /**
+         * The inflated size of the library
+         */
+        final long size;
+
+        /**
+         * Creates a native library description.
+         * @param name The entry name
+         * @param size The inflated size
+         */
+        NativeLibrary(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Everything known about one bundle.
+     */
+    static final class Record {
+
+        /**
+         * The SWT version of the bundle
+         */
+        final SWT_VERSION version;
+
+        /**
+         * The OS platform of the bundle
+         */
+        final SWT_PLATFORM platform;
+
+        /**
+         * The processor architecture of the bundle
+         */
+        final SWT_PLATFORM_ARCH arch;
+
+        /**
+         * The ClassLoader path of the bundle
+         */
+        final String resourcePath;
+
+        /**
+         * The size of the bundle, or -1 if unknown
+         */
+        final long size;
+
+        /**
+         * The SHA-256 digest of the bundle, or null if unknown
+         */
+        private final byte[] sha256;
+
+        /**
+         * The native libraries in the bundle, empty if unknown
+         */
+        final List<NativeLibrary> natives;
+
+        /**
+         * Whether the bundle is rebuilt from the {@link BundlePack} rather than copied from its resource path
+         */
+        final boolean packed;
+
+        /**
+         * Creates a record.
+         * @param version The SWT version
+         * @param platform The OS platform
+         * @param arch The processor architecture
+         * @param resourcePath The ClassLoader path
+         * @param size The size of the bundle
+         * @param sha256 The SHA-256 digest of the bundle
+         * @param natives The native libraries in the bundle
+         * @param packed Whether the bundle is rebuilt from the pack
+         */
+        Record(SWT_VERSION version, SWT_PLATFORM platform, SWT_PLATFORM_ARCH arch, String resourcePath, long size,
+                byte[] sha256, List<NativeLibrary> natives, boolean packed) {
+            this.version = version;
+            this.platform = platform;
+            this.arch = arch;
+            this.resourcePath = resourcePath;
+            this.size = size;
+            this.sha256 = sha256;
+            this.natives = natives;
+            this.packed = packed;
+        }
+
+        /**
+         * Whether the index knows the size and digest of this bundle.
+         * @return False for bundles which were not indexed at build time
+         */
+        boolean isIndexed() {
+            return sha256 != null;
+        }
+
+        /**
+         * The SHA-256 digest of the bundle.
+         * @return A copy of the digest, or null if unknown
+         */
+        byte[] digest() {
+            return sha256 == null ? null : sha256.clone();
+        }
+
+        /**
+         * The SHA-256 digest of the bundle.
+         * @return The lower case hex digest, or null if unknown
+         */
+        String sha256Hex() {
+            return sha256 == null ? null : toHex(sha256);
+        }
+
+        /**
+         * Checks whether the given file holds exactly the bytes of this bundle.
+         * The size is compared before anything is read, so a mismatch costs only a stat; a match hashes the whole file.
+         * The unpack methods go through {@link BundleVerifier} instead, which remembers the digest of each destination.
+         * @param file The file to check
+         * @return True if the bundle is indexed and the file matches its size and digest
+         * @throws IOException If the file cannot be read
+         */
+        boolean matches(File file) throws IOException {
+            if (!isIndexed() || file.length() != size) {
+                return false;
+            }
+            return MessageDigest.isEqual(sha256, BundleFiles.sha256(file));
+        }
+    }
+
+    /**
+     * Lazily loaded index table; every slot is null if the build did not generate an index.
+     */
+    private static final class Holder {
+
+        /**
+         * The records by slot
+         */
+        static final Record[] TABLE = load();
+
+        /**
+         * Reads the index resource.
+         * @return The table of records, with null slots for bundles missing from the index
+         */
+        private static Record[] load() {
+            Record[] table = new Record[SLOTS];
+            InputStream resource = NativeLibrariesLocation.class.getResourceAsStream(BundleIndexGenerator.INDEX_NAME);
+
+            if (resource == null) {
+                return table;
+            }
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(resource));
+            try {
+                if (in.readInt() != BundleIndexGenerator.MAGIC
+                        || in.readShort() != BundleIndexGenerator.FORMAT_VERSION) {
+                    return table;
+                }
+
+                int count = in.readShort();
+                for (int i = 0; i < count; i++) {
+                    Record record = readRecord(in);
+                    table[slot(record.version, record.platform, record.arch)] = record;
+                }
+            } catch (IOException e) {
+                //A partially read index is no better than none at all
+                return new Record[table.length];
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    //Nothing useful left to do
+                }
+            }
+            return table;
+        }
+
+        /**
+         * Reads one record of the index.
+         * @param in The index positioned at a record
+         * @return The record
+         * @throws IOException If the index is truncated or corrupt
+         */
+        private static Record readRecord(DataInputStream in) throws IOException {
+            SWT_VERSION version = constant(SWT_VERSION.values(), in.readByte());
+            SWT_PLATFORM platform = constant(SWT_PLATFORM.values(), in.readByte());
+            SWT_PLATFORM_ARCH arch = constant(SWT_PLATFORM_ARCH.values(), in.readByte());
+            String resourcePath = in.readUTF();
+            long size = in.readLong();
+            byte[] sha256 = new byte[32];
+            in.readFully(sha256);
+
+            int nativeCount = in.readShort();
+            if (nativeCount < 0) {
+                throw new IOException("Invalid native library count " + nativeCount);
+            }
+            List<NativeLibrary> natives = new ArrayList<NativeLibrary>(nativeCount);
+            for (int i = 0; i < nativeCount; i++) {
+                natives.add(new NativeLibrary(in.readUTF(), in.readLong()));
+            }
+
+            return new Record(version, platform, arch, resourcePath, size, sha256,
+                    Collections.unmodifiableList(natives), false);
+        }
+    }
+
+    /**
+     * Looks up an enum constant by the ordinal an index holds, which a corrupt or newer index may not match.
+     * @param <T> The enum type
+     * @param values The constants of the enum
+     * @param ordinal The ordinal read from the index
+     * @return The constant
+     * @throws IOException If no constant has the ordinal
+     */
+    static <T extends Enum<T>> T constant(T[] values, int ordinal) throws IOException {
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IOException("Invalid ordinal " + ordinal);
+        }
+        return values[ordinal];
+    }
+
+    /**
+     * Looks up a bundle.
+     * @param version The SWT version
+     * @param platform The OS platform
+     * @param arch The processor architecture
+     * @return The indexed record, or null if the index does not know the bundle
+     */
+    static Record get(SWT_VERSION version, SWT_PLATFORM platform, SWT_PLATFORM_ARCH arch) {
+        return Holder.TABLE[slot(version, platform, arch)];
+    }
+
+    /**
+     * Describes a bundle the index does not know, of which only the location is available.
+     * @param version The SWT version
+     * @param platform The OS platform
+     * @param arch The processor architecture
+     * @param resourcePath The ClassLoader path of the bundle
+     * @return A record with unknown size, digest and contents
+     */
+    static Record unindexed(SWT_VERSION version, SWT_PLATFORM platform, SWT_PLATFORM_ARCH arch, String resourcePath) {
+        return new Record(version, platform, arch, resourcePath, -1, null,
+                Collections.<NativeLibrary>emptyList(), false);
+    }
+
+    /**
+     * Computes the table slot of a bundle.
+     * @param version The SWT version
+     * @param platform The OS platform
+     * @param arch The processor architecture
+     * @return The slot index
+     */
+    static int slot(SWT_VERSION version, SWT_PLATFORM platform, SWT_PLATFORM_ARCH arch) {
+        return (version.ordinal() * PLATFORMS + platform.ordinal()) * ARCHES + arch.ordinal();
+    }
+
+    /**
+     * Encodes bytes as lower case hex.
+     * @param bytes The bytes to encode
+     * @return The hex string
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
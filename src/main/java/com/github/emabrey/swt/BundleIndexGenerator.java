@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import com.github.emabrey.swt.natives.NativeLibrariesLocation;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Build-time tool which writes a compact binary index of every bundled SWT library.
+ * <br>
+ * The Maven build runs this class during the <code>process-classes</code> phase, once the bundles have been copied
+ * into the output directory. For each bundle the index records its resource path, its size as stored, its SHA-256
+ * digest, and the name and inflated size of each native library it contains.
+ * The runtime loads the index once, so bundles can be located and validated without being opened.
+ * <br>
+ * Format, big endian as written by {@link DataOutputStream}:
+ * <pre>
+ * int     magic ({@link #MAGIC})
+ * short   format version ({@link #FORMAT_VERSION})
+ * short   record count
+ * record:
+ *   byte  SWT_VERSION ordinal
+ *   byte  SWT_PLATFORM ordinal
+ *   byte  SWT_PLATFORM_ARCH ordinal
+ *   UTF   ClassLoader resource path
+ *   long  size of the bundle
+ *   byte[32] SHA-256 digest of the bundle
+ *   short native library count
+ *   native library:
+ *     UTF  entry name
+ *     long inflated size
+ * </pre>
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public final class BundleIndexGenerator {
+
+    /**
+     * The name of the index resource, relative to the natives package.
+     */
+    public static final String INDEX_NAME = "bundles.idx";
+
+    /**
+     * Identifies an index resource.
+     */
+    public static final int MAGIC = 0x53575449;
+
+    /**
+     * The version of the index format written by this class.
+     */
+    public static final short FORMAT_VERSION = 2;
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private BundleIndexGenerator() {
+        //Do nothing
+    }
+
+    /**
+     * Writes the bundle index into the given class output directory.
+     * @param args A single argument naming the class output directory which contains the bundles
+     * @throws IOException If a bundle cannot be read or the index cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: BundleIndexGenerator <class output directory>");
+        }
+
+        String packagePath = NativeLibrariesLocation.class.getPackage().getName().replace(".", "/");
+        File packageDirectory = new File(args[0], packagePath);
+        List<SWT_VERSION> versions = new ArrayList<SWT_VERSION>();
+        List<SWT_PLATFORM> platforms = new ArrayList<SWT_PLATFORM>();
+        List<SWT_PLATFORM_ARCH> arches = new ArrayList<SWT_PLATFORM_ARCH>();
+
+        for (SWT_VERSION version : SWT_VERSION.values()) {
+            for (SWT_PLATFORM platform : SWT_PLATFORM.values()) {
+                for (SWT_PLATFORM_ARCH arch : SWT_PLATFORM_ARCH.values()) {
+                    if (bundleFile(packageDirectory, version, platform, arch).isFile()) {
+                        //Not every build has to carry every bundle
+                        versions.add(version);
+                        platforms.add(platform);
+                        arches.add(arch);
+                    }
+                }
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(packageDirectory, INDEX_NAME))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeShort(versions.size());
+
+            for (int i = 0; i < versions.size(); i++) {
+                File bundle = bundleFile(packageDirectory, versions.get(i), platforms.get(i), arches.get(i));
+
+                out.writeByte(versions.get(i).ordinal());
+                out.writeByte(platforms.get(i).ordinal());
+                out.writeByte(arches.get(i).ordinal());
+                out.writeUTF(packagePath + "/" + relativePath(versions.get(i), platforms.get(i), arches.get(i)));
+                out.writeLong(bundle.length());
+                writeContents(bundle, out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Forms the path of a bundle relative to the natives package, as the runtime does.
+     * @param version The SWT version
+     * @param platform The OS platform
+     * @param arch The processor architecture
+     * @return The relative path of the bundle
+     */
+    private static String relativePath(SWT_VERSION version, SWT_PLATFORM platform, SWT_PLATFORM_ARCH arch) {
+        return version + "/" + platform + "/" + arch + "/swt.jar";
+    }
+
+    /**
+     * Locates a bundle in the class output directory.
+     * @param packageDirectory The output directory of the natives package
+     * @param version The SWT version
+     * @param platform The OS platform
+     * @param arch The processor architecture
+     * @return The bundle file, which may not exist
+     */
+    private static File bundleFile(File packageDirectory, SWT_VERSION version, SWT_PLATFORM platform,
+            SWT_PLATFORM_ARCH arch) {
+        return new File(packageDirectory, relativePath(version, platform, arch));
+    }
+
+    /**
+     * Writes the digest and native libraries of a bundle.
+     * @param bundle The bundle
+     * @param out The index being written
+     * @throws IOException If the bundle cannot be read
+     */
+    private static void writeContents(File bundle, DataOutputStream out) throws IOException {
+        List<ZipEntry> natives = new ArrayList<ZipEntry>();
+        ZipFile zip = new ZipFile(bundle);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && BundleFiles.isNativeLibrary(entry.getName())) {
+                    natives.add(entry);
+                }
+            }
+        } finally {
+            zip.close();
+        }
+
+        out.write(BundleFiles.sha256(bundle));
+        out.writeShort(natives.size());
+
+        for (ZipEntry entry : natives) {
+            out.writeUTF(entry.getName());
+            out.writeLong(entry.getSize());
+        }
+    }
+}
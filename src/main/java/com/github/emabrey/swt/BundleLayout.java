@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+/**
+ * Decides where each bundle of a batch unpack is written, relative to the output directory.
+ * <br>
+ * {@link StandardBundleLayout} covers the usual layouts; implement this interface to match the directory structure
+ * an installer expects.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public interface BundleLayout {
+
+    /**
+     * Forms the path a bundle is written to.
+     * @param target The bundle
+     * @return The path relative to the output directory, using <code>/</code> as the separator; it must not leave the
+     * output directory, and must differ between the targets of a batch
+     */
+    String pathOf(BundleTarget target);
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import com.github.emabrey.swt.natives.NativeLibrariesLocation;
+import com.github.emabrey.swt.natives.RawZipWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Rebuilds bundles from the deduplicated pack written at build time by {@link BundlePackGenerator}.
+ * <br>
+ * The pack is only shipped by the <code>packed</code> artifact, in place of the individual bundles. It is mapped once;
+ * rebuilding a bundle copies the already compressed entry data behind fresh headers, so it costs about as much as
+ * copying the bundle itself.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class BundlePack {
+
+    /**
+     * Entry names are written as UTF-8
+     */
+    private static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * The whole pack
+     */
+    private final ByteBuffer archive;
+
+    /**
+     * The pack's blob entries by number
+     */
+    private final ZipDirectory.Entry[] blobs;
+
+    /**
+     * The data offset of each blob within the pack
+     */
+    private final int[] offsets;
+
+    /**
+     * The packed bundles by slot, null where the pack does not hold a bundle
+     */
+    private final PackedBundle[] table;
+
+    /**
+     * Creates a pack.
+     * @param archive The whole pack
+     * @param blobs The blob entries by number
+     * @param offsets The data offset of each blob
+     * @param table The packed bundles by slot
+     */
+    private BundlePack(ByteBuffer archive, ZipDirectory.Entry[] blobs, int[] offsets, PackedBundle[] table){
+        this.archive = archive;
+        this.blobs = blobs;
+        this.offsets = offsets;
+        this.table = table;
+    }
+
+    /**
+     * The entries of one packed bundle.
+     */
+    private static final class PackedBundle {
+
+        /**
+         * The size of the rebuilt bundle
+         */
+        final long size;
+
+        /**
+         * The SHA-256 digest of the rebuilt bundle
+         */
+        final byte[] sha256;
+
+        /**
+         * The entry names as UTF-8, in bundle order
+         */
+        final byte[][] names;
+
+        /**
+         * The entry modification times in MS-DOS format
+         */
+        final int[] dosTimes;
+
+        /**
+         * The blob holding each entry's data, or -1 for directories
+         */
+        final int[] blobs;
+
+        /**
+         * Creates a packed bundle.
+         * @param size The size of the rebuilt bundle
+         * @param sha256 The SHA-256 digest of the rebuilt bundle
+         * @param names The entry names
+         * @param dosTimes The entry modification times
+         * @param blobs The blob of each entry
+         */
+        PackedBundle(long size, byte[] sha256, byte[][] names, int[] dosTimes, int[] blobs){
+            this.size = size;
+            this.sha256 = sha256;
+            this.names = names;
+            this.dosTimes = dosTimes;
+            this.blobs = blobs;
+        }
+    }
+
+    /**
+     * Lazily mapped pack.
+     */
+    private static final class Holder {
+
+        /**
+         * The location of the pack
+         */
+        static final URL LOCATION = NativeLibrariesLocation.class.getResource(BundlePackGenerator.PACK_NAME);
+
+        /**
+         * The pack, or null if it is not on the classpath or cannot be read
+         */
+        static final BundlePack PACK = load();
+
+        /**
+         * Maps the pack and reads its index.
+         * @return The pack, or null if there is no usable pack
+         */
+        private static BundlePack load(){
+
+            if(LOCATION == null){
+                return null;
+            }
+
+            try {
+                ByteBuffer pack = BundleChannels.map(LOCATION);
+                ZipDirectory directory = ZipDirectory.read(pack);
+                ZipDirectory.Entry indexEntry = directory.get(BundlePackGenerator.INDEX_ENTRY);
+
+                if(indexEntry == null){
+                    throw new ZipException("No index in " + LOCATION);
+                }
+
+                int blobCount = directory.entries().size() - 1;
+                ZipDirectory.Entry[] blobs = new ZipDirectory.Entry[blobCount];
+                int[] offsets = new int[blobCount];
+
+                for(int i = 0; i < blobCount; i++){
+                    blobs[i] = directory.get(Integer.toString(i));
+                    if(blobs[i] == null){
+                        throw new ZipException("Missing blob " + i + " in " + LOCATION);
+                    }
+                    offsets[i] = ZipDirectory.dataOffset(pack, blobs[i]);
+                }
+
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(BundleImage.read(pack, indexEntry)));
+                if(in.readInt() != BundlePackGenerator.MAGIC || in.readShort() != BundlePackGenerator.FORMAT_VERSION){
+                    return null;
+                }
+
+                PackedBundle[] table = new PackedBundle[BundleIndex.SLOTS];
+                int count = in.readShort();
+                for(int i = 0; i < count; i++){
+                    SWT_VERSION version = BundleIndex.constant(SWT_VERSION.values(), in.readByte());
+                    SWT_PLATFORM platform = BundleIndex.constant(SWT_PLATFORM.values(), in.readByte());
+                    SWT_PLATFORM_ARCH arch = BundleIndex.constant(SWT_PLATFORM_ARCH.values(), in.readByte());
+                    table[BundleIndex.slot(version, platform, arch)] = readBundle(in);
+                }
+
+                return new BundlePack(pack, blobs, offsets, table);
+            } catch (IOException e){
+                //An unreadable pack is no better than none at all
+                return null;
+            }
+        }
+
+        /**
+         * Reads one bundle of the index.
+         * @param in The index positioned after the bundle's ordinals
+         * @return The packed bundle
+         * @throws IOException If the index is truncated
+         */
+        private static PackedBundle readBundle(DataInputStream in) throws IOException{
+            long size = in.readLong();
+            byte[] sha256 = new byte[32];
+            in.readFully(sha256);
+
+            int entryCount = in.readInt();
+            if(entryCount < 0){
+                throw new ZipException("Invalid entry count " + entryCount + " in " + LOCATION);
+            }
+            byte[][] names = new byte[entryCount][];
+            int[] dosTimes = new int[entryCount];
+            int[] blobs = new int[entryCount];
+            for(int i = 0; i < entryCount; i++){
+                names[i] = in.readUTF().getBytes(NAME_CHARSET);
+                dosTimes[i] = in.readInt();
+                blobs[i] = in.readInt();
+            }
+
+            return new PackedBundle(size, sha256, names, dosTimes, blobs);
+        }
+    }
+
+    /**
+     * Looks up the packed form of a bundle.
+     * @param bundle The bundle as known to the index
+     * @return A record describing the rebuilt bundle, or null if the pack does not hold it
+     */
+    static BundleIndex.Record get(BundleIndex.Record bundle){
+        BundlePack pack = Holder.PACK;
+        PackedBundle packed = pack == null ? null
+                : pack.table[BundleIndex.slot(bundle.version, bundle.platform, bundle.arch)];
+
+        if(packed == null){
+            return null;
+        }
+
+        return new BundleIndex.Record(bundle.version, bundle.platform, bundle.arch, bundle.resourcePath, packed.size,
+                packed.sha256, bundle.natives, true);
+    }
+
+    /**
+     * The location of the pack.
+     * @return The pack's URL, or null if it is not on the classpath
+     */
+    static URL location(){
+        return Holder.LOCATION;
+    }
+
+    /**
+     * Rebuilds a bundle into a buffer of exactly its size, so the bundle is held on the heap once rather than grown
+     * and then copied.
+     * @param bundle A record returned by {@link #get}
+     * @return A read-only buffer holding the bundle, positioned at zero
+     * @throws IOException If the bundle does not have the size its record gives
+     */
+    static ByteBuffer rebuild(BundleIndex.Record bundle) throws IOException{
+        ByteBuffer buffer = ByteBuffer.allocate((int) bundle.size);
+        write(bundle, BundleChannels.sink(buffer));
+        if(buffer.hasRemaining()){
+            throw new IOException("Rebuilt " + buffer.position() + " of " + bundle.size + " bytes");
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Rebuilds a bundle.
+     * @param bundle A record returned by {@link #get}
+     * @param out Receives the bundle; it is not closed
+     * @throws IOException If the bundle cannot be written
+     */
+    static void write(BundleIndex.Record bundle, WritableByteChannel out) throws IOException{
+        BundlePack pack = Holder.PACK;
+        PackedBundle packed = pack.table[BundleIndex.slot(bundle.version, bundle.platform, bundle.arch)];
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        RawZipWriter writer = new RawZipWriter(out);
+
+        for(int i = 0; i < packed.names.length; i++){
+            int blob = packed.blobs[i];
+
+            if(blob < 0){
+                writer.add(packed.names[i], packed.dosTimes[i], ZipEntry.STORED, 0, 0, empty);
+            } else{
+                ZipDirectory.Entry entry = pack.blobs[blob];
+                ByteBuffer data = pack.archive.duplicate();
+                data.position(pack.offsets[blob]).limit(pack.offsets[blob] + (int) entry.compressedSize);
+                writer.add(packed.names[i], packed.dosTimes[i], entry.method, entry.crc, entry.size, data);
+            }
+        }
+
+        writer.finish();
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import com.github.emabrey.swt.natives.NativeLibrariesLocation;
+import com.github.emabrey.swt.natives.RawZipWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Build-time tool which packs every bundled SWT library into a single deduplicated archive.
+ * <br>
+ * The versions of SWT for one platform share most of their classes, so each distinct entry content is stored once,
+ * deflated at the highest level. The pack is itself a zip archive: its first entry is the index, which lists the
+ * entries of every bundle and the blob holding each one's data, and every other entry is a blob named by its number.
+ * The runtime rebuilds a bundle by copying the already compressed blobs behind fresh headers with
+ * {@link RawZipWriter}, so no data is compressed again at unpack time. This class rebuilds each bundle the same way to
+ * record the size and SHA-256 digest of the result.
+ * <br>
+ * Index format, big endian as written by {@link DataOutputStream}:
+ * <pre>
+ * int     magic ({@link #MAGIC})
+ * short   format version ({@link #FORMAT_VERSION})
+ * short   bundle count
+ * bundle:
+ *   byte  SWT_VERSION ordinal
+ *   byte  SWT_PLATFORM ordinal
+ *   byte  SWT_PLATFORM_ARCH ordinal
+ *   long  size of the rebuilt bundle
+ *   byte[32] SHA-256 digest of the rebuilt bundle
+ *   int   entry count
+ *   entry:
+ *     UTF  entry name
+ *     int  modification time in MS-DOS format
+ *     int  blob number, or -1 for a directory
+ * </pre>
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public final class BundlePackGenerator {
+
+    /**
+     * The name of the pack resource, relative to the natives package.
+     */
+    public static final String PACK_NAME = "bundles.pack";
+
+    /**
+     * The name of the pack entry which holds the index.
+     */
+    public static final String INDEX_ENTRY = "index";
+
+    /**
+     * Identifies a pack index.
+     */
+    public static final int MAGIC = 0x53575450;
+
+    /**
+     * The version of the pack format written by this class.
+     */
+    public static final short FORMAT_VERSION = 1;
+
+    /**
+     * The MS-DOS time of 1980-01-01, given to the pack's own entries so the build is reproducible
+     */
+    private static final int DOS_EPOCH = 0x00210000;
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private BundlePackGenerator(){
+        //Do nothing
+    }
+
+    /**
+     * The distinct entry contents of all bundles, compressed.
+     */
+    private static final class Blobs {
+
+        /**
+         * Blob numbers by SHA-256 digest of the uncompressed content
+         */
+        final Map<BigInteger, Integer> numbers = new HashMap<BigInteger, Integer>();
+
+        /**
+         * The data as stored
+         */
+        final List<byte[]> data = new ArrayList<byte[]>();
+
+        /**
+         * The compression methods
+         */
+        final List<Integer> methods = new ArrayList<Integer>();
+
+        /**
+         * The CRC-32 of the uncompressed data
+         */
+        final List<Long> crcs = new ArrayList<Long>();
+
+        /**
+         * The uncompressed sizes
+         */
+        final List<Long> sizes = new ArrayList<Long>();
+
+        /**
+         * Finds or adds the blob with the given content.
+         * @param content The uncompressed content
+         * @return The blob number
+         */
+        int add(byte[] content){
+            BigInteger key = new BigInteger(1, BundleFiles.sha256(ByteBuffer.wrap(content)));
+            Integer number = numbers.get(key);
+
+            if(number == null){
+                number = data.size();
+                numbers.put(key, number);
+
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                byte[] deflated = deflate(content);
+
+                if(deflated.length < content.length){
+                    data.add(deflated);
+                    methods.add(ZipEntry.DEFLATED);
+                } else{
+                    //Already compressed content, such as images, gains nothing
+                    data.add(content);
+                    methods.add(ZipEntry.STORED);
+                }
+                crcs.add(crc.getValue());
+                sizes.add((long) content.length);
+            }
+            return number;
+        }
+    }
+
+    /**
+     * One entry of a bundle, pointing at its blob.
+     */
+    private static final class PackedEntry {
+
+        /**
+         * The entry name
+         */
+        final String name;
+
+        /**
+         * The modification time in MS-DOS format
+         */
+        final int dosTime;
+
+        /**
+         * The blob number, or -1 for a directory
+         */
+        final int blob;
+
+        /**
+         * Creates an entry.
+         * @param name The entry name
+         * @param dosTime The modification time in MS-DOS format
+         * @param blob The blob number, or -1 for a directory
+         */
+        PackedEntry(String name, int dosTime, int blob){
+            this.name = name;
+            this.dosTime = dosTime;
+            this.blob = blob;
+        }
+    }
+
+    /**
+     * Writes the bundle pack into the given class output directory.
+     * @param args A single argument naming the class output directory which contains the bundles
+     * @throws IOException If a bundle cannot be read or the pack cannot be written
+     */
+    public static void main(String[] args) throws IOException{
+
+        if(args.length != 1){
+            throw new IllegalArgumentException("Usage: BundlePackGenerator <class output directory>");
+        }
+
+        File packageDirectory = new File(args[0],
+                NativeLibrariesLocation.class.getPackage().getName().replace(".", "/"));
+        Blobs blobs = new Blobs();
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        int bundleCount = 0;
+
+        index.writeInt(MAGIC);
+        index.writeShort(FORMAT_VERSION);
+        index.writeShort(0);//Patched below
+
+        for(SWT_VERSION version : SWT_VERSION.values()){
+            for(SWT_PLATFORM platform : SWT_PLATFORM.values()){
+                for(SWT_PLATFORM_ARCH arch : SWT_PLATFORM_ARCH.values()){
+                    File bundle = new File(packageDirectory, version + "/" + platform + "/" + arch + "/swt.jar");
+
+                    if(!bundle.isFile()){
+                        //Not every build has to carry every bundle
+                        continue;
+                    }
+
+                    List<PackedEntry> entries = readEntries(bundle, blobs);
+                    ByteArrayOutputStream rebuilt = new ByteArrayOutputStream((int) bundle.length());
+                    rebuild(entries, blobs, rebuilt);
+
+                    index.writeByte(version.ordinal());
+                    index.writeByte(platform.ordinal());
+                    index.writeByte(arch.ordinal());
+                    index.writeLong(rebuilt.size());
+                    index.write(BundleFiles.sha256(ByteBuffer.wrap(rebuilt.toByteArray())));
+                    index.writeInt(entries.size());
+                    for(PackedEntry entry : entries){
+                        index.writeUTF(entry.name);
+                        index.writeInt(entry.dosTime);
+                        index.writeInt(entry.blob);
+                    }
+                    bundleCount++;
+                }
+            }
+        }
+
+        index.close();
+        byte[] indexData = indexBytes.toByteArray();
+        ByteBuffer.wrap(indexData).putShort(6, (short) bundleCount);
+
+        FileOutputStream out = new FileOutputStream(new File(packageDirectory, PACK_NAME));
+        try {
+            RawZipWriter pack = new RawZipWriter(out.getChannel());
+            CRC32 crc = new CRC32();
+            crc.update(indexData);
+            pack.add(INDEX_ENTRY, DOS_EPOCH, ZipEntry.STORED, crc.getValue(), indexData.length,
+                    ByteBuffer.wrap(indexData));
+
+            for(int i = 0; i < blobs.data.size(); i++){
+                pack.add(Integer.toString(i), DOS_EPOCH, blobs.methods.get(i), blobs.crcs.get(i), blobs.sizes.get(i),
+                        ByteBuffer.wrap(blobs.data.get(i)));
+            }
+            pack.finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the entries of a bundle in order, adding their contents to the blobs.
+     * @param bundle The bundle
+     * @param blobs The blobs of all bundles so far
+     * @return The bundle's entries
+     * @throws IOException If the bundle cannot be read
+     */
+    private static List<PackedEntry> readEntries(File bundle, Blobs blobs) throws IOException{
+        List<PackedEntry> entries = new ArrayList<PackedEntry>();
+        ZipFile zip = new ZipFile(bundle);
+        try {
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while(zipEntries.hasMoreElements()){
+                ZipEntry entry = zipEntries.nextElement();
+                int blob = entry.isDirectory() ? -1 : blobs.add(readAll(zip, entry));
+                entries.add(new PackedEntry(entry.getName(), toDosTime(entry.getTime()), blob));
+            }
+        } finally {
+            zip.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Rebuilds a bundle from its entries exactly as the runtime does.
+     * @param entries The bundle's entries
+     * @param blobs The blobs holding their data
+     * @param out Receives the bundle
+     * @throws IOException If the bundle cannot be written
+     */
+    private static void rebuild(List<PackedEntry> entries, Blobs blobs, ByteArrayOutputStream out)
+            throws IOException{
+        RawZipWriter writer = new RawZipWriter(Channels.newChannel(out));
+        for(PackedEntry entry : entries){
+            if(entry.blob < 0){
+                writer.add(entry.name, entry.dosTime, ZipEntry.STORED, 0, 0, ByteBuffer.allocate(0));
+            } else{
+                writer.add(entry.name, entry.dosTime, blobs.methods.get(entry.blob), blobs.crcs.get(entry.blob),
+                        blobs.sizes.get(entry.blob), ByteBuffer.wrap(blobs.data.get(entry.blob)));
+            }
+        }
+        writer.finish();
+    }
+
+    /**
+     * Reads the uncompressed content of an entry.
+     * @param zip The bundle
+     * @param entry The entry
+     * @return The content
+     * @throws IOException If the entry cannot be read
+     */
+    private static byte[] readAll(ZipFile zip, ZipEntry entry) throws IOException{
+        ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.max(entry.getSize(), 0));
+        InputStream in = zip.getInputStream(entry);
+        try {
+            byte[] buf = new byte[8192];
+            int readLength;
+            while((readLength = in.read(buf)) >= 0){
+                content.write(buf, 0, readLength);
+            }
+        } finally {
+            in.close();
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Compresses content as raw deflate data at the highest level.
+     * @param content The content
+     * @return The compressed data
+     */
+    private static byte[] deflate(byte[] content){
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(content.length / 2 + 64);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] buf = new byte[8192];
+            while(!deflater.finished()){
+                deflated.write(buf, 0, deflater.deflate(buf));
+            }
+        } finally {
+            deflater.end();
+        }
+        return deflated.toByteArray();
+    }
+
+    /**
+     * Converts a Java time to the MS-DOS format used in zip headers, in the local time zone as zip tools do.
+     * @param time The time in milliseconds since the epoch, or -1 if unknown
+     * @return The MS-DOS date and time
+     */
+    private static int toDosTime(long time){
+        if(time < 0){
+            return DOS_EPOCH;
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+
+        if(year < 1980){
+            return DOS_EPOCH;
+        }
+
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.net.URL;
+
+/**
+ * Where the unpack methods find bundles.
+ * <br>
+ * The default source is the class loader of this library. {@link BundleSources} provides sources for a directory of
+ * pre-staged bundles and for a single archive of bundles; set one with
+ * {@link SWTNatives#setBundleSource(BundleSource)}. Bundles are returned as URLs, so a bundle that is a plain file or
+ * a stored entry of a local archive is transferred by the kernel and memory-mapped rather than streamed.
+ * Implementations must be thread-safe and should answer quickly; the unpack methods do not cache their answers.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public interface BundleSource {
+
+    /**
+     * Finds a bundle.
+     * @param target The version, platform and architecture of the bundle
+     * @param resourcePath The path of the bundle inside this library's jar, such as
+     * <code>com/github/emabrey/swt/natives/_4_2_1/linux/x64/swt.jar</code>
+     * @return The location of the bundle, or null if this source does not have it
+     */
+    URL locate(BundleTarget target, String resourcePath);
+}
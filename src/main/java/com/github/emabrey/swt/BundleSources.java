@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The built-in {@link BundleSource}s.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public final class BundleSources {
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private BundleSources() {
+        //Do nothing
+    }
+
+    /**
+     * A source which asks a class loader for the bundle's resource path, remembering each bundle it found so a large
+     * class path is searched at most once per bundle.
+     * @param loader The class loader to ask, e.g. the context class loader under an application server
+     * @return The source
+     * @throws NullPointerException If the loader is null
+     */
+    public static BundleSource classLoader(ClassLoader loader) {
+        if (loader == null) {
+            throw new NullPointerException();
+        }
+        return new ClassLoaderSource(loader);
+    }
+
+    /**
+     * A source of bundles staged in a directory, e.g. by
+     * {@link SWTNatives#unpackAll(java.util.Collection, File, BundleLayout)} with the same layout. Nothing is cached,
+     * so bundles may be staged while the source is in use.
+     * @param directory The directory holding the bundles
+     * @param layout Where in the directory each bundle is
+     * @return The source
+     * @throws NullPointerException If an argument is null
+     */
+    public static BundleSource directory(File directory, BundleLayout layout) {
+        if (directory == null || layout == null) {
+            throw new NullPointerException();
+        }
+        return new DirectorySource(directory.getAbsoluteFile(), layout);
+    }
+
+    /**
+     * A source of bundles held in a single zip archive, such as a zip of a directory staged for
+     * {@link #directory(File, BundleLayout)}. The archive's central directory is read once, up front, into an index of
+     * the bundles it holds; entries stored without compression are then memory-mapped or transferred straight out of
+     * the archive.
+     * @param archive The archive file
+     * @param layout Where in the archive each bundle is
+     * @return The source
+     * @throws IOException If the archive cannot be read
+     * @throws NullPointerException If an argument is null
+     */
+    public static BundleSource archive(File archive, BundleLayout layout) throws IOException {
+        if (archive == null || layout == null) {
+            throw new NullPointerException();
+        }
+        return new ArchiveSource(archive.getAbsoluteFile(), layout);
+    }
+
+    /**
+     * A source which asks several sources in turn, e.g. a directory of pre-staged bundles before the class path.
+     * @param sources The sources, in the order they are asked
+     * @return The source
+     * @throws NullPointerException If any source is null
+     */
+    public static BundleSource chain(BundleSource... sources) {
+        List<BundleSource> list = Arrays.asList(sources.clone());
+        if (list.contains(null)) {
+            throw new NullPointerException();
+        }
+        return new ChainSource(list);
+    }
+
+    /**
+     * Asks a class loader.
+     */
+    private static final class ClassLoaderSource implements BundleSource {
+
+        /**
+         * The class loader to ask
+         */
+        private final ClassLoader loader;
+
+        /**
+         * The bundles found so far, by resource path
+         */
+        private final ConcurrentMap<String, URL> found = new ConcurrentHashMap<String, URL>();
+
+        /**
+         * Creates a source.
+         * @param loader The class loader to ask
+         */
+        ClassLoaderSource(ClassLoader loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public URL locate(BundleTarget target, String resourcePath) {
+            URL resource = found.get(resourcePath);
+
+            if (resource == null) {
+                resource = loader.getResource(resourcePath);
+
+                if (resource != null) {
+                    found.putIfAbsent(resourcePath, resource);
+                }
+            }
+
+            return resource;
+        }
+
+        @Override
+        public String toString() {
+            return "BundleSource[class loader " + loader + "]";
+        }
+    }
+
+    /**
+     * Looks in a directory.
+     */
+    private static final class DirectorySource implements BundleSource {
+
+        /**
+         * The directory holding the bundles
+         */
+        private final File directory;
+
+        /**
+         * Where in the directory each bundle is
+         */
+        private final BundleLayout layout;
+
+        /**
+         * Creates a source.
+         * @param directory The directory holding the bundles
+         * @param layout Where in the directory each bundle is
+         */
+        DirectorySource(File directory, BundleLayout layout) {
+            this.directory = directory;
+            this.layout = layout;
+        }
+
+        @Override
+        public URL locate(BundleTarget target, String resourcePath) {
+            File bundle = new File(directory, layout.pathOf(target));
+
+            if (!bundle.isFile()) {
+                return null;
+            }
+
+            try {
+                return bundle.toURI().toURL();
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "BundleSource[directory " + directory + "]";
+        }
+    }
+
+    /**
+     * Looks in a zip archive.
+     */
+    private static final class ArchiveSource implements BundleSource {
+
+        /**
+         * The archive
+         */
+        private final File archive;
+
+        /**
+         * Where in the archive each bundle is
+         */
+        private final BundleLayout layout;
+
+        /**
+         * The location of every bundle in the archive, by entry name
+         */
+        private final Map<String, URL> index = new HashMap<String, URL>();
+
+        /**
+         * Creates a source, reading the archive's central directory.
+         * @param archive The archive
+         * @param layout Where in the archive each bundle is
+         * @throws IOException If the archive cannot be read
+         */
+        ArchiveSource(File archive, BundleLayout layout) throws IOException {
+            this.archive = archive;
+            this.layout = layout;
+
+            String base = "jar:" + archive.toURI().toURL() + "!/";
+            ZipDirectory directory;
+            FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+            try {
+                directory = ZipDirectory.read(channel);
+            } finally {
+                channel.close();
+            }
+
+            for (ZipDirectory.Entry entry : directory.entries()) {
+                if (!entry.isDirectory()) {
+                    index.put(entry.name, new URL(base + entry.name));
+                }
+            }
+        }
+
+        @Override
+        public URL locate(BundleTarget target, String resourcePath) {
+            return index.get(layout.pathOf(target));
+        }
+
+        @Override
+        public String toString() {
+            return "BundleSource[archive " + archive + ", " + index.size() + " entries]";
+        }
+    }
+
+    /**
+     * Asks several sources in turn.
+     */
+    private static final class ChainSource implements BundleSource {
+
+        /**
+         * The sources, in the order they are asked
+         */
+        private final List<BundleSource> sources;
+
+        /**
+         * Creates a source.
+         * @param sources The sources, in the order they are asked
+         */
+        ChainSource(List<BundleSource> sources) {
+            this.sources = sources;
+        }
+
+        @Override
+        public URL locate(BundleTarget target, String resourcePath) {
+            for (BundleSource source : sources) {
+                URL resource = source.locate(target, resourcePath);
+                if (resource != null) {
+                    return resource;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "BundleSource" + sources;
+        }
+    }
+}
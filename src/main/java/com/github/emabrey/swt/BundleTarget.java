@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Identifies one SWT bundle by version, platform and architecture, independently of the platform this JVM runs on.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public final class BundleTarget {
+
+    /**
+     * Every bundle, in version, platform and architecture order
+     */
+    private static final Set<BundleTarget> ALL = createAll();
+
+    /**
+     * The SWT version
+     */
+    private final SWT_VERSION version;
+
+    /**
+     * The OS platform
+     */
+    private final SWT_PLATFORM platform;
+
+    /**
+     * The processor architecture
+     */
+    private final SWT_PLATFORM_ARCH arch;
+
+    /**
+     * Creates a target.
+     * @param version The SWT version
+     * @param platform The OS platform
+     * @param arch The processor architecture
+     */
+    private BundleTarget(SWT_VERSION version, SWT_PLATFORM platform, SWT_PLATFORM_ARCH arch){
+        this.version = version;
+        this.platform = platform;
+        this.arch = arch;
+    }
+
+    /**
+     * Identifies a bundle.
+     * @param version The SWT version
+     * @param platform The OS platform
+     * @param arch The processor architecture
+     * @return The target
+     * @throws NullPointerException If any argument is null
+     */
+    public static BundleTarget of(SWT_VERSION version, SWT_PLATFORM platform, SWT_PLATFORM_ARCH arch){
+        if(version == null || platform == null || arch == null){
+            throw new NullPointerException();
+        }
+        return new BundleTarget(version, platform, arch);
+    }
+
+    /**
+     * Identifies every bundle this library supports, e.g. to assemble the images of all platforms at once.
+     * @return An unmodifiable set of every target, in version, platform and architecture order
+     */
+    public static Set<BundleTarget> all(){
+        return ALL;
+    }
+
+    /**
+     * Creates every target.
+     * @return The unmodifiable set of every target
+     */
+    private static Set<BundleTarget> createAll(){
+        Set<BundleTarget> all = new LinkedHashSet<BundleTarget>();
+        for(SWT_VERSION version : SWT_VERSION.values()){
+            for(SWT_PLATFORM platform : SWT_PLATFORM.values()){
+                for(SWT_PLATFORM_ARCH arch : SWT_PLATFORM_ARCH.values()){
+                    all.add(new BundleTarget(version, platform, arch));
+                }
+            }
+        }
+        return Collections.unmodifiableSet(all);
+    }
+
+    /**
+     * The SWT version of the bundle.
+     * @return The SWT version
+     */
+    public SWT_VERSION getVersion(){
+        return version;
+    }
+
+    /**
+     * The operating system the bundle is built for.
+     * @return The OS platform
+     */
+    public SWT_PLATFORM getPlatform(){
+        return platform;
+    }
+
+    /**
+     * The processor architecture the bundle is built for.
+     * @return The processor architecture
+     */
+    public SWT_PLATFORM_ARCH getArch(){
+        return arch;
+    }
+
+    /**
+     * The Maven classifier of the artifact which carries this bundle alone.
+     * @return The classifier, such as <code>linux-x64-4.2.1</code>
+     */
+    public String getClassifier(){
+        return SWTNatives.classifierOf(version, platform, arch);
+    }
+
+    @Override
+    public boolean equals(Object obj){
+        if(this == obj){
+            return true;
+        }
+        if(!(obj instanceof BundleTarget)){
+            return false;
+        }
+        BundleTarget other = (BundleTarget) obj;
+        return version == other.version && platform == other.platform && arch == other.arch;
+    }
+
+    @Override
+    public int hashCode(){
+        return BundleIndex.slot(version, platform, arch);
+    }
+
+    @Override
+    public String toString(){
+        return "BundleTarget[" + version + "/" + platform + "/" + arch + "]";
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.localization.ErrorMessage;
+import com.github.emabrey.swt.localization.ErrorMessages;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks unpacked bundles against the SHA-256 digests recorded at build time, and remembers on this host what each
+ * destination was found to hold.
+ * <br>
+ * A file passes if its size and digest equal the expected ones, which for a whole bundle are those of the
+ * {@link BundleIndex}. Checksums stored in the bundle itself would prove nothing, since whoever can change the
+ * entries can change their checksums as well; the bundles shipped in this artifact are not signed, so the index is
+ * the only reference there is.
+ * <br>
+ * The check is one sequential pass over the file rather than work spread over the entries: a SHA-256 digest cannot be
+ * split across threads and still equal the digest of the index, and the records below keep that pass off every start
+ * but the first after a destination changes.
+ * <br>
+ * The digest of each destination is remembered in the <code>verified</code> directory of the bundle cache, in a record
+ * holding the destination's size, modification time and digest. While the size and modification time are unchanged,
+ * a later check costs a stat and a small read; a destination whose metadata changed is hashed again. Records are only
+ * made by checks, i.e. with verification on or for destinations which are reused if unchanged; a plain unpack writes
+ * none.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class BundleVerifier {
+
+    /**
+     * The SLF4J Logger instance for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(BundleVerifier.class);
+
+    /**
+     * The localized error messages
+     */
+    private static final ErrorMessage ERROR_MESSAGE = ErrorMessages.get();
+
+    /**
+     * Name of the directory below the cache root holding the records
+     */
+    private static final String DIRECTORY_NAME = "verified";
+
+    /**
+     * Suffix of the record of a destination, named by the hash code of its path
+     */
+    private static final String RECORD_SUFFIX = ".record";
+
+    /**
+     * Suffix of temporary files, as the sweep of the bundle cache removes them
+     */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Encoding of the records
+     */
+    private static final Charset RECORD_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private BundleVerifier() {
+        //Do nothing
+    }
+
+    /**
+     * Checks a file against an expected size and digest.
+     * @param expected The expected SHA-256 digest
+     * @param size The expected size
+     * @param file The file to check
+     * @param destination The destination the file is, or is about to be renamed to, which keeps its size and
+     * modification time
+     * @param cacheRoot The bundle cache, or null to hash the file every time
+     * @return True if the file passed
+     * @throws IOException If the file cannot be read
+     */
+    static boolean verify(byte[] expected, long size, File file, File destination, File cacheRoot)
+            throws IOException {
+
+        //The size is compared before anything is read, so a mismatch costs only a stat
+        return file.length() == size && MessageDigest.isEqual(expected, digest(file, destination, cacheRoot));
+    }
+
+    /**
+     * Determines the SHA-256 digest of a file, reading it from the record of the destination while the file's size
+     * and modification time match the record, and hashing the file and recording the result otherwise.
+     * @param file The file to digest
+     * @param destination The destination the file is, or is about to be renamed to
+     * @param cacheRoot The bundle cache, or null to hash the file every time
+     * @return The digest
+     * @throws IOException If the file cannot be read
+     */
+    static byte[] digest(File file, File destination, File cacheRoot) throws IOException {
+        String path = destination.getCanonicalPath();
+        File record = recordOf(path, cacheRoot);
+        String metadata = file.length() + ":" + file.lastModified() + ":";
+
+        String recorded = record == null ? null : readRecord(record, path);
+        if (recorded != null && recorded.startsWith(metadata)) {
+            byte[] digest = fromHex(recorded.substring(metadata.length()));
+            if (digest != null) {
+                //Unchanged since it was hashed
+                return digest;
+            }
+        }
+
+        byte[] digest = BundleFiles.sha256(file);
+        if (record != null) {
+            write(record, metadata + BundleIndex.toHex(digest) + "\n" + path);
+        }
+        return digest;
+    }
+
+    /**
+     * Removes the records which can no longer save any hashing: those of destinations which are gone or changed
+     * since they were recorded, which would be hashed again anyway, and temporary files left by writes which died.
+     * @param cacheRoot The bundle cache
+     * @param staleBefore Temporary files last modified before this time are removed, later ones may still be written
+     * @return The number of files removed
+     */
+    static int prune(File cacheRoot, long staleBefore) {
+        File[] files = new File(cacheRoot, DIRECTORY_NAME).listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        int removed = 0;
+        for (File file : files) {
+            String name = file.getName();
+            boolean stale;
+
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                stale = file.lastModified() < staleBefore;
+            } else if (name.endsWith(RECORD_SUFFIX)) {
+                String[] lines = readLines(file);
+                stale = lines == null || !isCurrent(lines[0], new File(lines[1]));
+            } else {
+                //Not ours
+                stale = false;
+            }
+
+            //A record rewritten meanwhile is merely hashed again next time
+            if (stale && file.delete()) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Checks whether a record still describes its destination.
+     * @param metadata The recorded size, modification time and digest
+     * @param destination The destination
+     * @return True if the destination exists with the recorded size and modification time
+     */
+    private static boolean isCurrent(String metadata, File destination) {
+        return destination.isFile()
+                && metadata.startsWith(destination.length() + ":" + destination.lastModified() + ":");
+    }
+
+    /**
+     * Names the record of a destination.
+     * @param path The canonical path of the destination
+     * @param cacheRoot The bundle cache, or null
+     * @return The record file, or null without a bundle cache
+     */
+    private static File recordOf(String path, File cacheRoot) {
+        if (cacheRoot == null) {
+            return null;
+        }
+        return new File(new File(cacheRoot, DIRECTORY_NAME), Integer.toHexString(path.hashCode()) + RECORD_SUFFIX);
+    }
+
+    /**
+     * Decodes a recorded digest.
+     * @param hex The lower case hex digest
+     * @return The digest, or null if the record is malformed
+     */
+    private static byte[] fromHex(String hex) {
+        if (hex.length() != 64) {
+            return null;
+        }
+
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the record of a destination.
+     * @param record The record file
+     * @param path The canonical path of the destination
+     * @return The recorded size, modification time and digest, or null if there is no record for this path
+     */
+    private static String readRecord(File record, String path) {
+        if (!record.isFile()) {
+            return null;
+        }
+
+        String[] lines = readLines(record);
+        return lines != null && path.equals(lines[1]) ? lines[0] : null;
+    }
+
+    /**
+     * Reads the two lines of a record.
+     * @param record The record file
+     * @return The recorded size, modification time and digest, and the canonical path of the destination, or null if
+     * the record cannot be read or is malformed
+     */
+    private static String[] readLines(File record) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(record),
+                    RECORD_CHARSET));
+            try {
+                String metadata = reader.readLine();
+                String path = reader.readLine();
+                return metadata == null || path == null ? null : new String[]{metadata, path};
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            //Treated as never hashed
+            LOG.debug(ERROR_MESSAGE.unableToRecordVerification(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces a record atomically. Failures are only logged, since the file is merely hashed again next time.
+     * @param file The record
+     * @param content Its content
+     */
+    private static void write(File file, String content) {
+        try {
+            File directory = file.getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("Unable to create " + directory);
+            }
+
+            File temporary = File.createTempFile(file.getName() + ".", TEMPORARY_SUFFIX, directory);
+            boolean moved = false;
+
+            try {
+                OutputStream out = new FileOutputStream(temporary);
+                try {
+                    out.write(content.getBytes(RECORD_CHARSET));
+                } finally {
+                    out.close();
+                }
+
+                try {
+                    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                moved = true;
+
+            } finally {
+                if (!moved) {
+                    Files.deleteIfExists(temporary.toPath());
+                }
+            }
+        } catch (IOException e) {
+            LOG.debug(ERROR_MESSAGE.unableToRecordVerification(), e);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Creates the class data sharing (AppCDS) archive of an unpacked bundle, which lets later JVMs map the bundle's
+ * classes already parsed and verified instead of loading them from the jar.
+ * <br>
+ * A training run of {@link ClassDataTrainer} lists the classes of the bundle with
+ * <code>-XX:DumpLoadedClassList</code>, and a second JVM dumps them with <code>-Xshare:dump</code>, using the bundle as
+ * its only class path entry. A static archive rather than a dynamic one is dumped, because the application's class
+ * path only has to start with the bundle, not equal the class path of the training run, which also holds the trainer.
+ * <br>
+ * The archive is named after the bundle's SHA-256 digest and the JVM's version, so a changed bundle or another JVM
+ * gets an archive of its own, and sits beside the bundle.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class ClassDataArchive {
+
+    /**
+     * The first Java specification version which dumps application classes without further flags
+     */
+    static final int MINIMUM_JAVA_VERSION = 11;
+
+    /**
+     * Suffix of archive files
+     */
+    private static final String ARCHIVE_SUFFIX = ".jsa";
+
+    /**
+     * Number of digest characters in an archive's name, plenty to tell bundles apart
+     */
+    private static final int DIGEST_LENGTH = 16;
+
+    /**
+     * Time a training run or dump may take before its JVM is destroyed; either takes seconds unless it hangs
+     */
+    private static final long TIMEOUT_MILLIS = 5 * 60 * 1000L;
+
+    /**
+     * Interval at which a running JVM is checked for having exited
+     */
+    private static final long POLL_MILLIS = 50;
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private ClassDataArchive() {
+        //Do nothing
+    }
+
+    /**
+     * Determines the Java specification version of this JVM.
+     * @return The major version, e.g. 8 or 17
+     */
+    static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        //1.7 and 1.8 before Java 9
+        return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+    }
+
+    /**
+     * Names the archive of a bundle for this JVM.
+     * @param bundle The bundle
+     * @return The archive beside the bundle, which may not exist yet
+     * @throws IOException If the bundle cannot be read
+     */
+    static File archiveOf(File bundle) throws IOException {
+        String digest = BundleIndex.toHex(BundleFiles.sha256(bundle)).substring(0, DIGEST_LENGTH);
+        String jvm = System.getProperty("java.vm.version").replaceAll("[^A-Za-z0-9.+-]", "_");
+        return new File(bundle.getParentFile(), bundle.getName() + "." + digest + "." + jvm + ARCHIVE_SUFFIX);
+    }
+
+    /**
+     * Names the file which keeps the output of a failed training run or dump.
+     * @param archive The archive
+     * @return The log file beside the archive
+     */
+    static File logOf(File archive) {
+        return new File(archive.getParentFile(), archive.getName() + ".log");
+    }
+
+    /**
+     * Lists the options which make a JVM use an archive.
+     * @param archive The archive
+     * @return The JVM options
+     */
+    static List<String> optionsFor(File archive) {
+        return Arrays.asList("-XX:SharedArchiveFile=" + archive.getAbsolutePath(), "-Xshare:auto");
+    }
+
+    /**
+     * Creates the archive of a bundle with a training run and a dump, and renames it into place.
+     * @param bundle The bundle
+     * @param archive The archive to create, see {@link #archiveOf(File)}
+     * @param durability How far the archive is synced before it is renamed into place
+     * @throws IOException If either JVM fails, leaving its output in {@link #logOf(File)}, or the archive cannot be
+     * renamed into place
+     * @throws InterruptedException If this thread is interrupted while waiting for a JVM
+     */
+    static void create(File bundle, File archive, Durability durability) throws IOException, InterruptedException {
+        File directory = archive.getParentFile();
+        File log = logOf(archive);
+        File classList = File.createTempFile(archive.getName() + ".", ".tmp", directory);
+        File temporary = File.createTempFile(archive.getName() + ".", ".tmp", directory);
+        boolean moved = false;
+
+        try {
+            Files.deleteIfExists(log.toPath());
+            String java = javaExecutable().getPath();
+
+            run(log, java, "-XX:DumpLoadedClassList=" + classList.getPath(), "-cp",
+                    bundle.getPath() + File.pathSeparator + libraryLocation().getPath(),
+                    ClassDataTrainer.class.getName(), bundle.getPath());
+
+            //The trainer itself is not on this class path, so it is left out with a warning
+            run(log, java, "-Xshare:dump", "-XX:SharedClassListFile=" + classList.getPath(),
+                    "-XX:SharedArchiveFile=" + temporary.getPath(), "-cp", bundle.getPath());
+
+            durability.sync(temporary);
+
+            try {
+                Files.move(temporary.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+            durability.syncDirectory(directory);
+            Files.deleteIfExists(log.toPath());
+
+        } finally {
+            Files.deleteIfExists(classList.toPath());
+            if (!moved) {
+                Files.deleteIfExists(temporary.toPath());
+            }
+        }
+    }
+
+    /**
+     * Removes the archives made for earlier contents of a bundle. Archives of the current contents made for other
+     * JVMs are kept, since several JVMs may share a bundle.
+     * @param bundle The bundle
+     * @param archive The archive of the bundle's current contents, see {@link #archiveOf(File)}
+     */
+    static void removeStale(File bundle, File archive) {
+        File[] files = bundle.getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+
+        //The bundle's name and digest
+        String current = archive.getName().substring(0, bundle.getName().length() + DIGEST_LENGTH + 2);
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(bundle.getName() + ".") && name.endsWith(ARCHIVE_SUFFIX) && !name.startsWith(current)) {
+                //A JVM still using it keeps its mapping
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Runs a JVM, appending its output to a log.
+     * @param log The log file
+     * @param command The command line
+     * @throws IOException If the JVM cannot be started, exits with an error or is still running after
+     * {@link #TIMEOUT_MILLIS}
+     * @throws InterruptedException If this thread is interrupted while waiting for the JVM
+     */
+    private static void run(File log, String... command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(log)).start();
+
+        try {
+            if (!waitFor(process, TIMEOUT_MILLIS)) {
+                throw new IOException(Arrays.toString(command) + " still running after " + TIMEOUT_MILLIS + " ms");
+            }
+
+            int exit = process.exitValue();
+            if (exit != 0) {
+                throw new IOException(Arrays.toString(command) + " exited with " + exit);
+            }
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Waits for a process to exit, polling it since Java 7 has no timed wait.
+     * @param process The process
+     * @param timeoutMillis How long to wait
+     * @return True if the process exited, false if it is still running; the caller destroys it
+     * @throws InterruptedException If this thread is interrupted while waiting
+     */
+    private static boolean waitFor(Process process, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+
+        while (true) {
+            try {
+                process.exitValue();
+                return true;
+            } catch (IllegalThreadStateException e) {
+                //Still running
+                if (System.nanoTime() - deadline >= 0) {
+                    return false;
+                }
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Finds the launcher of this JVM.
+     * @return The java executable
+     */
+    private static File javaExecutable() {
+        File bin = new File(System.getProperty("java.home"), "bin");
+        File windows = new File(bin, "java.exe");
+        return windows.isFile() ? windows : new File(bin, "java");
+    }
+
+    /**
+     * Finds the jar or directory holding this library, which the training run loads the trainer from.
+     * @return The location of this library
+     * @throws IOException If the location is not a local file
+     */
+    private static File libraryLocation() throws IOException {
+        CodeSource source = ClassDataTrainer.class.getProtectionDomain().getCodeSource();
+
+        if (source == null || source.getLocation() == null
+                || !"file".equals(source.getLocation().getProtocol().toLowerCase(Locale.ENGLISH))) {
+            throw new IOException("This library is not loaded from a local file");
+        }
+
+        try {
+            return new File(source.getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+}
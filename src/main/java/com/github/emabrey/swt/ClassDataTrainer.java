@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The main class of the training run of {@link ClassDataArchive}, which loads every class of an SWT bundle so the JVM
+ * lists them for the archive.
+ * <br>
+ * The classes are loaded without being initialized, so no native library is loaded and no display is needed. This
+ * class runs in a JVM of its own and uses nothing else of this library, so neither the logging nor the localization
+ * end up in the class list.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class ClassDataTrainer {
+
+    /**
+     * Suffix of class file entries
+     */
+    private static final String CLASS_SUFFIX = ".class";
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private ClassDataTrainer() {
+        //Do nothing
+    }
+
+    /**
+     * Loads the classes of a bundle, which must be the first entry of the class path.
+     * @param args The path to the bundle
+     * @throws IOException If the bundle cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        ClassLoader loader = ClassDataTrainer.class.getClassLoader();
+
+        JarFile bundle = new JarFile(args[0], false);
+        try {
+            for (Enumeration<JarEntry> entries = bundle.entries(); entries.hasMoreElements();) {
+                String name = entries.nextElement().getName();
+                if (!name.endsWith(CLASS_SUFFIX) || name.startsWith("META-INF/") || name.endsWith("-info.class")) {
+                    continue;
+                }
+
+                try {
+                    Class.forName(name.substring(0, name.length() - CLASS_SUFFIX.length()).replace('/', '.'),
+                            false, loader);
+                } catch (ClassNotFoundException e) {
+                    //Listed by the jar but not loadable from it; it is simply not archived
+                } catch (LinkageError e) {
+                    //E.g. a class of a feature whose dependencies this JVM lacks; it is simply not archived
+                }
+            }
+        } finally {
+            bundle.close();
+        }
+    }
+}
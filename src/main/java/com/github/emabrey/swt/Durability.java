@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.localization.ErrorMessage;
+import com.github.emabrey.swt.localization.ErrorMessages;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * How far the unpack methods make sure the files they write survive a crash or power loss, chosen with
+ * {@link SWTNatives#setDurability(Durability)}.
+ * <br>
+ * Each level trades unpack latency for safety; the <code>DurabilityBenchmark</code> in the benchmarks module measures
+ * the cost of each on the machine it runs on.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public enum Durability {
+
+    /**
+     * Nothing is synced; the operating system writes the files back whenever it sees fit. The fastest level, fine where
+     * an unpacked file lost in a crash is simply unpacked again, e.g. on build agents
+     */
+    NONE,
+
+    /**
+     * The content of each file is forced to the device before it is closed, as by {@link FileChannel#force(boolean)
+     * force(false)}, so a file that was fully written is never found truncated
+     */
+    DATA,
+
+    /**
+     * As {@link #DATA}, also forcing the file's metadata, and the directory is synced once a file is created or renamed
+     * into place, so the directory entry survives as well. Directories which cannot be synced, e.g. on Windows, are
+     * left as they are
+     */
+    FULL;
+
+    /**
+     * The SLF4J Logger instance for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(Durability.class);
+
+    /**
+     * The localized error messages
+     */
+    private static final ErrorMessage ERROR_MESSAGE = ErrorMessages.get();
+
+    /**
+     * Forces the content written through a channel to the device, as far as this level asks for.
+     * @param channel The channel of the written file
+     * @throws IOException If the content cannot be forced
+     */
+    void sync(FileChannel channel) throws IOException {
+        if (this != NONE) {
+            channel.force(this == FULL);
+        }
+    }
+
+    /**
+     * Forces the content of a closed file to the device, as far as this level asks for.
+     * @param file The written file
+     * @throws IOException If the file cannot be opened or its content cannot be forced
+     */
+    void sync(File file) throws IOException {
+        if (this == NONE) {
+            return;
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        try {
+            sync(channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Syncs a directory after a file was created or renamed in it, if this level asks for it.
+     * @param directory The directory
+     */
+    void syncDirectory(File directory) {
+        if (this != FULL) {
+            return;
+        }
+
+        try {
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            //Not every platform can open or sync a directory
+            LOG.debug(ERROR_MESSAGE.unableToSyncDirectory(), e);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An exclusive lock on a lock file which holds across both threads and processes.
+ * <br>
+ * OS file locks are held per process, and {@link FileChannel#lock()} throws if the same JVM already holds an
+ * overlapping lock, so threads of this JVM first queue on an in-process lock for the same file. The lock file itself
+ * is left in place after release; deleting it would let a waiting process lock a file nobody else can see.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class ExclusiveFileLock {
+
+    /**
+     * In-process locks by canonical lock file path
+     */
+    private static final ConcurrentMap<String, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<String, ReentrantLock>();
+
+    /**
+     * The in-process half of this lock
+     */
+    private final ReentrantLock processLock;
+
+    /**
+     * The lock file channel, which holds the OS lock until it is closed
+     */
+    private final FileChannel channel;
+
+    /**
+     * Creates a held lock.
+     * @param processLock The held in-process lock
+     * @param channel The lock file channel, which holds the OS lock
+     */
+    private ExclusiveFileLock(ReentrantLock processLock, FileChannel channel) {
+        this.processLock = processLock;
+        this.channel = channel;
+    }
+
+    /**
+     * Blocks until this thread holds the lock on the given lock file, creating the file if needed.
+     * @param lockFile The lock file
+     * @return The held lock, which must be {@link #release() released}
+     * @throws IOException If the lock file cannot be created or locked
+     */
+    static ExclusiveFileLock acquire(File lockFile) throws IOException {
+        ReentrantLock processLock = processLock(lockFile);
+
+        processLock.lock();
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.lock();
+            return new ExclusiveFileLock(processLock, channel);
+        } catch (IOException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            processLock.unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            processLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the lock on the given lock file only if no other thread or process holds it, creating the file if needed.
+     * @param lockFile The lock file
+     * @return The held lock, which must be {@link #release() released}, or null if the lock is held elsewhere
+     * @throws IOException If the lock file cannot be created or locked
+     */
+    static ExclusiveFileLock tryAcquire(File lockFile) throws IOException {
+        ReentrantLock processLock = processLock(lockFile);
+
+        if (!processLock.tryLock()) {
+            return null;
+        }
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (channel.tryLock() == null) {
+                channel.close();
+                processLock.unlock();
+                return null;
+            }
+            return new ExclusiveFileLock(processLock, channel);
+        } catch (IOException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            processLock.unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            processLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up the in-process lock for a lock file, creating it on first use.
+     * @param lockFile The lock file
+     * @return The in-process lock shared by every thread locking the file
+     * @throws IOException If the lock file path cannot be resolved
+     */
+    private static ReentrantLock processLock(File lockFile) throws IOException {
+        String key = lockFile.getCanonicalPath();
+        ReentrantLock processLock = PROCESS_LOCKS.get(key);
+
+        if (processLock == null) {
+            ReentrantLock created = new ReentrantLock();
+            processLock = PROCESS_LOCKS.putIfAbsent(key, created);
+            if (processLock == null) {
+                processLock = created;
+            }
+        }
+
+        return processLock;
+    }
+
+    /**
+     * Releases both the OS lock and the in-process lock.
+     */
+    void release() {
+        try {
+            //Closing the channel releases the OS lock as well
+            channel.close();
+        } catch (IOException e) {
+            //Nothing useful left to do, the lock dies with the channel
+        } finally {
+            processLock.unlock();
+        }
+    }
+}
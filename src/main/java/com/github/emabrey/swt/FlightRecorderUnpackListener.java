@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits every unpack phase as a <code>com.github.emabrey.swt.UnpackPhase</code> Java Flight Recorder event.
+ * <br>
+ * This class is only loaded by {@link UnpackTrace} on runtimes which provide <code>jdk.jfr</code>; nothing else may
+ * refer to it. The event carries the phase duration as a field, since the phase has already ended when it is
+ * reported. Unpacks are only traced for it while a recording has the event enabled.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class FlightRecorderUnpackListener implements UnpackTrace.ConditionalListener {
+
+    /**
+     * The event type.
+     */
+    @Name("com.github.emabrey.swt.UnpackPhase")
+    @Label("SWT Unpack Phase")
+    @Category({"SWT Natives"})
+    @Description("A completed phase of unpacking an SWT library")
+    @StackTrace(false)
+    static final class UnpackPhaseEvent extends Event {
+
+        /**
+         * The completed phase
+         */
+        @Label("Phase")
+        String phase;
+
+        /**
+         * What became of the phase's work
+         */
+        @Label("Outcome")
+        String outcome;
+
+        /**
+         * The SWT version being unpacked
+         */
+        @Label("SWT Version")
+        String version;
+
+        /**
+         * The ClassLoader path of the bundle
+         */
+        @Label("Resource Path")
+        String resourcePath;
+
+        /**
+         * The destination of the unpack
+         */
+        @Label("Destination")
+        String destination;
+
+        /**
+         * How long the phase took
+         */
+        @Label("Phase Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long phaseDuration;
+
+        /**
+         * The number of bytes the phase transferred
+         */
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * Whether this JVM can record at all, e.g. not if it was started with JFR disabled
+     */
+    private final boolean available = FlightRecorder.isAvailable();
+
+    /**
+     * The registered event type, whose enablement follows the running recordings
+     */
+    private final EventType type = EventType.getEventType(UnpackPhaseEvent.class);
+
+    @Override
+    public boolean isEnabled() {
+        return available && type.isEnabled();
+    }
+
+    @Override
+    public void phaseCompleted(UnpackEvent event) {
+        UnpackPhaseEvent record = new UnpackPhaseEvent();
+
+        if (!record.isEnabled()) {
+            return;
+        }
+
+        record.phase = event.getPhase().name();
+        record.outcome = event.getOutcome().name();
+        record.version = event.getVersion() == null ? null : event.getVersion().name();
+        record.resourcePath = event.getResourcePath();
+        record.destination = event.getDestination() == null ? null : event.getDestination().getPath();
+        record.phaseDuration = event.getDurationNanos();
+        record.bytes = event.getBytes();
+        record.commit();
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes individual entries of an in-memory bundle to the file system.
+ * <br>
+ * Entries are written to a temporary file and renamed into place, so a concurrent reader never sees a partially
+ * written library, and an existing file with the entry's size and CRC-32 is left untouched.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class NativeExtractor {
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private NativeExtractor(){
+        //Do nothing
+    }
+
+    /**
+     * Checks whether an entry is one of the native libraries SWT loads, which sit in the root of the bundle.
+     * @param entry A bundle entry
+     * @return True for native libraries
+     */
+    static boolean isNativeLibrary(ZipDirectory.Entry entry){
+        return !entry.isDirectory() && BundleFiles.isNativeLibrary(entry.name);
+    }
+
+    /**
+     * Selects the native libraries of a bundle.
+     * @param directory The bundle's central directory
+     * @return The native library entries
+     */
+    static List<ZipDirectory.Entry> nativeLibraries(ZipDirectory directory){
+        List<ZipDirectory.Entry> natives = new ArrayList<ZipDirectory.Entry>();
+        for(ZipDirectory.Entry entry : directory.entries()){
+            if(isNativeLibrary(entry)){
+                natives.add(entry);
+            }
+        }
+        return natives;
+    }
+
+    /**
+     * Extracts several entries concurrently. The calling thread extracts entries itself, helped by as many tasks on
+     * the executor as there are processors to spare; helpers the executor has not started by the time the entries
+     * run out are cancelled, so a caller running on the same executor never waits for a thread it occupies.
+     * @param archive The whole bundle
+     * @param entries The entries to extract
+     * @param directory The directory to extract into
+     * @param executor Runs the helpers, usually {@link UnpackExecutor#shared()}
+     * @throws IOException If any entry could not be extracted
+     * @throws InterruptedException If this thread was interrupted while waiting for the helpers
+     */
+    static void extractAll(final ByteBuffer archive, Collection<ZipDirectory.Entry> entries, final File directory,
+            ExecutorService executor) throws IOException, InterruptedException{
+
+        final Queue<ZipDirectory.Entry> pending = new ConcurrentLinkedQueue<ZipDirectory.Entry>(entries);
+        int helperCount = Math.min(entries.size(), Runtime.getRuntime().availableProcessors()) - 1;
+        List<Future<Void>> helpers = new ArrayList<Future<Void>>(Math.max(0, helperCount));
+
+        for(int i = 0; i < helperCount; i++){
+            helpers.add(executor.submit(new Callable<Void>(){
+                @Override
+                public Void call() throws IOException{
+                    extractPending(archive, pending, directory);
+                    return null;
+                }
+            }));
+        }
+
+        IOException failure = null;
+
+        try {
+            extractPending(archive, pending, directory);
+        } catch (IOException e){
+            failure = e;
+        }
+
+        for(Future<Void> helper : helpers){
+            if(helper.cancel(false)){
+                //Never started, the entries it would have taken are done
+                continue;
+            }
+            try {
+                helper.get();
+            } catch (ExecutionException e){
+                if(failure == null){
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+        }
+
+        if(failure != null){
+            throw failure;
+        }
+    }
+
+    /**
+     * Extracts entries until none are left, leaving none for the other extractors once one fails.
+     * @param archive The whole bundle
+     * @param pending The entries not taken by any extractor yet
+     * @param directory The directory to extract into
+     * @throws IOException If an entry could not be extracted
+     */
+    private static void extractPending(ByteBuffer archive, Queue<ZipDirectory.Entry> pending, File directory)
+            throws IOException{
+        try {
+            for(ZipDirectory.Entry entry = pending.poll(); entry != null; entry = pending.poll()){
+                extract(archive, entry, directory);
+            }
+        } catch (IOException e){
+            pending.clear();
+            throw e;
+        }
+    }
+
+    /**
+     * Extracts a single entry, unless an identical file is already in place.
+     * @param archive The whole bundle
+     * @param entry The entry to extract
+     * @param directory The directory to extract into
+     * @return The extracted file
+     * @throws IOException If the entry could not be extracted
+     */
+    static File extract(ByteBuffer archive, ZipDirectory.Entry entry, File directory) throws IOException{
+        File target = new File(directory, entry.name);
+
+        if(target.isFile() && target.length() == entry.size && crcOf(target) == entry.crc){
+            return target;
+        }
+
+        File temporary = File.createTempFile(entry.name + ".", ".tmp", directory);
+        boolean moved = false;
+
+        try {
+            Durability durability = SWTNatives.getDurability();
+            FileChannel out = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE);
+            try {
+                write(archive, entry, out);
+                durability.sync(out);
+            } finally {
+                out.close();
+            }
+
+            try {
+                Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e){
+                Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+            durability.syncDirectory(directory);
+            return target;
+
+        } finally {
+            if(!moved){
+                Files.deleteIfExists(temporary.toPath());
+            }
+        }
+    }
+
+    /**
+     * Writes the uncompressed data of an entry, inflating it a buffer at a time, and verifies it against the entry's
+     * size and CRC-32 once written.
+     * @param archive The whole bundle
+     * @param entry The entry to write
+     * @param out The channel to write into
+     * @throws IOException If the entry is corrupt or cannot be written
+     */
+    static void write(ByteBuffer archive, ZipDirectory.Entry entry, FileChannel out) throws IOException{
+        ByteBuffer data = archive.duplicate();
+        int offset = ZipDirectory.dataOffset(archive, entry);
+        data.position(offset).limit(offset + (int) entry.compressedSize);
+
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[BundleChannels.BUFFER_SIZE];
+        long written = 0;
+
+        if(entry.method == ZipEntry.STORED){
+            while(data.hasRemaining()){
+                int length = Math.min(chunk.length, data.remaining());
+                data.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+                writeFully(ByteBuffer.wrap(chunk, 0, length), out);
+                written += length;
+            }
+
+        } else if(entry.method == ZipEntry.DEFLATED){
+            byte[] input = new byte[BundleChannels.BUFFER_SIZE];
+            Inflater inflater = new Inflater(true);
+            try {
+                while(!inflater.finished()){
+                    if(inflater.needsInput()){
+                        if(!data.hasRemaining()){
+                            throw new ZipException("Truncated entry " + entry.name);
+                        }
+                        int length = Math.min(input.length, data.remaining());
+                        data.get(input, 0, length);
+                        inflater.setInput(input, 0, length);
+                    }
+
+                    int length = inflater.inflate(chunk);
+                    if(length == 0 && inflater.needsDictionary()){
+                        throw new ZipException("Corrupt entry " + entry.name);
+                    }
+                    crc.update(chunk, 0, length);
+                    writeFully(ByteBuffer.wrap(chunk, 0, length), out);
+                    written += length;
+                }
+            } catch (DataFormatException e){
+                throw new ZipException("Corrupt entry " + entry.name + ": " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+
+        } else{
+            throw new ZipException("Unsupported compression method for " + entry.name);
+        }
+
+        if(written != entry.size || crc.getValue() != entry.crc){
+            throw new ZipException("CRC mismatch for " + entry.name);
+        }
+    }
+
+    /**
+     * Computes the CRC-32 of a file.
+     * @param file The file to check
+     * @return The CRC-32 of its contents
+     * @throws IOException If the file cannot be read
+     */
+    private static long crcOf(File file) throws IOException{
+        CRC32 crc = new CRC32();
+        FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ByteBuffer buffer = BundleChannels.acquireBuffer();
+        byte[] chunk = new byte[buffer.capacity()];
+        try {
+            while(in.read(buffer) >= 0){
+                buffer.flip();
+                int length = buffer.remaining();
+                buffer.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+                buffer.clear();
+            }
+        } finally {
+            BundleChannels.releaseBuffer(buffer);
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the whole of a buffer.
+     * @param buffer The data to write
+     * @param out The channel to write into
+     * @throws IOException If the write fails
+     */
+    private static void writeFully(ByteBuffer buffer, FileChannel out) throws IOException{
+        while(buffer.hasRemaining()){
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.localization.ErrorMessage;
+import com.github.emabrey.swt.localization.ErrorMessages;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses where native libraries are written when the caller does not name a location, preferring memory-backed
+ * storage over local disks over network home directories.
+ * <br>
+ * A candidate must be a writable directory with room for the libraries, on a file system not mounted
+ * <code>noexec</code>, as the libraries could not be loaded from there. Each viable candidate is timed writing and
+ * syncing a small probe file, and the fastest one wins. The choice among each set of candidates is remembered by this
+ * JVM and, in the bundle cache, across runs, so the candidates are only probed again once the remembered location
+ * stops being viable.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class NativesPlacement {
+
+    /**
+     * The SLF4J Logger instance for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(NativesPlacement.class);
+
+    /**
+     * The localized error messages
+     */
+    private static final ErrorMessage ERROR_MESSAGE = ErrorMessages.get();
+
+    /**
+     * Name of the file in the bundle cache which remembers the choice
+     */
+    private static final String RECORD_NAME = "placement.properties";
+
+    /**
+     * Size of the probe file, about that of the smaller native libraries
+     */
+    private static final int PROBE_SIZE = 256 * 1024;
+
+    /**
+     * Number of probes per candidate, the fastest of which counts; the first probe of a JVM also pays for loading
+     * and compiling the code it runs
+     */
+    private static final int PROBES = 2;
+
+    /**
+     * The mount table of Linux, which holds the mount options
+     */
+    private static final String MOUNTS = "/proc/mounts";
+
+    /**
+     * The memory-backed file system most Linux distributions mount
+     */
+    private static final String SHARED_MEMORY = "/dev/shm";
+
+    /**
+     * Encoding of the mount table
+     */
+    private static final Charset MOUNTS_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Permissions of the per-user directory where the file system has POSIX permissions: the owner's alone
+     */
+    private static final String PRIVATE_PERMISSIONS = "rwx------";
+
+    /**
+     * Permissions which would have let other users replace the libraries in the per-user directory
+     */
+    private static final EnumSet<PosixFilePermission> SHARED_WRITE = EnumSet.of(PosixFilePermission.GROUP_WRITE,
+            PosixFilePermission.OTHERS_WRITE);
+
+    /**
+     * The choices made by this JVM, by candidates
+     */
+    private static final ConcurrentMap<String, File> CHOICES = new ConcurrentHashMap<String, File>();
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private NativesPlacement() {
+        //Do nothing
+    }
+
+    /**
+     * Lists the candidate locations in order of preference: shared memory, the per-user runtime directory, the JVM's
+     * temporary directory and the caller's default.
+     * @param fallback The caller's default, or null
+     * @return The existing candidates
+     */
+    static List<File> candidates(File fallback) {
+        List<File> candidates = new ArrayList<File>();
+        add(candidates, new File(SHARED_MEMORY));
+
+        String runtime = System.getenv("XDG_RUNTIME_DIR");
+        if (runtime != null && !runtime.isEmpty()) {
+            add(candidates, new File(runtime));
+        }
+
+        add(candidates, new File(System.getProperty("java.io.tmpdir")));
+        if (fallback != null) {
+            add(candidates, fallback);
+        }
+        return candidates;
+    }
+
+    /**
+     * Chooses the fastest viable candidate, reusing an earlier choice among the same candidates while it is viable.
+     * @param candidates The candidates, see {@link #candidates(File)}
+     * @param requiredBytes The room needed for the libraries
+     * @param cacheRoot The bundle cache the choice is remembered in, or null to only remember it in this JVM
+     * @return The chosen location, or null if no candidate is viable
+     */
+    static File choose(List<File> candidates, long requiredBytes, File cacheRoot) {
+        String key = candidates.toString();
+
+        File remembered = CHOICES.get(key);
+        if (remembered != null && hasRoom(remembered, requiredBytes)) {
+            //The mount options were checked when it was chosen
+            return remembered;
+        }
+
+        remembered = cacheRoot == null ? null : readRecord(new File(cacheRoot, RECORD_NAME), key);
+        if (remembered != null && isViable(remembered, requiredBytes)) {
+            CHOICES.put(key, remembered);
+            return remembered;
+        }
+
+        File chosen = null;
+        long fastest = Long.MAX_VALUE;
+
+        for (File candidate : candidates) {
+            if (!isViable(candidate, requiredBytes)) {
+                continue;
+            }
+
+            long nanos = Long.MAX_VALUE;
+            for (int i = 0; i < PROBES; i++) {
+                long probed = probe(candidate);
+                nanos = probed < 0 ? Long.MAX_VALUE : Math.min(nanos, probed);
+            }
+
+            if (nanos < fastest) {
+                chosen = candidate;
+                fastest = nanos;
+            }
+        }
+
+        if (chosen != null) {
+            CHOICES.put(key, chosen);
+            if (cacheRoot != null) {
+                writeRecord(new File(cacheRoot, RECORD_NAME), key, chosen);
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Creates a directory only the current user may use in a chosen location, or checks that an existing one still
+     * is. The candidates are shared by every user of the machine, so a directory another user created in advance, or
+     * a link planted in its place, would let them swap the libraries before they are loaded.
+     * <br>
+     * Where the file system has POSIX permissions, the directory is created readable and writable by its owner alone,
+     * and an existing one must not be a link, must belong to the current user and must not be writable by anyone
+     * else. One which others could only read, as earlier releases created it, is narrowed to its owner. Elsewhere, it
+     * must not be a link.
+     * @param directory The per-user directory in the chosen location
+     * @return True if the directory is private to the current user, false if it exists but is not
+     * @throws IOException If the directory cannot be created or its attributes cannot be read
+     */
+    static boolean createPrivate(File directory) throws IOException {
+        Path path = directory.toPath();
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+        try {
+            if (posix) {
+                Files.createDirectory(path, PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString(PRIVATE_PERMISSIONS)));
+            } else {
+                Files.createDirectory(path);
+            }
+        } catch (FileAlreadyExistsException e) {
+            //Checked below, whoever created it
+        }
+
+        if (!posix) {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+            return attributes.isDirectory();
+        }
+
+        PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS);
+
+        if (!attributes.isDirectory() || !attributes.owner().equals(currentUser(directory.getParentFile()))) {
+            return false;
+        }
+
+        Set<PosixFilePermission> permissions = attributes.permissions();
+        for (PosixFilePermission permission : permissions) {
+            if (SHARED_WRITE.contains(permission)) {
+                return false;
+            }
+        }
+
+        Set<PosixFilePermission> owner = PosixFilePermissions.fromString(PRIVATE_PERMISSIONS);
+        if (!permissions.equals(owner)) {
+            Files.setPosixFilePermissions(path, owner);
+        }
+        return true;
+    }
+
+    /**
+     * Determines the user this JVM runs as, from the owner of a file it creates; the <code>user.name</code> property
+     * may be overridden and need not name an account at all.
+     * @param location A writable directory
+     * @return The current user
+     * @throws IOException If no file can be created in the location
+     */
+    private static UserPrincipal currentUser(File location) throws IOException {
+        File probe = File.createTempFile("swt-placement.", ".tmp", location);
+        try {
+            return Files.getOwner(probe.toPath(), LinkOption.NOFOLLOW_LINKS);
+        } finally {
+            Files.deleteIfExists(probe.toPath());
+        }
+    }
+
+    /**
+     * Adds a candidate which exists and is not listed yet.
+     * @param candidates The candidates
+     * @param candidate The candidate to add
+     */
+    private static void add(List<File> candidates, File candidate) {
+        File absolute = candidate.getAbsoluteFile();
+        if (absolute.isDirectory() && !candidates.contains(absolute)) {
+            candidates.add(absolute);
+        }
+    }
+
+    /**
+     * Checks whether native libraries can be written to and loaded from a location.
+     * @param candidate The location
+     * @param requiredBytes The room needed for the libraries
+     * @return True if the location is viable
+     */
+    private static boolean isViable(File candidate, long requiredBytes) {
+        return hasRoom(candidate, requiredBytes) && !isNoExec(candidate);
+    }
+
+    /**
+     * Checks whether a location is a writable directory with enough room.
+     * @param candidate The location
+     * @param requiredBytes The room needed for the libraries
+     * @return True if the libraries can be written there
+     */
+    private static boolean hasRoom(File candidate, long requiredBytes) {
+        return candidate.isDirectory() && Files.isWritable(candidate.toPath())
+                && candidate.getUsableSpace() >= requiredBytes;
+    }
+
+    /**
+     * Checks whether a location lies on a file system mounted <code>noexec</code>, which libraries cannot be mapped
+     * from. Only Linux lists the mount options where they can be read; elsewhere every location is assumed fine.
+     * @param candidate The location
+     * @return True if the location is known to be mounted <code>noexec</code>
+     */
+    private static boolean isNoExec(File candidate) {
+        File mounts = new File(MOUNTS);
+        if (!mounts.isFile()) {
+            return false;
+        }
+
+        try {
+            String path = candidate.getCanonicalPath();
+            String bestMount = "";
+            boolean noExec = false;
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mounts),
+                    MOUNTS_CHARSET));
+            try {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    String[] fields = line.split(" ");
+                    if (fields.length < 4) {
+                        continue;
+                    }
+
+                    //Spaces in mount points are escaped as \040
+                    String mount = fields[1].replace("\\040", " ");
+                    boolean contains = mount.equals("/") || path.equals(mount) || path.startsWith(mount + "/");
+
+                    //The last of several mounts on the same point is the visible one
+                    if (contains && mount.length() >= bestMount.length()) {
+                        bestMount = mount;
+                        noExec = ("," + fields[3] + ",").contains(",noexec,");
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            return noExec;
+
+        } catch (IOException e) {
+            //Found out when the libraries fail to load
+            LOG.debug(ERROR_MESSAGE.placementProbeFailed(candidate.getPath()), e);
+            return false;
+        }
+    }
+
+    /**
+     * Times writing and syncing a probe file in a location.
+     * @param candidate The location
+     * @return The time taken in nanoseconds, or -1 if the probe could not be written
+     */
+    private static long probe(File candidate) {
+        try {
+            long start = System.nanoTime();
+            File probe = File.createTempFile("swt-placement.", ".tmp", candidate);
+
+            try {
+                FileChannel channel = FileChannel.open(probe.toPath(), StandardOpenOption.WRITE);
+                try {
+                    ByteBuffer data = ByteBuffer.allocate(PROBE_SIZE);
+                    while (data.hasRemaining()) {
+                        channel.write(data);
+                    }
+                    channel.force(false);
+                } finally {
+                    channel.close();
+                }
+            } finally {
+                Files.deleteIfExists(probe.toPath());
+            }
+
+            return System.nanoTime() - start;
+
+        } catch (IOException e) {
+            LOG.debug(ERROR_MESSAGE.placementProbeFailed(candidate.getPath()), e);
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the remembered choice.
+     * @param record The record file
+     * @param key The candidates the choice must have been made among
+     * @return The remembered choice, or null if there is none for these candidates
+     */
+    private static File readRecord(File record, String key) {
+        String choice = load(record).getProperty(key);
+        return choice == null ? null : new File(choice);
+    }
+
+    /**
+     * Loads the remembered choices.
+     * @param record The record file
+     * @return The choices by candidates, empty if there is no readable record
+     */
+    private static Properties load(File record) {
+        Properties choices = new Properties();
+        if (!record.isFile()) {
+            return choices;
+        }
+
+        try {
+            InputStream in = new FileInputStream(record);
+            try {
+                choices.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            //Treated as never chosen
+            LOG.debug(ERROR_MESSAGE.unableToRecordPlacement(), e);
+        } catch (IllegalArgumentException e) {
+            //A malformed escape
+            LOG.debug(ERROR_MESSAGE.unableToRecordPlacement(), e);
+        }
+        return choices;
+    }
+
+    /**
+     * Remembers a choice along with those among other candidates, replacing the record atomically. Failures are only
+     * logged, since the candidates are merely probed again next time.
+     * @param record The record file
+     * @param key The candidates the choice was made among
+     * @param choice The chosen location
+     */
+    private static void writeRecord(File record, String key, File choice) {
+        try {
+            File directory = record.getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("Unable to create " + directory);
+            }
+
+            Properties choices = load(record);
+            choices.setProperty(key, choice.getPath());
+
+            File temporary = File.createTempFile(record.getName() + ".", ".tmp", directory);
+            boolean moved = false;
+
+            try {
+                OutputStream out = new FileOutputStream(temporary);
+                try {
+                    choices.store(out, "Locations of native libraries chosen by swt-natives-handler");
+                } finally {
+                    out.close();
+                }
+
+                try {
+                    Files.move(temporary.toPath(), record.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary.toPath(), record.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                moved = true;
+
+            } finally {
+                if (!moved) {
+                    Files.deleteIfExists(temporary.toPath());
+                }
+            }
+        } catch (IOException e) {
+            LOG.debug(ERROR_MESSAGE.unableToRecordPlacement(), e);
+        }
+    }
+}
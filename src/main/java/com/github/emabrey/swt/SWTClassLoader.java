@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Collections;
+import java.util.Enumeration;
+
+/**
+ * A class loader which defines SWT classes straight from an in-memory bundle.
+ * <br>
+ * Classes and resources are read from the shared {@link BundleImage} on demand, so the bundle itself is never written
+ * to disk. Native libraries cannot be loaded from memory; they are extracted to the natives directory the first time
+ * SWT asks for them, which happens through {@link #findLibrary(String)} when SWT calls {@link System#loadLibrary}.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class SWTClassLoader extends ClassLoader {
+
+    /**
+     * URL protocol of the resources served by this loader
+     */
+    private static final String PROTOCOL = "swt-bundle";
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    /**
+     * The bundle the classes are defined from
+     */
+    private final BundleImage image;
+
+    /**
+     * Where native libraries are extracted to
+     */
+    private final File nativesDirectory;
+
+    /**
+     * Serves resource URLs from the bundle
+     */
+    private final URLStreamHandler handler = new URLStreamHandler() {
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            final ZipDirectory.Entry entry = image.directory().get(url.getPath().substring(1));
+
+            if (entry == null) {
+                throw new IOException("No entry for " + url);
+            }
+
+            return new URLConnection(url) {
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public int getContentLength() {
+                    return (int) entry.size;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return new ByteArrayInputStream(image.read(entry));
+                }
+            };
+        }
+    };
+
+    /**
+     * Creates a loader.
+     * @param image The bundle to define classes from
+     * @param nativesDirectory Where native libraries are extracted to
+     * @param parent The parent class loader
+     */
+    SWTClassLoader(BundleImage image, File nativesDirectory, ClassLoader parent) {
+        super(parent);
+        this.image = image;
+        this.nativesDirectory = nativesDirectory;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        ZipDirectory.Entry entry = image.directory().get(name.replace('.', '/') + ".class");
+
+        if (entry == null) {
+            throw new ClassNotFoundException(name);
+        }
+
+        byte[] bytes;
+        try {
+            bytes = image.read(entry);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+
+        definePackageOf(name);
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        if (image.directory().get(name) == null) {
+            return null;
+        }
+
+        try {
+            return new URL(PROTOCOL, null, -1, "/" + name, handler);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        URL resource = findResource(name);
+        return resource == null ? Collections.<URL>emptyEnumeration() : Collections.enumeration(
+                Collections.singleton(resource));
+    }
+
+    @Override
+    protected String findLibrary(String libname) {
+        String mapped = System.mapLibraryName(libname);
+        ZipDirectory.Entry entry = image.directory().get(mapped);
+
+        if (entry == null && mapped.endsWith(".dylib")) {
+            //SWT for Mac OS X ships its libraries with the older JNI suffix
+            entry = image.directory().get(mapped.substring(0, mapped.length() - ".dylib".length()) + ".jnilib");
+        }
+
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            return NativeExtractor.extract(image.archive(), entry, nativesDirectory).getAbsolutePath();
+        } catch (IOException e) {
+            //Let the JVM report the library as missing
+            return null;
+        }
+    }
+
+    /**
+     * Defines the package of a class the first time a class of that package is defined.
+     * @param className The binary name of the class
+     */
+    @SuppressWarnings("deprecation")
+    private void definePackageOf(String className) {
+        int lastDot = className.lastIndexOf('.');
+
+        if (lastDot < 0) {
+            return;
+        }
+
+        String packageName = className.substring(0, lastDot);
+
+        if (getPackage(packageName) == null) {
+            try {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            } catch (IllegalArgumentException e) {
+                //Defined concurrently by another thread
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.util.Locale;
+
+/**
+ * The optional parts of SWT which come with native libraries of their own.
+ * <br>
+ * The core libraries, such as <code>swt-gtk</code> and <code>swt-pi-gtk</code>, <code>swt-win32</code> or
+ * <code>swt-cocoa</code>, are needed by every SWT application. The libraries of a feature are only loaded once the
+ * application uses that part of SWT, so they can be extracted on demand with
+ * {@link SWTNatives#unpackFeature(java.io.File, SWTNatives.SWT_VERSION, SWTFeature)}.
+ * <br>
+ * Features whose classes nothing else in SWT refers to also name their packages, which a trimmed bundle written by
+ * {@link SWTNatives#unpackTrimmedTo(java.io.File, SWTNatives.SWT_VERSION, java.util.Set)} leaves out along with the
+ * libraries. The classes of the other features stay in every bundle, since the core widgets and graphics use them.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public enum SWTFeature {
+
+    /**
+     * The <code>Browser</code> widget: the Mozilla, XULRunner and WebKit bindings
+     */
+    BROWSER(new String[]{"org/eclipse/swt/browser/", "org/eclipse/swt/internal/mozilla/",
+        "org/eclipse/swt/internal/webkit/"}, "mozilla", "xulrunner", "xpcominit", "webkit"),
+
+    /**
+     * The <code>GLCanvas</code> widget: GLX or WGL
+     */
+    OPENGL(new String[]{"org/eclipse/swt/opengl/", "org/eclipse/swt/internal/opengl/"}, "glx", "wgl"),
+
+    /**
+     * Embedding AWT components with <code>SWT_AWT</code>
+     */
+    AWT(new String[]{"org/eclipse/swt/awt/"}, "awt"),
+
+    /**
+     * Advanced graphics, i.e. anti-aliasing, transforms and alpha: Cairo or GDI+
+     */
+    ADVANCED_GRAPHICS(new String[0], "cairo", "gdip"),
+
+    /**
+     * GNOME desktop integration of <code>Program</code>
+     */
+    GNOME(new String[0], "gnome"),
+
+    /**
+     * Screen reader support of <code>Accessible</code> through ATK
+     */
+    ACCESSIBILITY(new String[0], "atk");
+
+    /**
+     * The packages holding this feature's classes, as entry name prefixes
+     */
+    private final String[] packages;
+
+    /**
+     * The words following <code>swt-</code> in the names of this feature's libraries
+     */
+    private final String[] tokens;
+
+    /**
+     * Creates a feature.
+     * @param packages The packages holding the feature's classes, empty if other parts of SWT use them
+     * @param tokens The words following <code>swt-</code> in the names of the feature's libraries
+     */
+    private SWTFeature(String[] packages, String... tokens){
+        this.packages = packages;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Determines which feature a native library belongs to.
+     * @param libraryName The file name of the library, such as <code>libswt-mozilla-gtk-4234.so</code>
+     * @return The feature, or null for the core libraries
+     */
+    static SWTFeature of(String libraryName){
+        String name = libraryName.toLowerCase(Locale.ENGLISH);
+        int start = name.indexOf("swt-");
+
+        if(start < 0){
+            return null;
+        }
+
+        //The token may carry a suffix of its own, as in webkit12
+        String token = name.substring(start + "swt-".length());
+
+        for(SWTFeature feature : values()){
+            for(String featureToken : feature.tokens){
+                if(token.startsWith(featureToken)){
+                    return feature;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Determines which feature an entry of a bundle belongs to.
+     * @param entryName The entry name, such as <code>org/eclipse/swt/browser/Browser.class</code>
+     * @return The feature, or null for entries every application needs
+     */
+    static SWTFeature ofEntry(String entryName){
+
+        if(entryName.indexOf('/') < 0){
+            //The native libraries sit in the root of the bundle
+            return of(entryName);
+        }
+
+        for(SWTFeature feature : values()){
+            for(String featurePackage : feature.packages){
+                if(entryName.startsWith(featurePackage)){
+                    return feature;
+                }
+            }
+        }
+
+        return null;
+    }
+}
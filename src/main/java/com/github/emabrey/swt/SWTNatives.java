@@ -16,16 +16,43 @@
  */
 package com.github.emabrey.swt;
 
-import c10n.C10N;
-import c10n.annotations.DefaultC10NAnnotations;
 import com.github.emabrey.swt.localization.ErrorMessage;
+import com.github.emabrey.swt.localization.ErrorMessages;
 import com.github.emabrey.swt.natives.NativeLibrariesLocation;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,21 +62,15 @@ import org.slf4j.LoggerFactory;
  */
 public final class SWTNatives {
     
-    static
-    {
-        //Configres the internationalization library
-        C10N.configure(new DefaultC10NAnnotations());
-    }
-    
     /**
      * The SLF4J Logger instance for this class
      */
     private static final Logger LOG = LoggerFactory.getLogger(SWTNatives.class);
     
     /**
-     * The localized error messages
+     * The localized error messages, generated at compile time; the texts are only looked up once one is needed
      */
-    private static final ErrorMessage ERROR_MESSAGE = C10N.get(ErrorMessage.class, Locale.getDefault());
+    private static final ErrorMessage ERROR_MESSAGE = ErrorMessages.get();
     
         
     /**
@@ -131,6 +152,129 @@ public final class SWTNatives {
      */
     private static final String OS_ARCH_PROPERTY = "os.arch";
     
+    /**
+     * The OS platform, detected on first use
+     */
+    private static volatile SWT_PLATFORM currentPlatform;
+    
+    /**
+     * The processor architecture, detected on first use
+     */
+    private static volatile SWT_PLATFORM_ARCH currentArch;
+    
+    /**
+     * Where bundles are found, or null for {@link DefaultBundleSource#SOURCE}
+     */
+    private static volatile BundleSource bundleSource;
+    
+    /**
+     * How far written files are synced, or null for {@link DefaultDurability#DURABILITY}
+     */
+    private static volatile Durability durability;
+    
+    /**
+     * Whether unpacked bundles are verified against the bundle index, or null for {@link #VERIFY_PROPERTY}
+     */
+    private static volatile Boolean verifying;
+    
+    /**
+     * Shared in-memory bundle images by ClassLoader path
+     */
+    private static final ConcurrentMap<String, BundleImage> BUNDLE_IMAGES = new ConcurrentHashMap<String, BundleImage>();
+    
+    /**
+     * The features whose native libraries have been extracted, by directory and version
+     */
+    private static final Set<String> UNPACKED_FEATURES =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    
+    /**
+     * System property naming the SWT version to start unpacking as soon as this class is initialized.
+     */
+    public static final String PREFETCH_VERSION_PROPERTY = "swt.natives.prefetch.version";
+    
+    /**
+     * System property naming the absolute destination used by the prefetch started at class initialization.
+     */
+    public static final String PREFETCH_DESTINATION_PROPERTY = "swt.natives.prefetch.destination";
+    
+    /**
+     * System property naming a directory of bundles staged in the {@link StandardBundleLayout#BY_VERSION} layout, which
+     * is searched before the class path unless {@link #setBundleSource(BundleSource)} is called.
+     */
+    public static final String SOURCE_DIRECTORY_PROPERTY = "swt.natives.source.directory";
+    
+    /**
+     * System property naming a zip archive of bundles in the {@link StandardBundleLayout#BY_VERSION} layout, which is
+     * searched before the class path unless {@link #setBundleSource(BundleSource)} is called.
+     */
+    public static final String SOURCE_ARCHIVE_PROPERTY = "swt.natives.source.archive";
+    
+    /**
+     * System property naming the directory {@link #unpackToCache(SWT_VERSION)} keeps bundles in, replacing the
+     * per-user default of <code>swt-natives</code> below <code>$XDG_CACHE_HOME</code> or the platform's cache location.
+     */
+    public static final String CACHE_DIRECTORY_PROPERTY = "swt.natives.cache.directory";
+    
+    /**
+     * System property holding the number of bytes the bundle cache is swept down to, 256 MiB by default.
+     */
+    public static final String CACHE_MAX_SIZE_PROPERTY = "swt.natives.cache.maxSize";
+    
+    /**
+     * System property holding the number of days after which an unused bundle is evicted from the cache, 60 by default.
+     */
+    public static final String CACHE_MAX_AGE_PROPERTY = "swt.natives.cache.maxAgeDays";
+    
+    /**
+     * System property which, set to <code>true</code>, makes the unpack methods hard link each destination to a single
+     * copy of the bundle kept in the bundle cache instead of copying the bundle out of the jar. Destinations which
+     * cannot be linked, e.g. because they are on another file system than the cache, are copied from the cached copy.
+     * Linked destinations share their data, so they must not be modified in place.
+     */
+    public static final String LINK_PROPERTY = "swt.natives.link";
+    
+    /**
+     * System property naming the directory {@link #stagedBundle(SWT_VERSION)} finds the bundles staged at build time
+     * in, e.g. by the Maven plugin.
+     */
+    public static final String STAGED_DIRECTORY_PROPERTY = "swt.natives.staged.directory";
+    
+    /**
+     * Name of the manifest {@link #stageAll(Collection, File)} writes into the staging directory.
+     */
+    public static final String STAGED_MANIFEST_NAME = "swt-natives.properties";
+    
+    /**
+     * System property holding the default {@link Durability} of the files the unpack methods write, <code>none</code>,
+     * <code>data</code> or <code>full</code>; <code>none</code> if unset.
+     */
+    public static final String DURABILITY_PROPERTY = "swt.natives.durability";
+    
+    /**
+     * System property which, set to <code>true</code>, turns on the verification of each unpacked bundle against the
+     * bundle index unless {@link #setVerifying(boolean)} is called.
+     */
+    public static final String VERIFY_PROPERTY = "swt.natives.verify";
+    
+    /**
+     * Prefix of the per-user directory which {@link #unpackToFastest(SWT_VERSION, File)} and
+     * {@link #unpackNativesToFastest(SWT_VERSION, File)} create in the location they choose
+     */
+    private static final String PLACED_DIRECTORY_PREFIX = "swt-natives-";
+    
+    /**
+     * Upper bound of the default number of bundles a batch unpack writes at once. A few concurrent streams keep a
+     * disk's queue full; beyond that the writes only compete for it.
+     */
+    private static final int MAX_BATCH_PARALLELISM = 8;
+    
+    static
+    {
+        //Starts the optional prefetch, which later calls to unpack for the same destination and version will join
+        prefetchFromSystemProperties();
+    }
+    
     /**
      * Unpacks the specified SWT library version to the destination, not overwriting the destination if it already exists.
      * @param destination The absolute path to the destination file, which cannot be overwritten
@@ -138,6 +282,17 @@ public final class SWTNatives {
      * @throws InstantiationException If we are given an invalid value or we unable to complete the copy
      */
     public static void unpackTo(File destination, SWT_VERSION version) throws InstantiationException{
+        unpackTo(destination, version, UnpackTrace.start(version, destination));
+    }
+    
+    /**
+     * Unpacks the specified SWT library version to the destination, not overwriting the destination if it already exists.
+     * @param destination The absolute path to the destination file, which cannot be overwritten
+     * @param version The SWT version we are trying to load
+     * @param trace Receives the phases of the unpack
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the copy
+     */
+    private static void unpackTo(File destination, SWT_VERSION version, UnpackTrace trace) throws InstantiationException{
         
        /*
         * Note that this unpacking code is subject to a TOCTOU condition. We are assuming that the destination remains valid
@@ -163,6 +318,8 @@ public final class SWTNatives {
             //This method doesn't blindly overwrite destination
             throw createLoggedError(ERROR_MESSAGE.destinationCannotAlreadyExist());
         } else{
+            trace.completed(UnpackPhase.DESTINATION_VALIDATION);
+            
             try {
                 boolean successfullyCreated = destination.createNewFile();
                 if(!successfullyCreated){
@@ -182,9 +339,17 @@ public final class SWTNatives {
             throw createLoggedError(ERROR_MESSAGE.destinationCannotBeReadOnly());           
         }
         
-        String source = determineBundleLocation(version);
+        trace.completed(UnpackPhase.FILE_CREATION);
         
-        copyBundleToFile(source, destination);        
+        BundleIndex.Record bundle = determineBundle(version, trace);
+        
+        if(getDurability() == Durability.NONE){
+            materialize(bundle, destination, trace, true);
+            requireVerified(bundle, null, null, destination, destination, trace);
+        } else{
+            //Renamed over the empty destination we created, so a crash leaves it empty or complete, never truncated
+            replaceAtomically(bundle, destination, trace, true);
+        }
     }
     
     /**
@@ -195,6 +360,8 @@ public final class SWTNatives {
      */
     public static void unpackToForced(File destination, SWT_VERSION version) throws InstantiationException{
         
+        UnpackTrace trace = UnpackTrace.start(version, destination);
+        
         if(destination == null || version == null){
             //Input sanity check
             throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
@@ -205,7 +372,7 @@ public final class SWTNatives {
             boolean wasDeleted = destination.delete();
             
             if(wasDeleted){
-                unpackTo(destination,version);
+                unpackTo(destination, version, trace);
             } else{
                 throw createLoggedError(ERROR_MESSAGE.cannotForceOverwriteOfExistingDestination());
             }
@@ -213,190 +380,2306 @@ public final class SWTNatives {
     }
     
     /**
-     * Does a buffered copy of the data from the ClassLoader to the file.
-     * @param source The path that indicates where in the ClassLoader the library is
-     * @param destination The file to write the data into
-     * @throws InstantiationException If a non-cleanup related IOException occurs
+     * Unpacks the specified SWT library version to the destination unless the destination already holds exactly that
+     * library. The existing destination is compared against the size and SHA-256 digest recorded at build time, so an
+     * up to date destination is left untouched and nothing is written. The digest of the destination is remembered in
+     * the bundle cache against its size and modification time, so an unchanged destination is not read again.
+     * @param destination The absolute path to the destination file, which is overwritten only if it is out of date
+     * @param version The SWT version we are trying to load
+     * @return True if the library was unpacked, false if the destination was already up to date
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the copy
      */
-    private static void copyBundleToFile(String source, File destination) throws InstantiationException{
-      
-         try {
-              
-              InputStream sourceStream = ClassLoader.getSystemClassLoader().getResourceAsStream(source);
-              FileOutputStream destStream = new FileOutputStream(destination);
-              copyStream(sourceStream, destStream);
-              
-         } catch (IOException ex) {
-             
-             //There was an issue with the copy
-            InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
-            exception.initCause(ex);
-            throw exception;//NOPMD
-         }        
+    public static boolean unpackToIfChanged(File destination, SWT_VERSION version) throws InstantiationException{
+
+        UnpackTrace trace = UnpackTrace.start(version, destination);
+
+        if(destination == null || version == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        if(!destination.isAbsolute()){
+            //Same requirement as unpackTo, checked before we read anything
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+        }
+
+        trace.completed(UnpackPhase.DESTINATION_VALIDATION);
+        BundleIndex.Record bundle = determineBundle(version, trace);
+
+        if(isUpToDate(bundle, destination, trace)){
+            //Already unpacked, nothing to write
+            trace.completed(UnpackPhase.COPY, 0, UnpackEvent.Outcome.SKIPPED);
+            return false;
+        }
+
+        if(destination.isFile() && !destination.delete()){
+            throw createLoggedError(ERROR_MESSAGE.cannotForceOverwriteOfExistingDestination());
+        }
+
+        unpackTo(destination, version, trace);
+        //Only callers which check the destination again later pay for hashing it now
+        recordDigest(bundle, destination);
+        return true;
     }
-    
+
     /**
-     * Determines a ClassLoader location for the given native library version to be loaded from.
-     * @param version The version we are attempting to unpack
-     * @return The ClassLoader reference to the location of the libraries
-     * @throws InstantiationException If the library cannot be found or loaded.
+     * Unpacks the specified SWT library version to the destination in a way that is safe against other threads and
+     * processes unpacking to the same destination at the same time.
+     * <br>
+     * The unpack holds an exclusive OS lock on a <code>.lock</code> file next to the destination, writes the library
+     * to a temporary file in the same directory and atomically renames it over the destination, so the destination
+     * never holds a partially written library. A destination which already matches the bundle index is reused
+     * without taking the lock, and a caller which waited on the lock reuses the library its predecessor unpacked.
+     * @param destination The absolute path to the destination file, which is replaced only if it is out of date
+     * @param version The SWT version we are trying to load
+     * @return True if this call unpacked the library, false if an up to date destination was reused
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the copy
      */
-    private static String determineBundleLocation(SWT_VERSION version) throws InstantiationException{        
-        
-        SWT_PLATFORM platform = getCurrentPlatform();
-        SWT_PLATFORM_ARCH arch = getCurrentArch();
-        
-        return nativeLibrariesPackageLocation() + "/" + constructRelativePackageLocation(platform, arch, version);
+    public static boolean unpackToAtomic(File destination, SWT_VERSION version) throws InstantiationException{
+        return unpackToAtomic(destination, version, true);
     }
-    
+
     /**
-     * Determines the operating system.
-     * @return The current OS platform of the JVM instance
-     * @throws InstantiationException If the platform information is invalid or unavailable.
+     * Unpacks the specified SWT library version to the destination as {@link #unpackToAtomic(File, SWT_VERSION)} does.
+     * @param destination The absolute path to the destination file, which is replaced only if it is out of date
+     * @param version The SWT version we are trying to load
+     * @param link False to always copy, which the bundle cache itself needs
+     * @return True if this call unpacked the library, false if an up to date destination was reused
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the copy
      */
-    private static SWT_PLATFORM getCurrentPlatform() throws InstantiationException{
-        String osName = System.getProperty(OS_NAME_PROPERTY).toLowerCase(Locale.ENGLISH);
-        
-        if(osName == null ){
-            //Sanity check
-            throw createLoggedError(ERROR_MESSAGE.operatingSystemUnsupported());
+    private static boolean unpackToAtomic(File destination, SWT_VERSION version, boolean link)
+            throws InstantiationException{
+
+        UnpackTrace trace = UnpackTrace.start(version, destination);
+
+        if(destination == null || version == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
         }
-        
-        if (osName.contains("win") ){
-                
-                //Windows
-                return SWT_PLATFORM.windows;
-                
-        } else if (osName.contains("mac") ){
-                
-                //Macintosh
-                return SWT_PLATFORM.macosx;
-                
-        } else if (osName.contains("nix") || osName.contains("nux") || osName.contains("aix") ){
-                
-                //Linux
-                return SWT_PLATFORM.linux;
-                
-        } else {
-                //Unhandled Case
-                throw createLoggedError(ERROR_MESSAGE.operatingSystemUnsupported());
+
+        if(!destination.isAbsolute()){
+            //Same requirement as unpackTo
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+        }
+
+        if(destination.isDirectory()){
+            //You can't use directories as file targets
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeDirectory());
+        }
+
+        trace.completed(UnpackPhase.DESTINATION_VALIDATION);
+        BundleIndex.Record bundle = determineBundle(version, trace);
+
+        if(isUpToDate(bundle, destination, trace)){
+            //Completed by an earlier run, renames are atomic so there is nothing half written to wait for
+            trace.completed(UnpackPhase.COPY, 0, UnpackEvent.Outcome.SKIPPED);
+            return false;
+        }
+
+        File directory = destination.getParentFile();
+        ExclusiveFileLock lock;
+
+        try {
+            lock = ExclusiveFileLock.acquire(new File(directory, destination.getName() + ".lock"));
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.unableToLockDestination());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+
+        trace.completed(UnpackPhase.LOCK);
+
+        try {
+
+            if(isUpToDate(bundle, destination, trace)){
+                //Another thread or process finished the unpack while we waited
+                trace.completed(UnpackPhase.COPY, 0, UnpackEvent.Outcome.REUSED);
+                return false;
+            }
+
+            replaceAtomically(bundle, destination, trace, link);
+            return true;
+
+        } finally {
+            lock.release();
         }
-        
     }
-    
+
     /**
-     * Determines the processor architecture
-     * @return The current processor architecture
-     * @throws InstantiationException If the arch information is invalid or unavailable.
+     * Unpacks a trimmed bundle of the specified SWT library version to the destination, holding the core of SWT and
+     * the given features only. The classes and native libraries of every other {@link SWTFeature} are left out where
+     * the rest of SWT does not use them, so the trimmed bundle is smaller to write, to keep and to open.
+     * <br>
+     * The entries are copied without being inflated again, and the unpack is as safe against other threads and
+     * processes as {@link #unpackToAtomic(File, SWT_VERSION)}. A destination which already holds the same trimmed
+     * bundle, recognised by its size and central directory, is reused.
+     * @param destination The absolute path to the destination file, which is replaced only if it is out of date
+     * @param version The SWT version we are trying to load
+     * @param features The features the application uses
+     * @return True if this call wrote the trimmed bundle, false if an up to date destination was reused
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the copy
      */
-    private static SWT_PLATFORM_ARCH getCurrentArch() throws InstantiationException{
-        String osArch = System.getProperty(OS_ARCH_PROPERTY);
-        
-        if(osArch == null ){
-            //Sanity check
-            throw createLoggedError(ERROR_MESSAGE.processorArchitectureUnsupported());
+    public static boolean unpackTrimmedTo(File destination, SWT_VERSION version, Set<SWTFeature> features)
+            throws InstantiationException{
+
+        UnpackTrace trace = UnpackTrace.start(version, destination);
+
+        if(destination == null || version == null || features == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
         }
-        
-        if(osArch.contains("64") ){
-            
-            //64 bit JVM
-            return SWT_PLATFORM_ARCH.x64;
-            
-        } else if (osArch.contains("86") ){
-            
-            //32 bit JVM
-            return SWT_PLATFORM_ARCH.x86;
-            
-        } else{            
-            //Unhandled Case
-            throw createLoggedError(ERROR_MESSAGE.processorArchitectureUnsupported());
+
+        if(!destination.isAbsolute()){
+            //Same requirement as unpackTo
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+        }
+
+        if(destination.isDirectory()){
+            //You can't use directories as file targets
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeDirectory());
+        }
+
+        trace.completed(UnpackPhase.DESTINATION_VALIDATION);
+        BundleIndex.Record bundle = determineBundle(version, trace);
+
+        //Shared with the class loaders and native extractions, so the bundle is only indexed once
+        BundleImage image = bundleImage(bundle);
+        List<ZipDirectory.Entry> entries = TrimmedBundle.entries(image.directory(), features);
+
+        if(isTrimmedUpToDate(bundle, image.archive(), entries, destination, trace)){
+            trace.completed(UnpackPhase.COPY, 0, UnpackEvent.Outcome.SKIPPED);
+            return false;
+        }
+
+        ExclusiveFileLock lock;
+
+        try {
+            lock = ExclusiveFileLock.acquire(new File(destination.getParentFile(), destination.getName() + ".lock"));
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.unableToLockDestination());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+
+        trace.completed(UnpackPhase.LOCK);
+
+        try {
+
+            if(isTrimmedUpToDate(bundle, image.archive(), entries, destination, trace)){
+                //Another thread or process finished the unpack while we waited
+                trace.completed(UnpackPhase.COPY, 0, UnpackEvent.Outcome.REUSED);
+                return false;
+            }
+
+            replaceAtomically(bundle, image.archive(), entries, destination, trace, false);
+            return true;
+
+        } finally {
+            lock.release();
         }
     }
-            
+
     /**
-     * Forms the path of the SWT libraries to unpack based upon the given information about this system.
-     * @param platform The OS platform
-     * @param arch The processor architecture
-     * @param version The desired SWT version
-     * @return A ClassLoader path for the SWT library the given information requires
+     * Unpacks the specified SWT library version to the destination exactly once per JVM, sharing the result between
+     * all callers.
+     * <br>
+     * Concurrent calls for the same destination and version wait on a single unpack instead of repeating it, and
+     * later calls return the remembered result after a single existence check. The unpack itself is done as by
+     * {@link #unpackToAtomic(File, SWT_VERSION)}, so it is also safe against other processes.
+     * @param destination The absolute path to the destination file, which is replaced only if it is out of date
+     * @param version The SWT version we are trying to load
+     * @return The same immutable handle for every caller with this destination and version
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the copy
      */
-    private static String constructRelativePackageLocation(SWT_PLATFORM platform, SWT_PLATFORM_ARCH arch, SWT_VERSION version){
-                
-        final String relativePath = version.toString() + "/" +  platform.toString() + "/" + arch.toString() + "/" + "swt.jar";
-        //Hardcoded slash literals acceptable for package references
-        
-        return relativePath;
+    public static UnpackedBundle unpack(File destination, SWT_VERSION version) throws InstantiationException{
+        return unpack(destination, version, true);
     }
-    
+
     /**
-     * The path to the base package containing all native libraries organized by platform, version and architecture.
-     * @return A package descriptor string 
+     * Unpacks the specified SWT library version to the destination as {@link #unpack(File, SWT_VERSION)} does.
+     * @param destination The absolute path to the destination file, which is replaced only if it is out of date
+     * @param version The SWT version we are trying to load
+     * @param link False to always copy, which the bundle cache itself needs
+     * @return The same immutable handle for every caller with this destination and version
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the copy
      */
-    private static String nativeLibrariesPackageLocation(){
-        return NativeLibrariesLocation.class.getPackage().getName().replace(".", "/");
+    private static UnpackedBundle unpack(final File destination, final SWT_VERSION version, final boolean link)
+            throws InstantiationException{
+
+        if(destination == null || version == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        if(!destination.isAbsolute()){
+            //Same requirement as unpackTo, and required for a meaningful key
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+        }
+
+        try {
+            return UnpackCoordinator.unpack(destination.getCanonicalPath() + "|" + version,
+                    new Callable<UnpackedBundle>() {
+                        @Override
+                        public UnpackedBundle call() throws InstantiationException {
+                            unpackToAtomic(destination, version, link);
+                            return new UnpackedBundle(destination, version, getCurrentPlatform(), getCurrentArch(),
+                                    destination.length());
+                        }
+                    });
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.destinationCannotBeCreated());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.interruptedWhileUnpacking());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+    }
+
+    /**
+     * Starts unpacking the specified SWT library version on a library managed background thread.
+     * <br>
+     * The unpack is shared with every other call to {@link #unpack(File, SWT_VERSION)} for the same destination and
+     * version, so an application can start it early and block on the returned future only when SWT is first needed.
+     * @param destination The absolute path to the destination file, which is replaced only if it is out of date
+     * @param version The SWT version we are trying to load
+     * @return A future for the unpacked library
+     * @throws InstantiationException If we are given an invalid value
+     */
+    public static Future<UnpackedBundle> unpackAsync(File destination, SWT_VERSION version) throws InstantiationException{
+        return unpackAsync(destination, version, UnpackExecutor.shared(), null);
+    }
+    
+    /**
+     * Starts unpacking the specified SWT library version on the given executor, as {@link #unpack(File, SWT_VERSION)}
+     * would, optionally reporting the outcome to a callback.
+     * @param destination The absolute path to the destination file, which is replaced only if it is out of date
+     * @param version The SWT version we are trying to load
+     * @param executor Runs the unpack
+     * @param callback Notified once the unpack completes, fails or is cancelled, may be null
+     * @return A future for the unpacked library
+     * @throws InstantiationException If we are given an invalid value or the executor rejects the unpack
+     */
+    public static Future<UnpackedBundle> unpackAsync(final File destination, final SWT_VERSION version,
+            Executor executor, final UnpackCallback callback) throws InstantiationException{
+
+        if(destination == null || version == null || executor == null){
+            //Input sanity check, done up front so that bad arguments fail the caller rather than the future
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        if(!destination.isAbsolute()){
+            //Same requirement as unpackTo
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+        }
+
+        FutureTask<UnpackedBundle> task = new FutureTask<UnpackedBundle>(new Callable<UnpackedBundle>() {
+            @Override
+            public UnpackedBundle call() throws InstantiationException {
+                return unpack(destination, version);
+            }
+        }){
+            @Override
+            protected void done() {
+                if(callback == null){
+                    return;
+                }
+                
+                if(isCancelled()){
+                    InstantiationException failure = createLoggedError(ERROR_MESSAGE.unpackCancelled());
+                    failure.initCause(new CancellationException());
+                    callback.failed(failure);
+                    return;
+                }
+                
+                try {
+                    callback.unpacked(get());
+                } catch (ExecutionException e) {
+                    callback.failed(asInstantiationException(e.getCause()));
+                } catch (InterruptedException e) {
+                    //Cannot happen once the task is done
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            //E.g. an executor which was shut down; the callback is not called, as the caller learns of it here
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.unpackRejected());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+        return task;
+    }
+    
+    /**
+     * Starts unpacking the specified SWT library version in the background and returns immediately, for applications
+     * which want the unpack to overlap the rest of their startup. A later call to {@link #unpack(File, SWT_VERSION)}
+     * with the same arguments waits for this unpack instead of starting another.
+     * @param destination The absolute path to the destination file, which is replaced only if it is out of date
+     * @param version The SWT version we are trying to load
+     * @throws InstantiationException If we are given an invalid value
+     */
+    public static void prefetch(File destination, SWT_VERSION version) throws InstantiationException{
+        unpackAsync(destination, version);
+    }
+    
+    /**
+     * Unpacks the specified SWT library version into the per-user bundle cache, which every application and JVM of
+     * the user shares, and returns the cached library.
+     * <br>
+     * Bundles are cached by version, platform and content digest, so after the first unpack of a bundle every later
+     * call, from any application, only verifies the cached copy. The unpack is done as by
+     * {@link #unpack(File, SWT_VERSION)}. Once per day the cache is swept in the background, evicting the least
+     * recently used bundles beyond {@link #CACHE_MAX_SIZE_PROPERTY} and those unused for longer than
+     * {@link #CACHE_MAX_AGE_PROPERTY}.
+     * @param version The SWT version we are trying to load
+     * @return The cached library
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the copy
+     */
+    public static UnpackedBundle unpackToCache(SWT_VERSION version) throws InstantiationException{
+
+        if(version == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        File root = cacheRoot();
+        BundleIndex.Record bundle = determineBundle(version);
+        File destination = BundleCache.entry(root, classifierOf(version, bundle.platform, bundle.arch), bundle);
+
+        if(!BundleCache.use(destination)){
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeCreated());
+        }
+
+        //The cached copy is what everything else links to
+        UnpackedBundle unpacked = unpack(destination, version, false);
+        BundleCache.sweepInBackground(root);
+        return unpacked;
+    }
+
+    /**
+     * Sweeps the per-user bundle cache now, removing temporary files left by interrupted unpacks and evicting bundles
+     * beyond the size and age budgets. Bundles used within the last hour, or being unpacked, are never evicted.
+     * @return The number of bytes freed
+     * @throws InstantiationException If the cache location cannot be determined
+     */
+    public static long sweepCache() throws InstantiationException{
+        return BundleCache.sweep(cacheRoot(), BundleCache.maxSize(), BundleCache.maxAgeMillis());
+    }
+
+    /**
+     * Unpacks the bundles of any versions, platforms and architectures into a directory in parallel, e.g. to assemble
+     * the installers of every platform an application ships on, and reports the result of each target.
+     * <br>
+     * The bundles are written by a bounded pool of at most eight threads, each bundle streamed once from the jar into
+     * a temporary file which is renamed into place. A target which fails does not stop the others.
+     * @param targets The bundles to unpack
+     * @param directory The absolute path to the output directory, which is created if needed
+     * @param layout Decides where in the output directory each bundle is written
+     * @return The result of every target and the throughput of the batch
+     * @throws InstantiationException If we are given an invalid value or the batch is interrupted
+     */
+    public static BatchUnpackReport unpackAll(Collection<BundleTarget> targets, File directory, BundleLayout layout)
+            throws InstantiationException{
+        int parallelism = Math.min(MAX_BATCH_PARALLELISM, Math.max(2, Runtime.getRuntime().availableProcessors()));
+        return unpackAll(targets, directory, layout, parallelism);
+    }
+    
+    /**
+     * Unpacks the bundles of any versions, platforms and architectures into a directory in parallel, as
+     * {@link #unpackAll(Collection, File, BundleLayout)} does, with a chosen number of threads.
+     * @param targets The bundles to unpack
+     * @param directory The absolute path to the output directory, which is created if needed
+     * @param layout Decides where in the output directory each bundle is written
+     * @param parallelism The largest number of bundles written at once
+     * @return The result of every target and the throughput of the batch
+     * @throws InstantiationException If we are given an invalid value or the batch is interrupted
+     */
+    public static BatchUnpackReport unpackAll(Collection<BundleTarget> targets, File directory, BundleLayout layout,
+            int parallelism) throws InstantiationException{
+        return unpackAll(targets, directory, layout, parallelism, null);
+    }
+    
+    /**
+     * Unpacks the bundles of any versions, platforms and architectures into a directory in parallel, as
+     * {@link #unpackAll(Collection, File, BundleLayout, int)} does, trimming each bundle if features are given.
+     * @param targets The bundles to unpack
+     * @param directory The absolute path to the output directory, which is created if needed
+     * @param layout Decides where in the output directory each bundle is written
+     * @param parallelism The largest number of bundles written at once
+     * @param features The features each trimmed bundle keeps, or null to write the whole bundles
+     * @return The result of every target and the throughput of the batch
+     * @throws InstantiationException If we are given an invalid value or the batch is interrupted
+     */
+    private static BatchUnpackReport unpackAll(Collection<BundleTarget> targets, final File directory,
+            final BundleLayout layout, int parallelism, final Set<SWTFeature> features) throws InstantiationException{
+        
+        if(targets == null || directory == null || layout == null || targets.contains(null)){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+        
+        if(!directory.isAbsolute()){
+            //Same requirement as unpackTo
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+        }
+        
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeCreated());
+        }
+        
+        long start = System.nanoTime();
+        Map<BundleTarget, Future<UnpackedBundle>> pending = new LinkedHashMap<BundleTarget, Future<UnpackedBundle>>();
+        Map<BundleTarget, UnpackedBundle> unpacked = new LinkedHashMap<BundleTarget, UnpackedBundle>();
+        Map<BundleTarget, InstantiationException> failures = new LinkedHashMap<BundleTarget, InstantiationException>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, targets.size())));
+        
+        try {
+            for(final BundleTarget target : targets){
+                pending.put(target, executor.submit(new Callable<UnpackedBundle>() {
+                    @Override
+                    public UnpackedBundle call() throws InstantiationException {
+                        return unpackTarget(target, directory, layout, features);
+                    }
+                }));
+            }
+            
+            for(Map.Entry<BundleTarget, Future<UnpackedBundle>> entry : pending.entrySet()){
+                try {
+                    unpacked.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    failures.put(entry.getKey(), asInstantiationException(e.getCause()));
+                }
+            }
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.interruptedWhileUnpacking());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        return new BatchUnpackReport(unpacked, failures, System.nanoTime() - start);
+    }
+    
+    /**
+     * Stages bundles into a directory at build time, e.g. into an application image, as
+     * {@link #unpackAll(Collection, File, BundleLayout)} does in the {@link StandardBundleLayout#BY_VERSION} layout, and
+     * records the bundles written in the directory's manifest, {@link #STAGED_MANIFEST_NAME}. At runtime
+     * {@link #stagedBundle(File, SWT_VERSION)} then finds the bundle without looking it up or copying it.
+     * <br>
+     * Bundles staged by earlier calls stay in the manifest; bundles which failed are left out of it.
+     * @param targets The bundles to stage
+     * @param directory The absolute path to the staging directory, which is created if needed
+     * @return The result of every target and the throughput of the batch
+     * @throws InstantiationException If we are given an invalid value, the batch is interrupted or the manifest
+     * cannot be written
+     */
+    public static BatchUnpackReport stageAll(Collection<BundleTarget> targets, File directory)
+            throws InstantiationException{
+        return stage(targets, directory, null);
+    }
+    
+    /**
+     * Stages trimmed bundles into a directory at build time, holding the core of SWT and the given features only, as
+     * {@link #stageAll(Collection, File)} stages whole bundles. The trimmed bundles are the same as those
+     * {@link #unpackTrimmedTo(File, SWT_VERSION, Set)} writes at runtime.
+     * @param targets The bundles to stage
+     * @param directory The absolute path to the staging directory, which is created if needed
+     * @param features The features the application uses
+     * @return The result of every target and the throughput of the batch
+     * @throws InstantiationException If we are given an invalid value, the batch is interrupted or the manifest
+     * cannot be written
+     */
+    public static BatchUnpackReport stageAll(Collection<BundleTarget> targets, File directory,
+            Set<SWTFeature> features) throws InstantiationException{
+        
+        if(features == null){
+            //Input sanity check, the rest is checked below
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+        
+        return stage(targets, directory, features);
+    }
+    
+    /**
+     * Stages whole or trimmed bundles into a directory and records them in its manifest.
+     * @param targets The bundles to stage
+     * @param directory The absolute path to the staging directory, which is created if needed
+     * @param features The features each trimmed bundle keeps, or null to stage the whole bundles
+     * @return The result of every target and the throughput of the batch
+     * @throws InstantiationException If we are given an invalid value, the batch is interrupted or the manifest
+     * cannot be written
+     */
+    private static BatchUnpackReport stage(Collection<BundleTarget> targets, File directory,
+            Set<SWTFeature> features) throws InstantiationException{
+        
+        int parallelism = Math.min(MAX_BATCH_PARALLELISM, Math.max(2, Runtime.getRuntime().availableProcessors()));
+        BatchUnpackReport report = unpackAll(targets, directory, StandardBundleLayout.BY_VERSION, parallelism,
+                features);
+        
+        try {
+            StagedManifest.record(directory, report.getUnpacked());
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.unableToWriteStagedManifest());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+        
+        return report;
+    }
+    
+    /**
+     * Returns the bundle of the specified SWT library version for the platform this JVM runs on from the staging
+     * directory named by {@link #STAGED_DIRECTORY_PROPERTY}, as {@link #stagedBundle(File, SWT_VERSION)} does.
+     * @param version The SWT version we are trying to load
+     * @return The staged library
+     * @throws InstantiationException If we are given an invalid value, the property is not set or the bundle was not
+     * staged
+     */
+    public static UnpackedBundle stagedBundle(SWT_VERSION version) throws InstantiationException{
+        
+        String directory = System.getProperty(STAGED_DIRECTORY_PROPERTY);
+        
+        if(directory == null || directory.isEmpty()){
+            throw createLoggedError(ERROR_MESSAGE.stagedDirectoryNotSet(STAGED_DIRECTORY_PROPERTY));
+        }
+        
+        return stagedBundle(new File(directory), version);
+    }
+    
+    /**
+     * Returns the bundle of the specified SWT library version for the platform this JVM runs on from a directory
+     * staged at build time by {@link #stageAll(Collection, File)}, e.g. by the Maven plugin.
+     * <br>
+     * Nothing is looked up on the class path or copied: the bundle is only checked against the directory's manifest.
+     * Its size is always compared; its content is only hashed if its modification time changed since it was staged.
+     * @param directory The absolute path to the staging directory
+     * @param version The SWT version we are trying to load
+     * @return The staged library
+     * @throws InstantiationException If we are given an invalid value, or the bundle was not staged or was changed
+     * since
+     */
+    public static UnpackedBundle stagedBundle(File directory, SWT_VERSION version) throws InstantiationException{
+        
+        if(directory == null || version == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+        
+        if(!directory.isAbsolute()){
+            //Same requirement as unpackTo
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+        }
+        
+        BundleTarget target = currentTarget(version);
+        File staged;
+        
+        try {
+            StagedManifest manifest = StagedManifest.read(directory);
+            staged = manifest == null ? null : manifest.verified(target);
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(
+                    ERROR_MESSAGE.bundleNotStaged(target.getClassifier(), directory.getPath()));
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+        
+        if(staged == null){
+            throw createLoggedError(ERROR_MESSAGE.bundleNotStaged(target.getClassifier(), directory.getPath()));
+        }
+        
+        return new UnpackedBundle(staged, version, target.getPlatform(), target.getArch(), staged.length());
+    }
+    
+    /**
+     * Identifies the bundle of the specified SWT library version for the platform this JVM runs on.
+     * @param version The SWT version
+     * @return The bundle's target
+     * @throws InstantiationException If we are given an invalid value or the platform is unsupported
+     */
+    public static BundleTarget currentTarget(SWT_VERSION version) throws InstantiationException{
+
+        if(version == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        return BundleTarget.of(version, getCurrentPlatform(), getCurrentArch());
+    }
+
+    /**
+     * Opens a bundle for reading without writing anything to the file system, e.g. to place it in an in-memory file
+     * system or to feed it to a packaging pipeline. The size and SHA-256 digest of the bundle are available from the
+     * returned channel before anything is read. The <code>packed</code> artifact rebuilds the bundle into one
+     * buffer of its size first, which the channel then reads from.
+     * @param target The bundle to open, see {@link #currentTarget(SWT_VERSION)}
+     * @return An open channel over the bundle, which the caller must close
+     * @throws InstantiationException If we are given an invalid value or the bundle cannot be opened
+     */
+    public static BundleChannel openBundle(BundleTarget target) throws InstantiationException{
+
+        BundleIndex.Record bundle = targetBundle(target);
+        URL resource = locateBundle(bundle);
+
+        try {
+            ReadableByteChannel source;
+
+            if(bundle.packed){
+                //Rebuilt into a single buffer of the bundle's size, then read from it without another copy
+                source = BundleChannels.source(BundlePack.rebuild(bundle));
+            } else{
+                source = BundleChannels.open(resource);
+            }
+
+            return new BundleChannel(target, bundle.isIndexed() ? bundle.size : -1,
+                    bundle.digest(), source);
+
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+    }
+
+    /**
+     * Writes a bundle into a channel the caller provides, from its current position. File channels receive a kernel
+     * transfer, and other channels are written straight from the mapped bundle where possible, without an
+     * intermediate buffer.
+     * @param target The bundle to write, see {@link #currentTarget(SWT_VERSION)}
+     * @param destination The channel to write into, which is not closed
+     * @return The number of bytes written
+     * @throws InstantiationException If we are given an invalid value or the bundle cannot be written
+     */
+    public static long writeBundleTo(BundleTarget target, WritableByteChannel destination)
+            throws InstantiationException{
+
+        if(destination == null){
+            //Input sanity check, the target is checked below
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        BundleIndex.Record bundle = targetBundle(target);
+        URL resource = locateBundle(bundle);
+
+        try {
+            long written;
+
+            if(bundle.packed){
+                CountingChannel counted = new CountingChannel(destination);
+                BundlePack.write(bundle, counted);
+                written = counted.count;
+            } else{
+                written = BundleChannels.copy(resource, destination);
+            }
+
+            if(bundle.size >= 0 && written != bundle.size){
+                //Same check as the unpack methods
+                throw new IOException("Wrote " + written + " of " + bundle.size + " bytes");
+            }
+
+            return written;
+
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+    }
+
+    /**
+     * Writes a bundle into a buffer the caller provides, e.g. one sized with {@link BundleChannel#getSize()} or
+     * mapped from a file. The bundle is written at the buffer's position, which is advanced past it.
+     * @param target The bundle to write, see {@link #currentTarget(SWT_VERSION)}
+     * @param destination The buffer to write into, which must have room for the whole bundle
+     * @return The number of bytes written
+     * @throws InstantiationException If we are given an invalid value, the buffer is too small or the bundle cannot
+     * be written
+     */
+    public static long writeBundleTo(BundleTarget target, ByteBuffer destination) throws InstantiationException{
+
+        if(destination == null){
+            //Input sanity check, the target is checked below
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        BundleIndex.Record bundle = targetBundle(target);
+
+        if(bundle.size > destination.remaining()){
+            //Known up front for indexed bundles, otherwise found out while writing
+            throw createLoggedError(ERROR_MESSAGE.bundleDoesNotFit(bundle.size, destination.remaining()));
+        }
+
+        return writeBundleTo(target, BundleChannels.sink(destination));
+    }
+
+    /**
+     * Writes a trimmed bundle, holding the core of SWT and the given features only, into a channel the caller
+     * provides, from its current position. This is the bundle {@link #unpackTrimmedTo(File, SWT_VERSION, Set)}
+     * writes, for any platform, e.g. to feed it to a packaging pipeline at build time.
+     * @param target The bundle to trim, see {@link #currentTarget(SWT_VERSION)}
+     * @param features The features the application uses
+     * @param destination The channel to write into, which is not closed
+     * @return The number of bytes written
+     * @throws InstantiationException If we are given an invalid value or the bundle cannot be written
+     */
+    public static long writeTrimmedBundleTo(BundleTarget target, Set<SWTFeature> features,
+            WritableByteChannel destination) throws InstantiationException{
+
+        if(features == null || destination == null){
+            //Input sanity check, the target is checked below
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        ByteBuffer archive = mapBundle(targetBundle(target));
+
+        try {
+            List<ZipDirectory.Entry> entries = TrimmedBundle.entries(ZipDirectory.read(archive), features);
+            CountingChannel counted = new CountingChannel(destination);
+            TrimmedBundle.write(archive, entries, counted);
+
+            if(counted.count != TrimmedBundle.length(entries)){
+                //Same check as the unpack methods
+                throw new IOException("Wrote " + counted.count + " of " + TrimmedBundle.length(entries) + " bytes");
+            }
+
+            return counted.count;
+
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+    }
+
+    /**
+     * Counts the bytes written through a channel.
+     */
+    private static final class CountingChannel implements WritableByteChannel {
+
+        /**
+         * The channel written to
+         */
+        private final WritableByteChannel destination;
+
+        /**
+         * The number of bytes written
+         */
+        private long count;
+
+        /**
+         * Creates a counting channel.
+         * @param destination The channel written to
+         */
+        CountingChannel(WritableByteChannel destination) {
+            this.destination = destination;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int written = destination.write(src);
+            count += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return destination.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            destination.close();
+        }
+    }
+
+    /**
+     * Extracts only the native libraries of the specified SWT library version into a directory, leaving the Java
+     * classes inside the bundle.
+     * <br>
+     * The libraries are extracted in parallel, each one written to a temporary file and renamed into place, and a
+     * library which is already present with the right size and CRC-32 is not written again. Setting the
+     * <code>swt.library.path</code> system property to the returned directory before SWT is first used makes SWT load
+     * the libraries from there instead of extracting them itself.
+     * @param directory The absolute path to the directory to extract into, which is created if needed
+     * @param version The SWT version we are trying to load
+     * @return The directory holding the native libraries
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the extraction
+     */
+    public static File unpackNativesTo(File directory, SWT_VERSION version) throws InstantiationException{
+        return unpackNativesTo(directory, version, EnumSet.allOf(SWTFeature.class));
+    }
+
+    /**
+     * Extracts the core native libraries of the specified SWT library version into a directory, along with those of
+     * the given features only, as {@link #unpackNativesTo(File, SWT_VERSION)} does.
+     * <br>
+     * The libraries of the other features are left in the bundle until
+     * {@link #unpackFeature(File, SWT_VERSION, SWTFeature)} is called, so startup only writes what the application
+     * needs up front.
+     * @param directory The absolute path to the directory to extract into, which is created if needed
+     * @param version The SWT version we are trying to load
+     * @param features The features whose libraries are extracted right away
+     * @return The directory holding the native libraries
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the extraction
+     */
+    public static File unpackNativesTo(File directory, SWT_VERSION version, Set<SWTFeature> features)
+            throws InstantiationException{
+
+        if(features == null){
+            //Input sanity check, the rest is checked below
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        return extractNatives(directory, version, features, true);
+    }
+
+    /**
+     * Extracts the native libraries of one feature of the specified SWT library version into a directory which
+     * {@link #unpackNativesTo(File, SWT_VERSION, Set)} extracted the core libraries into. Call it before the
+     * application first uses the feature, e.g. for {@link SWTFeature#BROWSER} before the first <code>Browser</code> is
+     * created. Later calls for the same directory, version and feature return immediately.
+     * @param directory The absolute path to the directory holding the core libraries
+     * @param version The SWT version we are trying to load
+     * @param feature The feature about to be used
+     * @return The directory holding the native libraries
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the extraction
+     */
+    public static File unpackFeature(File directory, SWT_VERSION version, SWTFeature feature)
+            throws InstantiationException{
+
+        if(feature == null){
+            //Input sanity check, the rest is checked below
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        if(directory != null && UNPACKED_FEATURES.contains(featureKey(directory, version, feature))){
+            //Already extracted by this JVM
+            return directory;
+        }
+
+        return extractNatives(directory, version, EnumSet.of(feature), false);
+    }
+
+    /**
+     * Unpacks the specified SWT library version as {@link #unpackToAtomic(File, SWT_VERSION)} does, to the fastest
+     * location fit for it instead of one the caller names.
+     * <br>
+     * The candidates are <code>/dev/shm</code>, <code>$XDG_RUNTIME_DIR</code>, the JVM's temporary directory and the
+     * caller's default, in that order. A candidate must be writable, have room for the bundle and not be mounted
+     * <code>noexec</code>; the viable ones are timed writing a small probe file and the fastest is chosen. The choice
+     * is remembered in the bundle cache, so later runs only probe again once it stops being viable. The bundle is
+     * written to a per-user directory in the chosen location, created accessible to the current user alone; an
+     * existing one which is a link, belongs to another user or is writable by others is refused.
+     * @param version The SWT version we are trying to load
+     * @param fallback The absolute path to the caller's default location, created if needed, or null
+     * @return The unpacked library
+     * @throws InstantiationException If we are given an invalid value, no location is viable or we unable to complete
+     * the copy
+     */
+    public static File unpackToFastest(SWT_VERSION version, File fallback) throws InstantiationException{
+
+        if(version == null){
+            //Input sanity check, the rest is checked below
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        BundleIndex.Record bundle = determineBundle(version);
+        File destination = new File(placedDirectory(version, fallback, Math.max(0, bundle.size)), "swt.jar");
+        unpackToAtomic(destination, version);
+        return destination;
+    }
+
+    /**
+     * Extracts the native libraries of the specified SWT library version as
+     * {@link #unpackNativesTo(File, SWT_VERSION)} does, to the fastest location fit for them, chosen as by
+     * {@link #unpackToFastest(SWT_VERSION, File)}. Since the libraries are loaded from there, a location on slow or
+     * network storage costs both the extraction and every later load.
+     * @param version The SWT version we are trying to load
+     * @param fallback The absolute path to the caller's default location, created if needed, or null
+     * @return The directory holding the native libraries
+     * @throws InstantiationException If we are given an invalid value, no location is viable or we unable to complete
+     * the extraction
+     */
+    public static File unpackNativesToFastest(SWT_VERSION version, File fallback) throws InstantiationException{
+
+        if(version == null){
+            //Input sanity check, the rest is checked below
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        BundleIndex.Record bundle = determineBundle(version);
+        long required = 0;
+
+        if(bundle.isIndexed()){
+            //Known from the index, so the location is chosen before the bundle is even read
+            for(BundleIndex.NativeLibrary library : bundle.natives){
+                required += library.size;
+            }
+        } else{
+            for(ZipDirectory.Entry entry : NativeExtractor.nativeLibraries(bundleImage(bundle).directory())){
+                required += entry.size;
+            }
+        }
+
+        return unpackNativesTo(placedDirectory(version, fallback, required), version);
+    }
+
+    /**
+     * Creates a class loader which defines the classes of the specified SWT library version directly from the bundle
+     * held in memory, so the bundle is never written to disk.
+     * <br>
+     * The bundle is read and indexed once per version and shared by every loader created for that version. Native
+     * libraries are extracted to the given directory only when SWT first loads them.
+     * @param version The SWT version we are trying to load
+     * @param nativesDirectory The absolute path to the directory native libraries are extracted to, created if needed
+     * @param parent The parent of the new class loader, which should not itself be able to see SWT
+     * @return A class loader for the SWT classes
+     * @throws InstantiationException If we are given an invalid value or the bundle cannot be read
+     */
+    public static ClassLoader createClassLoader(SWT_VERSION version, File nativesDirectory, ClassLoader parent)
+            throws InstantiationException{
+
+        if(version == null || nativesDirectory == null){
+            //Input sanity check, a null parent is the bootstrap loader
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        if(!nativesDirectory.isAbsolute()){
+            //Same requirement as unpackTo
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+        }
+
+        if(!nativesDirectory.isDirectory() && !nativesDirectory.mkdirs()){
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeCreated());
+        }
+
+        return new SWTClassLoader(bundleImage(determineBundle(version)), nativesDirectory, parent);
+    }
+
+    /**
+     * Creates the class data sharing (AppCDS) archive of an unpacked bundle, unless it exists already, and returns the
+     * options which make a JVM use it. A JVM started with these options maps the SWT classes already parsed and
+     * verified from the archive instead of loading them from the bundle, e.g. when a launcher starts the application.
+     * <br>
+     * The archive is created once by two short-lived JVMs, a training run which lists the classes of the bundle and a
+     * dump of those classes, and is renamed into place next to the bundle. It is named after the bundle's SHA-256
+     * digest and the JVM's version, so a changed bundle or JDK gets a new archive; archives of earlier bundle contents
+     * are removed. The JVM only uses the archive while the bundle is the first entry of its class path, e.g.
+     * <code>java -XX:SharedArchiveFile=... -Xshare:auto -cp swt.jar:app.jar</code>, and must be of the same version as
+     * this one; otherwise it silently loads the classes from the bundle as usual.
+     * @param bundle The absolute path to a bundle unpacked by this class, e.g. by
+     * {@link #unpackToAtomic(File, SWT_VERSION)}
+     * @return The JVM options, or an empty list if this JVM cannot create such archives, as before Java 11
+     * @throws InstantiationException If we are given an invalid value or the archive cannot be created
+     */
+    public static List<String> createSharedArchive(File bundle) throws InstantiationException{
+
+        if(bundle == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        if(!bundle.isAbsolute()){
+            //Same requirement as unpackTo
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+        }
+
+        if(ClassDataArchive.javaVersion() < ClassDataArchive.MINIMUM_JAVA_VERSION){
+            LOG.warn(ERROR_MESSAGE.sharedArchiveUnsupported(System.getProperty("java.specification.version")));
+            return Collections.emptyList();
+        }
+
+        File archive;
+
+        try {
+            archive = ClassDataArchive.archiveOf(bundle);
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+
+        if(!archive.isFile()){
+            createSharedArchive(bundle, archive);
+        }
+
+        return Collections.unmodifiableList(ClassDataArchive.optionsFor(archive));
+    }
+
+    /**
+     * Creates the class data sharing archive of a bundle while holding a lock, so concurrent callers create it once.
+     * @param bundle The bundle
+     * @param archive The archive to create
+     * @throws InstantiationException If the archive cannot be created
+     */
+    private static void createSharedArchive(File bundle, File archive) throws InstantiationException{
+
+        ExclusiveFileLock lock;
+
+        try {
+            //Apart from the bundle's own lock, so unpacks are not held up by the training run
+            lock = ExclusiveFileLock.acquire(new File(bundle.getParentFile(), bundle.getName() + ".jsa.lock"));
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.unableToLockDestination());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+
+        try {
+            if(!archive.isFile()){
+                ClassDataArchive.create(bundle, archive, getDurability());
+                ClassDataArchive.removeStale(bundle, archive);
+            }
+
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(
+                    ERROR_MESSAGE.unableToCreateSharedArchive(ClassDataArchive.logOf(archive).getPath()));
+            exception.initCause(e);
+            throw exception;//NOPMD
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.interruptedWhileUnpacking());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Checks whether the bundle of the given version for the current platform is on the classpath. Applications which
+     * depend on the per-platform artifacts rather than the complete one carry only some of the bundles.
+     * @param version The SWT version to look for
+     * @return True if the version can be unpacked on this platform
+     * @throws InstantiationException If we are given an invalid value or the platform is unsupported
+     */
+    public static boolean isAvailable(SWT_VERSION version) throws InstantiationException{
+
+        if(version == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        return findBundle(indexedBundle(version)) != null;
+    }
+
+    /**
+     * Determines which SWT versions can be unpacked on the current platform.
+     * @return The versions whose bundles are on the classpath, in ascending order
+     * @throws InstantiationException If the platform is unsupported
+     */
+    public static Set<SWT_VERSION> availableVersions() throws InstantiationException{
+
+        Set<SWT_VERSION> available = EnumSet.noneOf(SWT_VERSION.class);
+
+        for(SWT_VERSION version : SWT_VERSION.values()){
+            if(findBundle(indexedBundle(version)) != null){
+                available.add(version);
+            }
+        }
+
+        return available;
+    }
+
+    /**
+     * Forms the Maven classifier of the artifact which carries a single bundle, such as <code>linux-x64-4.2.1</code>.
+     * @param version The SWT version
+     * @param platform The OS platform
+     * @param arch The processor architecture
+     * @return The classifier
+     */
+    public static String classifierOf(SWT_VERSION version, SWT_PLATFORM platform, SWT_PLATFORM_ARCH arch){
+        return platform + "-" + arch + "-" + displayVersion(version);
+    }
+
+    /**
+     * Replaces where bundles are found, e.g. with a directory of pre-staged bundles, or with the context class loader
+     * where this library's own class loader cannot see the bundles.
+     * <br>
+     * By default bundles are found by this library's class loader, after the directory or archive named by
+     * {@link #SOURCE_DIRECTORY_PROPERTY} and {@link #SOURCE_ARCHIVE_PROPERTY}. Bundles are looked up on every unpack,
+     * so the new source applies from the next one.
+     * @param source The new source, or null to restore the default
+     */
+    public static void setBundleSource(BundleSource source){
+        bundleSource = source;
+        
+        //Images belong to the bundles of the previous source
+        BUNDLE_IMAGES.clear();
+    }
+    
+    /**
+     * The current source of bundles.
+     * @return The source set with {@link #setBundleSource(BundleSource)}, or the default source
+     */
+    public static BundleSource getBundleSource(){
+        BundleSource source = bundleSource;
+        return source == null ? DefaultBundleSource.SOURCE : source;
+    }
+    
+    /**
+     * Chooses how far the unpack methods sync the files they write, from the next unpack on.
+     * <br>
+     * By default nothing is synced, unless {@link #DURABILITY_PROPERTY} says otherwise. Syncing keeps a crash or power
+     * loss from leaving a truncated destination behind, at the cost of waiting for the device on every unpack. At
+     * {@link Durability#DATA} and above, {@link #unpackTo(File, SWT_VERSION)} also writes into a temporary file and
+     * renames it over the destination it created, as the atomic unpack methods always do.
+     * @param durability The new level, or null to restore the default
+     */
+    public static void setDurability(Durability durability){
+        SWTNatives.durability = durability;
+    }
+    
+    /**
+     * The current durability of the files the unpack methods write.
+     * @return The level set with {@link #setDurability(Durability)}, or the default level
+     */
+    public static Durability getDurability(){
+        Durability level = durability;
+        return level == null ? DefaultDurability.DURABILITY : level;
+    }
+    
+    /**
+     * Turns the verification of unpacked bundles on or off, from the next unpack on.
+     * <br>
+     * With verification on, a bundle's size and SHA-256 digest are compared with those recorded in the bundle index at
+     * build time, both when it is written and when an existing destination is reused; a bundle the index does not
+     * know fails. A trimmed bundle must equal the trimmed copy of a bundle which matches the index. The digest is
+     * remembered in the bundle cache against the destination's size and modification time, so a destination is hashed
+     * once while it is unchanged; later unpacks only compare the metadata. A bundle which fails is not used: a freshly
+     * written one fails the unpack, an existing destination is unpacked again.
+     * @param verify True to verify unpacked bundles
+     */
+    public static void setVerifying(boolean verify){
+        verifying = verify;
+    }
+    
+    /**
+     * Whether unpacked bundles are verified.
+     * @return The value set with {@link #setVerifying(boolean)}, or else whether {@link #VERIFY_PROPERTY} is true
+     */
+    public static boolean isVerifying(){
+        Boolean verify = verifying;
+        return verify == null ? Boolean.getBoolean(VERIFY_PROPERTY) : verify;
+    }
+    
+    /**
+     * Lazily read default durability.
+     */
+    private static final class DefaultDurability {
+        
+        /**
+         * The default level
+         */
+        static final Durability DURABILITY = read();
+        
+        /**
+         * Deliberately no-op private constructor for static Class
+         */
+        private DefaultDurability() {
+            //Do nothing
+        }
+        
+        /**
+         * Reads the default level.
+         * @return The level named by {@link #DURABILITY_PROPERTY}, or {@link Durability#NONE}
+         */
+        private static Durability read(){
+            String value = System.getProperty(DURABILITY_PROPERTY);
+            
+            if(value == null){
+                return Durability.NONE;
+            }
+            
+            try {
+                return Durability.valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                LOG.warn(ERROR_MESSAGE.invalidDurability(DURABILITY_PROPERTY, value));
+                return Durability.NONE;
+            }
+        }
+    }
+    
+    /**
+     * Lazily created default source of bundles.
+     */
+    private static final class DefaultBundleSource {
+        
+        /**
+         * The default source
+         */
+        static final BundleSource SOURCE = create();
+        
+        /**
+         * Deliberately no-op private constructor for static Class
+         */
+        private DefaultBundleSource() {
+            //Do nothing
+        }
+        
+        /**
+         * Creates the default source.
+         * @return This library's class loader, after the staged bundles named by system properties
+         */
+        private static BundleSource create(){
+            List<BundleSource> sources = new ArrayList<BundleSource>();
+            String directory = System.getProperty(SOURCE_DIRECTORY_PROPERTY);
+            String archive = System.getProperty(SOURCE_ARCHIVE_PROPERTY);
+            
+            if(directory != null){
+                sources.add(BundleSources.directory(new File(directory), StandardBundleLayout.BY_VERSION));
+            }
+            
+            if(archive != null){
+                try {
+                    sources.add(BundleSources.archive(new File(archive), StandardBundleLayout.BY_VERSION));
+                } catch (IOException e) {
+                    //The class path still has the bundles
+                    LOG.warn(ERROR_MESSAGE.unreadableBundleArchive(archive), e);
+                }
+            }
+            
+            ClassLoader loader = SWTNatives.class.getClassLoader();
+            sources.add(BundleSources.classLoader(loader == null ? ClassLoader.getSystemClassLoader() : loader));
+            
+            return sources.size() == 1 ? sources.get(0)
+                    : BundleSources.chain(sources.toArray(new BundleSource[sources.size()]));
+        }
+    }
+    
+    /**
+     * Registers a listener which is told about every phase of every unpack to a file, e.g. to attribute startup time.
+     * Where the runtime provides Java Flight Recorder, the phases are also recorded as
+     * <code>com.github.emabrey.swt.UnpackPhase</code> events without registering anything.
+     * @param listener The listener to add
+     * @throws InstantiationException If we are given a null listener
+     */
+    public static void addUnpackListener(UnpackListener listener) throws InstantiationException{
+
+        if(listener == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        UnpackTrace.addListener(listener);
+    }
+
+    /**
+     * Unregisters a listener added with {@link #addUnpackListener(UnpackListener)}.
+     * @param listener The listener to remove
+     */
+    public static void removeUnpackListener(UnpackListener listener){
+        UnpackTrace.removeListener(listener);
+    }
+
+    /**
+     * Checks whether the destination already holds the bundle, treating an unreadable destination as out of date.
+     * @param bundle The bundle the destination should hold
+     * @param destination The file to check
+     * @param trace Receives the verification phase
+     * @return True if the destination matches the bundle index
+     */
+    private static boolean isUpToDate(BundleIndex.Record bundle, File destination, UnpackTrace trace){
+
+        if(!destination.isFile()){
+            trace.completed(UnpackPhase.VERIFICATION, 0, UnpackEvent.Outcome.SKIPPED);
+            return false;
+        }
+
+        try {
+            //The same comparison as the verification, so it is not repeated when verification is on
+            boolean upToDate = bundle.isIndexed() && BundleVerifier.verify(bundle.digest(), bundle.size, destination,
+                    destination, verificationRoot(bundle));
+            
+            //The digest is only computed once the sizes agree
+            trace.completed(UnpackPhase.VERIFICATION, bundle.isIndexed() && destination.length() == bundle.size
+                    ? bundle.size : 0, UnpackEvent.Outcome.PERFORMED);
+            return upToDate;
+        } catch (IOException e) {
+            LOG.warn(ERROR_MESSAGE.unableToVerifyExistingDestination(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether a destination already holds a trimmed bundle, verifying it if {@link #isVerifying()} asks for it.
+     * @param bundle The bundle the trimmed bundle comes from
+     * @param archive The whole bundle
+     * @param entries The entries the trimmed bundle keeps
+     * @param destination The file to check
+     * @param trace Receives the verification phase
+     * @return True if the destination holds the same entries
+     */
+    private static boolean isTrimmedUpToDate(BundleIndex.Record bundle, ByteBuffer archive,
+            List<ZipDirectory.Entry> entries, File destination, UnpackTrace trace){
+
+        if(!destination.isFile()){
+            trace.completed(UnpackPhase.VERIFICATION, 0, UnpackEvent.Outcome.SKIPPED);
+            return false;
+        }
+
+        try {
+            boolean upToDate = TrimmedBundle.matches(destination, entries)
+                    && verifyTrimmed(bundle, archive, entries, destination, destination);
+            trace.completed(UnpackPhase.VERIFICATION, 0, UnpackEvent.Outcome.PERFORMED);
+            return upToDate;
+        } catch (IOException e) {
+            LOG.warn(ERROR_MESSAGE.unableToVerifyExistingDestination(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Copies the bundle into a temporary file beside the destination and renames it over the destination.
+     * @param bundle The bundle to copy
+     * @param destination The file to replace
+     * @param trace Receives the phases of the replacement
+     * @param link False to always copy
+     * @throws InstantiationException If the copy or the rename fails
+     */
+    private static void replaceAtomically(BundleIndex.Record bundle, File destination, UnpackTrace trace,
+            boolean link) throws InstantiationException{
+        replaceAtomically(bundle, null, null, destination, trace, link);
+    }
+
+    /**
+     * Writes the whole or a trimmed bundle into a temporary file beside the destination and renames it over the
+     * destination.
+     * @param bundle The bundle to copy
+     * @param archive The whole bundle, or null to copy it as it is
+     * @param entries The entries a trimmed bundle keeps, or null to copy the bundle as it is
+     * @param destination The file to replace
+     * @param trace Receives the phases of the replacement
+     * @param link False to always copy
+     * @throws InstantiationException If the copy or the rename fails
+     */
+    private static void replaceAtomically(BundleIndex.Record bundle, ByteBuffer archive,
+            List<ZipDirectory.Entry> entries, File destination, UnpackTrace trace, boolean link)
+            throws InstantiationException{
+
+        File temporary;
+
+        try {
+            temporary = File.createTempFile(destination.getName() + ".", ".tmp", destination.getParentFile());
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.destinationCannotBeCreated());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+
+        trace.completed(UnpackPhase.FILE_CREATION);
+        boolean replaced = false;
+
+        try {
+            if(entries == null){
+                materialize(bundle, temporary, trace, link);
+            } else{
+                writeTrimmed(archive, entries, temporary, trace);
+            }
+            requireVerified(bundle, archive, entries, temporary, destination, trace);
+
+            try {
+                Files.move(temporary.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                //Still a single rename on every file system we can lock on, just without the guarantee
+                Files.move(temporary.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            replaced = true;
+            getDurability().syncDirectory(destination.getParentFile());
+            trace.completed(UnpackPhase.RENAME);
+
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.unableToReplaceDestination());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        } finally {
+            if(!replaced && temporary.exists() && !temporary.delete()){
+                LOG.warn(ERROR_MESSAGE.unableToDeleteTemporaryFile());
+            }
+        }
+    }
+
+    /**
+     * Writes the bundle to a file, hard linking it to the cached copy of the bundle if {@link #LINK_PROPERTY} asks for
+     * it. A file which cannot be linked is copied from the cached copy, which file systems that support it turn into a
+     * copy-on-write clone; without a cached copy the bundle is copied out of the jar.
+     * @param bundle The bundle to write
+     * @param destination The file to write, which is replaced
+     * @param trace Receives the copy and close phases
+     * @param link False to always copy out of the jar
+     * @throws InstantiationException If the bundle cannot be written
+     */
+    private static void materialize(BundleIndex.Record bundle, File destination, UnpackTrace trace, boolean link)
+            throws InstantiationException{
+        
+        File canonical = link && Boolean.getBoolean(LINK_PROPERTY) ? canonicalCopy(bundle) : null;
+        
+        if(canonical == null){
+            copyBundleToFile(bundle, destination, trace);
+            return;
+        }
+        
+        try {
+            Files.deleteIfExists(destination.toPath());
+            Files.createLink(destination.toPath(), canonical.toPath());
+            trace.completed(UnpackPhase.COPY, 0, UnpackEvent.Outcome.REUSED);
+            trace.completed(UnpackPhase.CLOSE, 0, UnpackEvent.Outcome.SKIPPED);
+            return;
+        } catch (IOException e) {
+            //Typically a destination on another device
+            LOG.debug(ERROR_MESSAGE.linkFailed(), e);
+        } catch (UnsupportedOperationException e) {
+            LOG.debug(ERROR_MESSAGE.linkFailed(), e);
+        }
+        
+        try {
+            Files.copy(canonical.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            trace.completed(UnpackPhase.COPY, canonical.length(), UnpackEvent.Outcome.PERFORMED);
+            getDurability().sync(destination);
+            trace.completed(UnpackPhase.CLOSE);
+            return;
+        } catch (IOException e) {
+            LOG.warn(ERROR_MESSAGE.linkFailed(), e);
+        }
+        
+        copyBundleToFile(bundle, destination, trace);
+    }
+    
+    /**
+     * Writes a trimmed bundle to a file.
+     * @param archive The whole bundle
+     * @param entries The entries the trimmed bundle keeps
+     * @param destination The file to write, which is replaced
+     * @param trace Receives the copy and close phases
+     * @throws InstantiationException If the trimmed bundle cannot be written
+     */
+    private static void writeTrimmed(ByteBuffer archive, List<ZipDirectory.Entry> entries, File destination,
+            UnpackTrace trace) throws InstantiationException{
+        
+        try {
+            FileChannel channel = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                TrimmedBundle.write(archive, entries, channel);
+                trace.completed(UnpackPhase.COPY, channel.position(), UnpackEvent.Outcome.PERFORMED);
+                getDurability().sync(channel);
+            } finally {
+                channel.close();
+            }
+            trace.completed(UnpackPhase.CLOSE);
+            
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+    }
+    
+    /**
+     * Verifies a bundle against the size and digest of the bundle index if {@link #isVerifying()} asks for it.
+     * @param bundle The bundle the file holds
+     * @param file The file to verify
+     * @param destination The destination the file is, or is about to be renamed to
+     * @return True if the file passed or verification is off; false for a bundle the index does not know
+     * @throws IOException If the file cannot be read
+     */
+    private static boolean verifyBundle(BundleIndex.Record bundle, File file, File destination) throws IOException{
+        
+        if(!isVerifying()){
+            return true;
+        }
+        
+        return bundle.isIndexed()
+                && BundleVerifier.verify(bundle.digest(), bundle.size, file, destination, verificationRoot(bundle));
+    }
+    
+    /**
+     * Verifies a trimmed bundle if {@link #isVerifying()} asks for it. The whole bundle it comes from must match the
+     * bundle index, and the file must hold exactly what trimming that bundle gives.
+     * @param bundle The bundle the trimmed bundle comes from
+     * @param archive The whole bundle
+     * @param entries The entries the trimmed bundle keeps
+     * @param file The file to verify
+     * @param destination The destination the file is, or is about to be renamed to
+     * @return True if the file passed or verification is off; false for a bundle the index does not know
+     * @throws IOException If the file cannot be read
+     */
+    private static boolean verifyTrimmed(BundleIndex.Record bundle, ByteBuffer archive,
+            List<ZipDirectory.Entry> entries, File file, File destination) throws IOException{
+        
+        if(!isVerifying()){
+            return true;
+        }
+        
+        if(!bundle.isIndexed() || archive.remaining() != bundle.size
+                || !MessageDigest.isEqual(bundle.digest(), BundleFiles.sha256(archive))){
+            return false;
+        }
+        
+        return BundleVerifier.verify(TrimmedBundle.digest(archive, entries), TrimmedBundle.length(entries), file,
+                destination, verificationRoot(bundle));
+    }
+    
+    /**
+     * Remembers the digest of a freshly unpacked destination for {@link #unpackToIfChanged(File, SWT_VERSION)}, so
+     * its next check of an unchanged destination does not read it again. The destination is hashed while it is still
+     * cached in memory; a verified destination was recorded as it was checked. Failures are only logged, since the
+     * destination is merely hashed on its next check.
+     * @param bundle The bundle the destination holds
+     * @param destination The destination
+     */
+    private static void recordDigest(BundleIndex.Record bundle, File destination){
+        
+        File root = verificationRoot(bundle);
+        if(root == null || !bundle.isIndexed() || isVerifying()){
+            return;
+        }
+        
+        try {
+            BundleVerifier.digest(destination, destination, root);
+        } catch (IOException e) {
+            LOG.debug(ERROR_MESSAGE.unableToRecordVerification(), e);
+        }
+    }
+    
+    /**
+     * Determines where the digests of verified destinations are remembered.
+     * @param bundle The bundle
+     * @return The bundle cache of the bundle's platform, or null if there is none
+     */
+    private static File verificationRoot(BundleIndex.Record bundle){
+        File root = BundleCache.root(bundle.platform);
+        return root != null && root.isAbsolute() ? root : null;
+    }
+    
+    /**
+     * Verifies a freshly written bundle if {@link #isVerifying()} asks for it, removing it if it fails.
+     * @param bundle The bundle the file holds, or a trimmed bundle comes from
+     * @param archive The whole bundle if the file holds a trimmed bundle, or null
+     * @param entries The entries of the trimmed bundle, or null for the whole bundle
+     * @param file The file to verify
+     * @param destination The destination the file is, or is about to be renamed to
+     * @param trace Receives the verification phase
+     * @throws InstantiationException If the file fails or cannot be read
+     */
+    private static void requireVerified(BundleIndex.Record bundle, ByteBuffer archive,
+            List<ZipDirectory.Entry> entries, File file, File destination, UnpackTrace trace)
+            throws InstantiationException{
+        
+        if(!isVerifying()){
+            return;
+        }
+        
+        boolean verified;
+        
+        try {
+            verified = entries == null ? verifyBundle(bundle, file, destination)
+                    : verifyTrimmed(bundle, archive, entries, file, destination);
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(
+                    ERROR_MESSAGE.bundleFailedVerification(file.getPath()));
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+        
+        if(!verified){
+            if(!file.delete()){
+                LOG.warn(ERROR_MESSAGE.unableToDeleteTemporaryFile());
+            }
+            throw createLoggedError(ERROR_MESSAGE.bundleFailedVerification(file.getPath()));
+        }
+        
+        trace.completed(UnpackPhase.VERIFICATION, file.length(), UnpackEvent.Outcome.PERFORMED);
+    }
+    
+    /**
+     * Finds or creates the copy of a bundle in the bundle cache which linked destinations share.
+     * @param bundle The bundle
+     * @return The cached copy, or null if there is no bundle cache to keep it in
+     * @throws InstantiationException If the bundle cannot be unpacked into the cache
+     */
+    private static File canonicalCopy(BundleIndex.Record bundle) throws InstantiationException{
+        
+        File root = BundleCache.root(bundle.platform);
+        
+        if(root == null || !root.isAbsolute()){
+            //Copying out of the jar is the documented fallback, not an error
+            return null;
+        }
+        
+        return unpackToCache(bundle.version).getPath();
+    }
+    
+    /**
+     * Copies the data from the ClassLoader to the file, preferring a channel transfer and falling back to a buffered
+     * stream copy if the channel transfer fails. The copy is checked against the indexed size of the bundle.
+     * @param bundle The bundle to copy
+     * @param destination The file to write the data into
+     * @param trace Receives the copy and close phases
+     * @throws InstantiationException If a non-cleanup related IOException occurs
+     */
+    private static void copyBundleToFile(BundleIndex.Record bundle, File destination, UnpackTrace trace)
+            throws InstantiationException{
+      
+         URL resource = locateBundle(bundle);
+         Durability level = getDurability();
+         
+         try {
+              
+              FileOutputStream destStream = new FileOutputStream(destination);
+              
+              if(bundle.packed){
+                  
+                  //Rebuilt from the pack; the stream fallback below would copy the pack itself
+                  try{
+                      BundlePack.write(bundle, destStream.getChannel());
+                      trace.completed(UnpackPhase.COPY, destStream.getChannel().position(),
+                              UnpackEvent.Outcome.PERFORMED);
+                      level.sync(destStream.getChannel());
+                  } finally{
+                      destStream.close();
+                  }
+                  
+              } else{
+                  
+                  boolean transferred;
+                  
+                  try{
+                      long copied = BundleChannels.copy(resource, destStream.getChannel());
+                      trace.completed(UnpackPhase.COPY, copied, UnpackEvent.Outcome.PERFORMED);
+                      transferred = true;
+                  } catch(IOException e){
+                      //Only a failed transfer falls back; a failed sync or close is reported as it is
+                      LOG.debug(ERROR_MESSAGE.channelCopyFailed(), e);
+                      transferred = false;
+                  }
+                  
+                  if(transferred){
+                      try{
+                          level.sync(destStream.getChannel());
+                      } finally{
+                          destStream.close();
+                      }
+                  } else{
+                      
+                      //Start over with the portable stream copy on a fresh stream, since the failed channel may be
+                      //left in any state
+                      destStream.close();
+                      copyStreamDurably(resource, destination, level, trace);
+                  }
+              }
+              
+              trace.completed(UnpackPhase.CLOSE);
+              
+              if(bundle.size >= 0 && destination.length() != bundle.size){
+                  //Cheap validation against the index, without reading the copy back
+                  throw new IOException("Copied " + destination.length() + " of " + bundle.size + " bytes");
+              }
+              
+         } catch (IOException ex) {
+             
+             //There was an issue with the copy
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
+            exception.initCause(ex);
+            throw exception;//NOPMD
+         }        
+    }
+    
+    /**
+     * Copies a bundle with a plain stream copy, syncing the file before it is closed. A failed sync or close of the
+     * file is reported rather than only logged.
+     * @param resource The bundle
+     * @param destination The file to write, which is replaced
+     * @param level How far the file is synced
+     * @param trace Receives the copy phase
+     * @throws IOException If the bundle cannot be read or the file cannot be written
+     */
+    private static void copyStreamDurably(URL resource, File destination, Durability level, UnpackTrace trace)
+            throws IOException{
+        
+        InputStream in = resource.openStream();
+        try {
+            FileOutputStream out = new FileOutputStream(destination);
+            try {
+                byte[] buf = new byte[8192];
+                for(int readLength = in.read(buf); readLength >= 0; readLength = in.read(buf)){
+                    out.write(buf, 0, readLength);
+                }
+                trace.completed(UnpackPhase.COPY, out.getChannel().position(), UnpackEvent.Outcome.PERFORMED);
+                level.sync(out.getChannel());
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Looks up the shared in-memory image of a bundle, reading and indexing it on first use.
+     * @param bundle The bundle to read
+     * @return The shared image
+     * @throws InstantiationException If the bundle cannot be found or read
+     */
+    private static BundleImage bundleImage(BundleIndex.Record bundle) throws InstantiationException{
+        BundleImage image = BUNDLE_IMAGES.get(bundle.resourcePath);
+        
+        if(image == null){
+            try {
+                image = BundleImage.of(mapBundle(bundle));
+            } catch (IOException e) {
+                InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
+                exception.initCause(e);
+                throw exception;//NOPMD
+            }
+            
+            BundleImage raced = BUNDLE_IMAGES.putIfAbsent(bundle.resourcePath, image);
+            if(raced != null){
+                image = raced;
+            }
+        }
+        return image;
+    }
+    
+    /**
+     * Makes the whole of a bundle available in memory, memory-mapping it where possible.
+     * @param bundle The bundle to read
+     * @return A read-only buffer holding the bundle
+     * @throws InstantiationException If the bundle cannot be found or read
+     */
+    private static ByteBuffer mapBundle(BundleIndex.Record bundle) throws InstantiationException{
+
+        URL resource = locateBundle(bundle);
+
+        try {
+            if(bundle.packed){
+                return BundlePack.rebuild(bundle);
+            }
+            return BundleChannels.map(resource);
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
     }
     
     /**
-     * Buffered copy the source stream to the destination stream, and then attempt to close both streams.
-     * @param sourceStream Input
-     * @param destStream Output
-     * @throws InstantiationException If we are unable to copy the streams
+     * Determines the bundle for the given native library version on the current platform, and makes sure it is on
+     * the classpath.
+     * @param version The version we are attempting to unpack
+     * @return The bundle record, which may carry no size or digest if the bundle was not indexed
+     * @throws InstantiationException If the platform is unsupported or the bundle is not on the classpath
      */
-    private static void copyStream(InputStream sourceStream, OutputStream destStream) throws InstantiationException{
-        try{
-            //Do a buffered read/write between the two streams
-            
-           
-            byte[] buf = new byte[8192];//Buffer
-            
+    private static BundleIndex.Record determineBundle(SWT_VERSION version) throws InstantiationException{
+        return determineBundle(version, UnpackTrace.DISABLED);
+    }
+    
+    /**
+     * Determines the bundle for the given native library version on the current platform, and makes sure it is on
+     * the classpath.
+     * @param version The version we are attempting to unpack
+     * @param trace Receives the platform detection and bundle resolution phases
+     * @return The bundle record, which may carry no size or digest if the bundle was not indexed
+     * @throws InstantiationException If the platform is unsupported or the bundle is not on the classpath
+     */
+    private static BundleIndex.Record determineBundle(SWT_VERSION version, UnpackTrace trace)
+            throws InstantiationException{
+        
+        BundleIndex.Record bundle = indexedBundle(version, trace);
+        
+        //Fail before anything is written to the destination
+        locateBundle(bundle);
+        
+        trace.resolved(bundle.resourcePath);
+        trace.completed(UnpackPhase.BUNDLE_RESOLUTION);
+        return bundle;
+    }
+    
+    /**
+     * Looks up the bundle for the given native library version on the current platform. The build-time index is
+     * consulted first; a bundle missing from the index is located by its conventional path instead. A bundle which is
+     * not on the classpath is rebuilt from the bundle pack, if the pack holds it.
+     * @param version The version we are attempting to unpack
+     * @return The bundle record, which may carry no size or digest if the bundle was not indexed
+     * @throws InstantiationException If the platform is unsupported
+     */
+    private static BundleIndex.Record indexedBundle(SWT_VERSION version) throws InstantiationException{
+        return indexedBundle(version, UnpackTrace.DISABLED);
+    }
+    
+    /**
+     * Looks up the bundle for the given native library version on the current platform, as
+     * {@link #indexedBundle(SWT_VERSION)} does.
+     * @param version The version we are attempting to unpack
+     * @param trace Receives the platform detection phase
+     * @return The bundle record, which may carry no size or digest if the bundle was not indexed
+     * @throws InstantiationException If the platform is unsupported
+     */
+    private static BundleIndex.Record indexedBundle(SWT_VERSION version, UnpackTrace trace)
+            throws InstantiationException{
+        
+        boolean detected = currentPlatform != null && currentArch != null;
+        SWT_PLATFORM platform = getCurrentPlatform();
+        SWT_PLATFORM_ARCH arch = getCurrentArch();
+        trace.completed(UnpackPhase.PLATFORM_DETECTION, 0,
+                detected ? UnpackEvent.Outcome.REUSED : UnpackEvent.Outcome.PERFORMED);
+        
+        return resolveBundle(version, platform, arch);
+    }
+    
+    /**
+     * Looks up the bundle for the given native library version, platform and architecture, as
+     * {@link #indexedBundle(SWT_VERSION)} does for the current platform.
+     * @param version The SWT version
+     * @param platform The OS platform
+     * @param arch The processor architecture
+     * @return The bundle record, which may carry no size or digest if the bundle was not indexed
+     */
+    private static BundleIndex.Record resolveBundle(SWT_VERSION version, SWT_PLATFORM platform,
+            SWT_PLATFORM_ARCH arch){
+        
+        BundleIndex.Record bundle = BundleIndex.get(version, platform, arch);
+        
+        if(bundle == null){
+            //Not indexed, e.g. when running from an IDE build which skipped the index generation
+            bundle = BundleIndex.unindexed(version, platform, arch,
+                    nativeLibrariesPackageLocation() + "/" + constructRelativePackageLocation(platform, arch, version));
+        }
+        
+        if(findBundle(bundle) == null){
+            //The packed artifact ships the bundles deduplicated in a single pack instead
+            BundleIndex.Record packed = BundlePack.get(bundle);
             
-            while (true) {//Copy until finished
+            if(packed != null){
+                bundle = packed;
+            }
+        }
+        
+        return bundle;
+    }
+    
+    /**
+     * Finds a bundle on the classpath.
+     * @param bundle The bundle to find
+     * @return The location of the bundle
+     * @throws InstantiationException If the bundle is not on the classpath
+     */
+    private static URL locateBundle(BundleIndex.Record bundle) throws InstantiationException{
+        
+        URL resource = findBundle(bundle);
+        
+        if(resource == null){
+            //Only the complete artifact carries every bundle
+            throw createLoggedError(ERROR_MESSAGE.bundleNotPresent(displayVersion(bundle.version),
+                    bundle.platform.toString(), bundle.arch.toString(),
+                    classifierOf(bundle.version, bundle.platform, bundle.arch)));
+        }
+        
+        return resource;
+    }
+    
+    /**
+     * Finds a bundle in the current bundle source.
+     * @param bundle The bundle to find
+     * @return The location of the bundle, or null if the source does not have it
+     */
+    private static URL findBundle(BundleIndex.Record bundle){
+        
+        if(bundle.packed){
+            return BundlePack.location();
+        }
+        
+        return getBundleSource().locate(BundleTarget.of(bundle.version, bundle.platform, bundle.arch),
+                bundle.resourcePath);
+    }
+    
+    /**
+     * Looks up the bundle of a target.
+     * @param target The bundle to look up
+     * @return The bundle record, which may carry no size or digest if the bundle was not indexed
+     * @throws InstantiationException If we are given a null target
+     */
+    private static BundleIndex.Record targetBundle(BundleTarget target) throws InstantiationException{
 
-                int readLength = sourceStream.read(buf);
+        if(target == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
 
-                if (readLength < 0){
-                   break; 
-                }
+        return resolveBundle(target.getVersion(), target.getPlatform(), target.getArch());
+    }
 
-                destStream.write(buf, 0, readLength);
+    /**
+     * Unpacks one target of a batch.
+     * @param target The bundle to unpack
+     * @param directory The output directory
+     * @param layout Decides where in the output directory the bundle is written
+     * @param features The features a trimmed bundle keeps, or null to write the whole bundle
+     * @return The unpacked bundle
+     * @throws InstantiationException If the bundle cannot be found or written
+     */
+    private static UnpackedBundle unpackTarget(BundleTarget target, File directory, BundleLayout layout,
+            Set<SWTFeature> features) throws InstantiationException{
+        
+        String path = layout.pathOf(target);
+        File destination = path == null ? null : new File(directory, path);
+        
+        try {
+            if(destination == null || new File(path).isAbsolute()
+                    || !destination.getCanonicalPath().startsWith(directory.getCanonicalPath() + File.separator)){
+                throw createLoggedError(ERROR_MESSAGE.layoutPathOutsideDirectory(String.valueOf(path)));
             }
-        } catch (IOException e){
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.destinationCannotBeCreated());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+        
+        UnpackTrace trace = UnpackTrace.start(target.getVersion(), destination);
+        File parent = destination.getParentFile();
+        
+        if(!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()){
+            //Another target may have created it in the meantime
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeCreated());
+        }
+        
+        trace.completed(UnpackPhase.DESTINATION_VALIDATION);
+        
+        BundleIndex.Record bundle = targetBundle(target);
+        locateBundle(bundle);
+        trace.resolved(bundle.resourcePath);
+        trace.completed(UnpackPhase.BUNDLE_RESOLUTION);
+        
+        if(features == null){
+            //The bundle cache only holds bundles of the current platform, so there is nothing to link to
+            replaceAtomically(bundle, destination, trace, false);
+        } else{
+            //Mapped rather than shared, as a batch may hold the bundles of every platform
+            ByteBuffer archive = mapBundle(bundle);
             
-            //There was an issue with the copy
+            try {
+                replaceAtomically(bundle, archive, TrimmedBundle.entries(ZipDirectory.read(archive), features),
+                        destination, trace, false);
+            } catch (IOException e) {
+                InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
+                exception.initCause(e);
+                throw exception;//NOPMD
+            }
+        }
+        
+        return new UnpackedBundle(destination, target.getVersion(), target.getPlatform(), target.getArch(),
+                destination.length());
+    }
+    
+    /**
+     * Extracts native libraries of the specified SWT library version into a directory.
+     * @param directory The absolute path to the directory to extract into, which is created if needed
+     * @param version The SWT version we are trying to load
+     * @param features The features whose libraries are extracted
+     * @param core Whether the core libraries are extracted as well
+     * @return The directory holding the native libraries
+     * @throws InstantiationException If we are given an invalid value or we unable to complete the extraction
+     */
+    private static File extractNatives(File directory, SWT_VERSION version, Set<SWTFeature> features, boolean core)
+            throws InstantiationException{
+
+        if(directory == null || version == null){
+            //Input sanity check
+            throw createLoggedError(ERROR_MESSAGE.libraryCalledWithNullArgument());
+        }
+
+        if(!directory.isAbsolute()){
+            //Same requirement as unpackTo
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+        }
+
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeCreated());
+        }
+
+        //Shared with the class loaders and later feature extractions, so the bundle is only indexed once
+        BundleImage image = bundleImage(determineBundle(version));
+        List<ZipDirectory.Entry> natives = new ArrayList<ZipDirectory.Entry>();
+
+        for(ZipDirectory.Entry entry : NativeExtractor.nativeLibraries(image.directory())){
+            SWTFeature feature = SWTFeature.of(entry.name);
+            if(feature == null ? core : features.contains(feature)){
+                natives.add(entry);
+            }
+        }
+
+        try {
+            //A single library is extracted on this thread alone
+            NativeExtractor.extractAll(image.archive(), natives, directory, UnpackExecutor.shared());
+
+        } catch (IOException e) {
             InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
             exception.initCause(e);
             throw exception;//NOPMD
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.interruptedWhileUnpacking());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+
+        for(SWTFeature feature : features){
+            UNPACKED_FEATURES.add(featureKey(directory, version, feature));
+        }
+
+        return directory;
+    }
+
+    /**
+     * Chooses the fastest viable location and creates the per-user directory of a version in it. The per-user
+     * directory is only used while it is private to the current user, see {@link NativesPlacement#createPrivate(File)}.
+     * @param version The SWT version
+     * @param fallback The absolute path to the caller's default location, or null
+     * @param requiredBytes The room needed
+     * @return The directory to write into
+     * @throws InstantiationException If we are given an invalid value, no location is viable, or the directory cannot
+     * be created or is not private
+     */
+    private static File placedDirectory(SWT_VERSION version, File fallback, long requiredBytes)
+            throws InstantiationException{
+
+        if(fallback != null){
+            if(!fallback.isAbsolute()){
+                //Same requirement as unpackTo
+                throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+            }
+
+            if(!fallback.isDirectory() && !fallback.mkdirs() && !fallback.isDirectory()){
+                throw createLoggedError(ERROR_MESSAGE.destinationCannotBeCreated());
+            }
+        }
+
+        List<File> candidates = NativesPlacement.candidates(fallback);
+        File root = BundleCache.root(getCurrentPlatform());
+        File chosen = NativesPlacement.choose(candidates, requiredBytes,
+                root != null && root.isAbsolute() ? root : null);
+
+        if(chosen == null){
+            throw createLoggedError(ERROR_MESSAGE.noViablePlacement(candidates.toString()));
+        }
+
+        File userDirectory = new File(chosen, PLACED_DIRECTORY_PREFIX + System.getProperty("user.name"));
+        File directory = new File(userDirectory, currentTarget(version).getClassifier());
+
+        try {
+            if(!NativesPlacement.createPrivate(userDirectory)){
+                throw createLoggedError(ERROR_MESSAGE.placedDirectoryNotPrivate(userDirectory.getPath()));
+            }
+        } catch (IOException e) {
+            InstantiationException exception = createLoggedError(ERROR_MESSAGE.destinationCannotBeCreated());
+            exception.initCause(e);
+            throw exception;//NOPMD
+        }
+
+        if(!directory.isDirectory() && !directory.mkdir() && !directory.isDirectory()){
+            //Another thread or process may have created it in the meantime
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeCreated());
+        }
+
+        return directory;
+    }
+
+    /**
+     * Forms the key under which an extracted feature is remembered.
+     * @param directory The directory the feature was extracted into
+     * @param version The SWT version
+     * @param feature The feature
+     * @return The key
+     */
+    private static String featureKey(File directory, SWT_VERSION version, SWTFeature feature){
+        return directory.getAbsolutePath() + "|" + version + "|" + feature;
+    }
+
+    /**
+     * Determines the directory of the per-user bundle cache.
+     * @return The absolute path of the cache directory, which may not exist yet
+     * @throws InstantiationException If there is no known location or the configured one is relative
+     */
+    private static File cacheRoot() throws InstantiationException{
+        
+        File root = BundleCache.root(getCurrentPlatform());
+        
+        if(root == null){
+            throw createLoggedError(ERROR_MESSAGE.cacheDirectoryUnavailable());
+        }
+        
+        if(!root.isAbsolute()){
+            //Same requirement as unpackTo
+            throw createLoggedError(ERROR_MESSAGE.destinationCannotBeRelativePath());
+        }
+        
+        return root;
+    }
+    
+    /**
+     * Formats a version the way SWT does.
+     * @param version The SWT version
+     * @return The dotted version number, such as <code>4.2.1</code>
+     */
+    private static String displayVersion(SWT_VERSION version){
+        return version.name().substring(1).replace('_', '.');
+    }
+    
+    /**
+     * Determines the operating system.
+     * @return The current OS platform of the JVM instance
+     * @throws InstantiationException If the platform information is invalid or unavailable.
+     */
+    private static SWT_PLATFORM getCurrentPlatform() throws InstantiationException{
+        SWT_PLATFORM platform = currentPlatform;
+        
+        if(platform != null){
+            //Detected by an earlier call
+            return platform;
+        }
+        
+        String osName = System.getProperty(OS_NAME_PROPERTY);
+        
+        if(osName == null ){
+            //Sanity check
+            throw createLoggedError(ERROR_MESSAGE.operatingSystemUnsupported());
+        }
+        
+        osName = osName.toLowerCase(Locale.ENGLISH);
+        
+        if (osName.contains("win") ){
+                
+                //Windows
+                platform = SWT_PLATFORM.windows;
+                
+        } else if (osName.contains("mac") ){
+                
+                //Macintosh
+                platform = SWT_PLATFORM.macosx;
+                
+        } else if (osName.contains("nix") || osName.contains("nux") || osName.contains("aix") ){
+                
+                //Linux
+                platform = SWT_PLATFORM.linux;
+                
+        } else {
+                //Unhandled Case
+                throw createLoggedError(ERROR_MESSAGE.operatingSystemUnsupported());
+        }
+        
+        currentPlatform = platform;
+        return platform;
+    }
+    
+    /**
+     * Determines the processor architecture
+     * @return The current processor architecture
+     * @throws InstantiationException If the arch information is invalid or unavailable.
+     */
+    private static SWT_PLATFORM_ARCH getCurrentArch() throws InstantiationException{
+        SWT_PLATFORM_ARCH arch = currentArch;
+        
+        if(arch != null){
+            //Detected by an earlier call
+            return arch;
+        }
+        
+        String osArch = System.getProperty(OS_ARCH_PROPERTY);
+        
+        if(osArch == null ){
+            //Sanity check
+            throw createLoggedError(ERROR_MESSAGE.processorArchitectureUnsupported());
+        }
+        
+        if(osArch.contains("64") ){
             
-        } finally{
-            //Cleanup our io resources
-            
-            boolean bothClosedSuccessfully = true;
+            //64 bit JVM
+            arch = SWT_PLATFORM_ARCH.x64;
             
-            try{
-                if(sourceStream != null){
-                    sourceStream.close();
-                }
-            } catch(IOException e){
-                //We had a problem while closing the source stream resource
-                bothClosedSuccessfully = false;
-            }
+        } else if (osArch.contains("86") ){
             
-            try{
-                if(destStream != null){
-                    destStream.close();
-                }
-            } catch(IOException e){                
-                //We had a problem while closing the destination stream resource
-                bothClosedSuccessfully = false;
-            }       
+            //32 bit JVM
+            arch = SWT_PLATFORM_ARCH.x86;
             
-            if(!bothClosedSuccessfully){                
-                LOG.warn(ERROR_MESSAGE.unableToCloseStream());
-            }
+        } else{            
+            //Unhandled Case
+            throw createLoggedError(ERROR_MESSAGE.processorArchitectureUnsupported());
+        }
+        
+        currentArch = arch;
+        return arch;
+    }
             
+    /**
+     * Forms the path of the SWT libraries to unpack based upon the given information about this system.
+     * @param platform The OS platform
+     * @param arch The processor architecture
+     * @param version The desired SWT version
+     * @return A ClassLoader path for the SWT library the given information requires
+     */
+    private static String constructRelativePackageLocation(SWT_PLATFORM platform, SWT_PLATFORM_ARCH arch, SWT_VERSION version){
+                
+        final String relativePath = version.toString() + "/" +  platform.toString() + "/" + arch.toString() + "/" + "swt.jar";
+        //Hardcoded slash literals acceptable for package references
+        
+        return relativePath;
+    }
+    
+    /**
+     * The path to the base package containing all native libraries organized by platform, version and architecture.
+     * @return A package descriptor string 
+     */
+    private static String nativeLibrariesPackageLocation(){
+        return NativeLibrariesLocation.class.getPackage().getName().replace(".", "/");
+    }
+    
+    /**
+     * Starts the prefetch requested through {@link #PREFETCH_VERSION_PROPERTY} and
+     * {@link #PREFETCH_DESTINATION_PROPERTY}, if any. Problems are logged rather than thrown, since class
+     * initialization must not fail.
+     */
+    private static void prefetchFromSystemProperties(){
+        String version = System.getProperty(PREFETCH_VERSION_PROPERTY);
+        String destination = System.getProperty(PREFETCH_DESTINATION_PROPERTY);
+        
+        if(version == null || destination == null){
+            //No prefetch requested
+            return;
+        }
+        
+        try {
+            prefetch(new File(destination), SWT_VERSION.valueOf(version));
+        } catch (InstantiationException e) {
+            //Already logged, the application's own unpack will report it again
+        } catch (IllegalArgumentException e) {
+            LOG.warn(ERROR_MESSAGE.invalidPrefetchVersion(), e);
         }
     }
+    
+    /**
+     * Recovers the InstantiationException thrown by an unpack that ran on another thread.
+     * @param cause The failure thrown by the unpack
+     * @return The failure as an InstantiationException
+     */
+    private static InstantiationException asInstantiationException(Throwable cause){
+        if(cause instanceof InstantiationException){
+            return (InstantiationException) cause;
+        }
         
+        InstantiationException exception = createLoggedError(ERROR_MESSAGE.cannotUnpackSWTLibraries());
+        exception.initCause(cause);
+        return exception;
+    }
+    
     /**
      * Creates and logs an exception with a given error message.
      * @param errorMessageName The localized error message
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The manifest of a directory of bundles staged at build time, e.g. by the Maven plugin, in the
+ * {@link StandardBundleLayout#BY_VERSION} layout.
+ * <br>
+ * The manifest is a properties file recording, for each staged bundle under its classifier, the bundle's path
+ * relative to the directory, its size, its modification time and its SHA-256 digest. A staged bundle is trusted as
+ * long as its size and modification time are unchanged; only when the modification time differs, e.g. because an
+ * installer did not preserve it, is the bundle read to compare its digest.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class StagedManifest {
+
+    /**
+     * Key of the manifest format version
+     */
+    private static final String FORMAT_KEY = "format";
+
+    /**
+     * The version of the manifest format written by this class
+     */
+    private static final String FORMAT_VERSION = "1";
+
+    /**
+     * Key suffix of a bundle's relative path
+     */
+    private static final String PATH_SUFFIX = ".path";
+
+    /**
+     * Key suffix of a bundle's size
+     */
+    private static final String SIZE_SUFFIX = ".size";
+
+    /**
+     * Key suffix of a bundle's modification time
+     */
+    private static final String MODIFIED_SUFFIX = ".modified";
+
+    /**
+     * Key suffix of a bundle's SHA-256 digest
+     */
+    private static final String SHA256_SUFFIX = ".sha256";
+
+    /**
+     * The staging directory
+     */
+    private final File directory;
+
+    /**
+     * The manifest entries
+     */
+    private final Properties entries;
+
+    /**
+     * Creates a manifest.
+     * @param directory The staging directory
+     * @param entries The manifest entries
+     */
+    private StagedManifest(File directory, Properties entries) {
+        this.directory = directory;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the manifest of a staging directory.
+     * @param directory The staging directory
+     * @return The manifest, or null if the directory has none or one of an unknown format
+     * @throws IOException If the manifest cannot be read
+     */
+    static StagedManifest read(File directory) throws IOException {
+        File file = new File(directory, SWTNatives.STAGED_MANIFEST_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties entries = load(file);
+        return FORMAT_VERSION.equals(entries.getProperty(FORMAT_KEY)) ? new StagedManifest(directory, entries) : null;
+    }
+
+    /**
+     * Records bundles in the manifest of a staging directory, keeping the entries of bundles staged earlier. The
+     * manifest is replaced atomically, so a reader never sees it half written.
+     * @param directory The staging directory
+     * @param bundles The bundles staged into the directory
+     * @throws IOException If a bundle or the manifest cannot be read, or the manifest cannot be written
+     */
+    static void record(File directory, Map<BundleTarget, UnpackedBundle> bundles) throws IOException {
+        File file = new File(directory, SWTNatives.STAGED_MANIFEST_NAME);
+        Properties entries = file.isFile() ? load(file) : new Properties();
+        entries.setProperty(FORMAT_KEY, FORMAT_VERSION);
+
+        String base = directory.getCanonicalPath() + File.separator;
+        for (Map.Entry<BundleTarget, UnpackedBundle> bundle : bundles.entrySet()) {
+            String classifier = bundle.getKey().getClassifier();
+            File path = bundle.getValue().getPath();
+            String relative = path.getCanonicalPath().substring(base.length()).replace(File.separatorChar, '/');
+
+            entries.setProperty(classifier + PATH_SUFFIX, relative);
+            entries.setProperty(classifier + SIZE_SUFFIX, Long.toString(path.length()));
+            entries.setProperty(classifier + MODIFIED_SUFFIX, Long.toString(path.lastModified()));
+            entries.setProperty(classifier + SHA256_SUFFIX, BundleIndex.toHex(BundleFiles.sha256(path)));
+        }
+
+        File temporary = File.createTempFile(SWTNatives.STAGED_MANIFEST_NAME + ".", ".tmp", directory);
+        boolean moved = false;
+
+        try {
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                entries.store(out, "Bundles staged for swt-natives-handler");
+            } finally {
+                out.close();
+            }
+
+            try {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temporary.toPath());
+            }
+        }
+    }
+
+    /**
+     * Returns the staged bundle of a target, if it is unchanged since it was staged.
+     * @param target The bundle
+     * @return The staged bundle, or null if the manifest has no entry for the target or the bundle was changed
+     * @throws IOException If the bundle cannot be read
+     */
+    File verified(BundleTarget target) throws IOException {
+        String classifier = target.getClassifier();
+        String path = entries.getProperty(classifier + PATH_SUFFIX);
+        String sha256 = entries.getProperty(classifier + SHA256_SUFFIX);
+        if (path == null || sha256 == null) {
+            return null;
+        }
+
+        File file = new File(directory, path);
+        long length = file.length();
+        if (length == 0 || !Long.toString(length).equals(entries.getProperty(classifier + SIZE_SUFFIX))) {
+            return null;
+        }
+
+        if (Long.toString(file.lastModified()).equals(entries.getProperty(classifier + MODIFIED_SUFFIX))) {
+            //Untouched since it was staged
+            return file;
+        }
+
+        return sha256.equals(BundleIndex.toHex(BundleFiles.sha256(file))) ? file : null;
+    }
+
+    /**
+     * Loads a manifest file.
+     * @param file The manifest file
+     * @return Its entries
+     * @throws IOException If it cannot be read
+     */
+    private static Properties load(File file) throws IOException {
+        Properties entries = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            entries.load(in);
+        } finally {
+            in.close();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+/**
+ * The built-in layouts of batch unpacked bundles.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public enum StandardBundleLayout implements BundleLayout {
+
+    /**
+     * One directory per bundle named after its classifier, e.g. <code>linux-x64-4.2.1/swt.jar</code>
+     */
+    BY_CLASSIFIER {
+        @Override
+        public String pathOf(BundleTarget target){
+            return target.getClassifier() + "/" + BUNDLE_NAME;
+        }
+    },
+
+    /**
+     * The layout of the bundles inside this library's jar, e.g. <code>_4_2_1/linux/x64/swt.jar</code>
+     */
+    BY_VERSION {
+        @Override
+        public String pathOf(BundleTarget target){
+            return target.getVersion() + "/" + target.getPlatform() + "/" + target.getArch() + "/" + BUNDLE_NAME;
+        }
+    };
+
+    /**
+     * File name of every bundle
+     */
+    private static final String BUNDLE_NAME = "swt.jar";
+}
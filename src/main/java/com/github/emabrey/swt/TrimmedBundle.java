@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.natives.RawZipWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a bundle holding only the core of SWT and the chosen features, leaving out the classes and native libraries
+ * of every other {@link SWTFeature}.
+ * <br>
+ * The kept entries are copied in their original order with their compressed data as it is, so nothing is inflated or
+ * deflated again and the same bundle and features always give the same bytes. The size of the result is known before
+ * it is written, which lets an earlier trimmed bundle be recognised from its size and central directory alone.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class TrimmedBundle {
+
+    /**
+     * Fixed length of a local file header, excluding the name, as written by {@link RawZipWriter}
+     */
+    private static final int LOCAL_LENGTH = 30;
+
+    /**
+     * Fixed length of a central directory file header, excluding the name, as written by {@link RawZipWriter}
+     */
+    private static final int CENTRAL_LENGTH = 46;
+
+    /**
+     * Fixed length of the end of central directory record
+     */
+    private static final int END_LENGTH = 22;
+
+    /**
+     * Entry names are written as UTF-8
+     */
+    private static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private TrimmedBundle(){
+        //Do nothing
+    }
+
+    /**
+     * Selects the entries of a bundle which a trimmed bundle keeps.
+     * @param directory The bundle's central directory
+     * @param features The features kept along with the core
+     * @return The kept entries, in central directory order
+     */
+    static List<ZipDirectory.Entry> entries(ZipDirectory directory, Set<SWTFeature> features){
+        List<ZipDirectory.Entry> kept = new ArrayList<ZipDirectory.Entry>();
+        for(ZipDirectory.Entry entry : directory.entries()){
+            SWTFeature feature = SWTFeature.ofEntry(entry.name);
+            if(feature == null || features.contains(feature)){
+                kept.add(entry);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Computes the size of the trimmed bundle holding the given entries.
+     * @param entries The kept entries
+     * @return The size in bytes
+     */
+    static long length(List<ZipDirectory.Entry> entries){
+        long length = END_LENGTH;
+        for(ZipDirectory.Entry entry : entries){
+            int nameLength = entry.name.getBytes(NAME_CHARSET).length;
+            length += LOCAL_LENGTH + CENTRAL_LENGTH + 2 * nameLength + entry.compressedSize;
+        }
+        return length;
+    }
+
+    /**
+     * Writes a trimmed bundle.
+     * @param archive The whole bundle the entries come from
+     * @param entries The kept entries
+     * @param out Where the trimmed bundle is written; it is not closed
+     * @throws IOException If the bundle is invalid or the trimmed bundle cannot be written
+     */
+    static void write(ByteBuffer archive, List<ZipDirectory.Entry> entries, WritableByteChannel out)
+            throws IOException{
+        RawZipWriter writer = new RawZipWriter(out);
+        for(ZipDirectory.Entry entry : entries){
+            int offset = ZipDirectory.dataOffset(archive, entry);
+            ByteBuffer data = archive.duplicate();
+            data.position(offset).limit(offset + (int) entry.compressedSize);
+            writer.add(entry.name, entry.dosTime, entry.method, entry.crc, entry.size, data.slice());
+        }
+        writer.finish();
+    }
+
+    /**
+     * Computes the SHA-256 digest of a trimmed bundle without writing it anywhere.
+     * @param archive The whole bundle the entries come from
+     * @param entries The kept entries
+     * @return The digest of the bytes {@link #write(ByteBuffer, List, WritableByteChannel)} writes
+     * @throws IOException If the bundle is invalid
+     */
+    static byte[] digest(ByteBuffer archive, List<ZipDirectory.Entry> entries) throws IOException{
+        final MessageDigest digest = BundleFiles.newSha256();
+
+        write(archive, entries, new WritableByteChannel(){
+            @Override
+            public int write(ByteBuffer src){
+                int length = src.remaining();
+                digest.update(src);
+                return length;
+            }
+
+            @Override
+            public boolean isOpen(){
+                return true;
+            }
+
+            @Override
+            public void close(){
+                //Nothing to release
+            }
+        });
+        return digest.digest();
+    }
+
+    /**
+     * Checks whether a file already holds the trimmed bundle of the given entries.
+     * @param file The file to check
+     * @param entries The kept entries
+     * @return True if the file has the expected size and its central directory lists the same entries
+     * @throws IOException If the file cannot be read
+     */
+    static boolean matches(File file, List<ZipDirectory.Entry> entries) throws IOException{
+
+        if(!file.isFile() || file.length() != length(entries)){
+            return false;
+        }
+
+        ZipDirectory directory;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            directory = ZipDirectory.read(channel);
+        } catch (ZipException e){
+            return false;
+        } finally {
+            channel.close();
+        }
+
+        if(directory.entries().size() != entries.size()){
+            return false;
+        }
+
+        Iterator<ZipDirectory.Entry> expected = entries.iterator();
+        for(ZipDirectory.Entry entry : directory.entries()){
+            ZipDirectory.Entry other = expected.next();
+            if(!entry.name.equals(other.name) || entry.crc != other.crc || entry.size != other.size
+                    || entry.compressedSize != other.compressedSize || entry.method != other.method){
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+/**
+ * Receives the outcome of an asynchronous unpack.
+ * <br>
+ * Exactly one of the methods is called, on the thread which ran the unpack, or on the thread which cancelled it.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public interface UnpackCallback {
+
+    /**
+     * Called once the library has been unpacked, or found to be up to date.
+     * @param bundle The unpacked library
+     */
+    void unpacked(UnpackedBundle bundle);
+
+    /**
+     * Called if the library could not be unpacked, including when the unpack was cancelled.
+     * @param failure The reason the unpack failed, caused by a
+     * {@link java.util.concurrent.CancellationException CancellationException} if it was cancelled
+     */
+    void failed(InstantiationException failure);
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * De-duplicates concurrent unpacks within this JVM and remembers the ones that completed.
+ * <br>
+ * The first caller for a key runs the unpack on its own thread; every other caller for that key waits on the same
+ * task and receives the same {@link UnpackedBundle}. Failed unpacks are forgotten so a later call can retry, and a
+ * remembered bundle whose file has since disappeared is unpacked again.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class UnpackCoordinator {
+
+    /**
+     * In-flight and completed unpacks by key
+     */
+    private static final ConcurrentMap<String, FutureTask<UnpackedBundle>> UNPACKS =
+            new ConcurrentHashMap<String, FutureTask<UnpackedBundle>>();
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private UnpackCoordinator() {
+        //Do nothing
+    }
+
+    /**
+     * Runs an unpack unless one for the same key is already running or has already completed.
+     * @param key Identifies the destination and version being unpacked
+     * @param unpack The unpack to run if this caller is the first for the key
+     * @return The shared bundle handle for the key
+     * @throws InstantiationException If the unpack failed
+     * @throws InterruptedException If this thread was interrupted while waiting on another caller's unpack
+     */
+    static UnpackedBundle unpack(String key, Callable<UnpackedBundle> unpack)
+            throws InstantiationException, InterruptedException {
+
+        while (true) {
+            FutureTask<UnpackedBundle> task = UNPACKS.get(key);
+
+            if (task == null) {
+                FutureTask<UnpackedBundle> created = new FutureTask<UnpackedBundle>(unpack);
+                task = UNPACKS.putIfAbsent(key, created);
+                if (task == null) {
+                    task = created;
+                    created.run();
+                }
+            }
+
+            UnpackedBundle bundle;
+            try {
+                bundle = task.get();
+            } catch (ExecutionException e) {
+                UNPACKS.remove(key, task);
+                throw unwrap(e);
+            }
+
+            if (bundle.getPath().isFile()) {
+                return bundle;
+            }
+
+            //Deleted behind our back, forget it and unpack again
+            UNPACKS.remove(key, task);
+        }
+    }
+
+    /**
+     * Recovers the exception thrown by an unpack.
+     * @param e The wrapped failure
+     * @return The unpack's own exception
+     */
+    private static InstantiationException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+
+        if (cause instanceof InstantiationException) {
+            return (InstantiationException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+
+        InstantiationException exception = new InstantiationException(String.valueOf(cause));
+        exception.initCause(cause);
+        return exception;
+    }
+}
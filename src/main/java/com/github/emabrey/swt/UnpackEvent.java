@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.io.File;
+
+/**
+ * An immutable report of one completed phase of an unpack.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public final class UnpackEvent {
+
+    /**
+     * What became of the work of a phase.
+     */
+    public enum Outcome {
+
+        /**
+         * The work was done
+         */
+        PERFORMED,
+
+        /**
+         * The work was unnecessary, e.g. the copy of a destination which was already up to date
+         */
+        SKIPPED,
+
+        /**
+         * The result of earlier work was used instead, e.g. a platform detected by an earlier unpack, a destination
+         * written by another process while this one waited for the lock, or a destination hard linked to the cached
+         * copy of the bundle
+         */
+        REUSED;
+    }
+
+    /**
+     * The completed phase
+     */
+    private final UnpackPhase phase;
+
+    /**
+     * What became of the phase's work
+     */
+    private final Outcome outcome;
+
+    /**
+     * The SWT version being unpacked
+     */
+    private final SWT_VERSION version;
+
+    /**
+     * The destination of the unpack
+     */
+    private final File destination;
+
+    /**
+     * The ClassLoader path of the bundle, null until it is resolved
+     */
+    private final String resourcePath;
+
+    /**
+     * How long the phase took
+     */
+    private final long durationNanos;
+
+    /**
+     * The number of bytes the phase transferred
+     */
+    private final long bytes;
+
+    /**
+     * Creates an event.
+     * @param phase The completed phase
+     * @param outcome What became of the phase's work
+     * @param version The SWT version being unpacked
+     * @param destination The destination of the unpack
+     * @param resourcePath The ClassLoader path of the bundle, or null if not yet resolved
+     * @param durationNanos How long the phase took
+     * @param bytes The number of bytes the phase transferred
+     */
+    UnpackEvent(UnpackPhase phase, Outcome outcome, SWT_VERSION version, File destination, String resourcePath,
+            long durationNanos, long bytes) {
+        this.phase = phase;
+        this.outcome = outcome;
+        this.version = version;
+        this.destination = destination;
+        this.resourcePath = resourcePath;
+        this.durationNanos = durationNanos;
+        this.bytes = bytes;
+    }
+
+    /**
+     * The completed phase.
+     * @return The phase
+     */
+    public UnpackPhase getPhase() {
+        return phase;
+    }
+
+    /**
+     * What became of the phase's work.
+     * @return The outcome
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * The SWT version being unpacked.
+     * @return The SWT version
+     */
+    public SWT_VERSION getVersion() {
+        return version;
+    }
+
+    /**
+     * The destination of the unpack.
+     * @return The destination as given to the unpack method
+     */
+    public File getDestination() {
+        return destination;
+    }
+
+    /**
+     * The ClassLoader path of the bundle being unpacked.
+     * @return The path, or null for phases completed before the bundle was resolved
+     */
+    public String getResourcePath() {
+        return resourcePath;
+    }
+
+    /**
+     * How long the phase took.
+     * @return The duration in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * The number of bytes the phase transferred.
+     * @return The byte count, zero for phases which transfer nothing
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "UnpackEvent[" + phase + " " + outcome + ", " + version + ", " + durationNanos + " ns, " + bytes
+                + " bytes, " + resourcePath + " -> " + destination + "]";
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executor this library runs asynchronous unpacks on when the caller does not supply one.
+ * <br>
+ * It is created on first use, its threads are daemons so it never keeps the JVM alive, and idle threads exit after a
+ * few seconds, so an application that only unpacks once at startup is left with no threads at all.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class UnpackExecutor {
+
+    /**
+     * How long an idle thread waits for more work before exiting
+     */
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    /**
+     * Deliberately no-op private constructor for static Class
+     */
+    private UnpackExecutor() {
+        //Do nothing
+    }
+
+    /**
+     * Lazily created shared executor.
+     */
+    private static final class Holder {
+
+        /**
+         * The shared executor
+         */
+        static final ExecutorService EXECUTOR = create();
+
+        /**
+         * Creates the shared executor.
+         * @return A bounded executor of daemon threads
+         */
+        private static ExecutorService create() {
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    /**
+     * Names the threads of the shared executor and makes them daemons.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        /**
+         * Numbers the created threads
+         */
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "swt-natives-unpack-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * The shared executor.
+     * @return The executor, created on first call
+     */
+    static ExecutorService shared() {
+        return Holder.EXECUTOR;
+    }
+}
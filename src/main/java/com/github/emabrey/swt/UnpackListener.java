@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+/**
+ * Observes the phases of every unpack, e.g. to attribute application startup time.
+ * <br>
+ * Listeners are registered with {@link SWTNatives#addUnpackListener(UnpackListener)} and called synchronously, on
+ * the thread doing the unpack, as each phase completes. They should return quickly; an exception thrown by a listener
+ * is logged and otherwise ignored.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public interface UnpackListener {
+
+    /**
+     * Called when a phase of an unpack has completed.
+     * @param event What was done and how long it took
+     */
+    void phaseCompleted(UnpackEvent event);
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+/**
+ * The phases of an unpack reported to an {@link UnpackListener}.
+ * <br>
+ * Not every unpack goes through every phase; only the methods which lock or rename report those phases, and an
+ * unpack which finds its destination up to date stops after verifying it. The order depends on the unpack method,
+ * e.g. unpackTo creates its destination before it resolves the bundle.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public enum UnpackPhase {
+
+    /**
+     * Checking the destination argument, and that it does not already exist where that is required
+     */
+    DESTINATION_VALIDATION,
+
+    /**
+     * Detecting the OS platform and processor architecture, reused after the first detection
+     */
+    PLATFORM_DETECTION,
+
+    /**
+     * Finding the bundle in the index and on the classpath
+     */
+    BUNDLE_RESOLUTION,
+
+    /**
+     * Comparing an existing destination with the bundle
+     */
+    VERIFICATION,
+
+    /**
+     * Waiting for the lock which guards the destination against concurrent unpacks
+     */
+    LOCK,
+
+    /**
+     * Creating the file the bundle is written to
+     */
+    FILE_CREATION,
+
+    /**
+     * Copying the bundle's bytes
+     */
+    COPY,
+
+    /**
+     * Closing the written file
+     */
+    CLOSE,
+
+    /**
+     * Moving the written file over the destination
+     */
+    RENAME;
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import com.github.emabrey.swt.localization.ErrorMessage;
+import com.github.emabrey.swt.localization.ErrorMessages;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Times the phases of a single unpack and reports them to the registered {@link UnpackListener}s.
+ * <br>
+ * A phase lasts from the end of the previous one, or from {@link #begin()}, until it is reported. While no listener is
+ * registered and no Flight Recorder recording takes the unpack events, every unpack shares {@link #DISABLED}, which
+ * does not even read the clock.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class UnpackTrace {
+
+    /**
+     * The SLF4J Logger instance for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(UnpackTrace.class);
+
+    /**
+     * The localized error messages
+     */
+    private static final ErrorMessage ERROR_MESSAGE = ErrorMessages.get();
+
+    /**
+     * Name of the listener which turns phases into Java Flight Recorder events
+     */
+    private static final String FLIGHT_RECORDER_LISTENER = "com.github.emabrey.swt.FlightRecorderUnpackListener";
+
+    /**
+     * The registered listeners
+     */
+    private static final List<UnpackListener> LISTENERS = new CopyOnWriteArrayList<UnpackListener>();
+
+    /**
+     * The trace of unpacks nobody listens to
+     */
+    static final UnpackTrace DISABLED = new UnpackTrace(null, null);
+
+    /**
+     * The listener emitting Flight Recorder events, or null where this runtime cannot record them
+     */
+    private static final ConditionalListener FLIGHT_RECORDER = flightRecorder();
+
+    /**
+     * A listener which only wants events while something outside this library consumes them.
+     */
+    interface ConditionalListener extends UnpackListener {
+
+        /**
+         * Checks whether events are wanted, before an unpack is traced.
+         * @return True if events are consumed right now
+         */
+        boolean isEnabled();
+    }
+
+    /**
+     * The SWT version being unpacked
+     */
+    private final SWT_VERSION version;
+
+    /**
+     * The destination of the unpack
+     */
+    private final File destination;
+
+    /**
+     * The ClassLoader path of the bundle once resolved
+     */
+    private String resourcePath;
+
+    /**
+     * When the current phase started
+     */
+    private long mark;
+
+    /**
+     * Creates a trace.
+     * @param version The SWT version being unpacked
+     * @param destination The destination of the unpack
+     */
+    private UnpackTrace(SWT_VERSION version, File destination) {
+        this.version = version;
+        this.destination = destination;
+    }
+
+    /**
+     * Starts tracing an unpack; its first phase starts now.
+     * @param version The SWT version being unpacked
+     * @param destination The destination of the unpack
+     * @return A new trace, or {@link #DISABLED} if there are no listeners
+     */
+    static UnpackTrace start(SWT_VERSION version, File destination) {
+        if (LISTENERS.isEmpty() && (FLIGHT_RECORDER == null || !FLIGHT_RECORDER.isEnabled())) {
+            return DISABLED;
+        }
+
+        UnpackTrace trace = new UnpackTrace(version, destination);
+        trace.mark = System.nanoTime();
+        return trace;
+    }
+
+    /**
+     * Registers a listener.
+     * @param listener The listener to add
+     */
+    static void addListener(UnpackListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Unregisters a listener.
+     * @param listener The listener to remove
+     */
+    static void removeListener(UnpackListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Starts the next phase now, leaving the time since the last report unaccounted for.
+     */
+    void begin() {
+        if (this != DISABLED) {
+            mark = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records the resolved bundle, which is reported with every later phase.
+     * @param path The ClassLoader path of the bundle
+     */
+    void resolved(String path) {
+        if (this != DISABLED) {
+            resourcePath = path;
+        }
+    }
+
+    /**
+     * Reports a phase which did its work and transferred nothing.
+     * @param phase The completed phase
+     */
+    void completed(UnpackPhase phase) {
+        completed(phase, 0, UnpackEvent.Outcome.PERFORMED);
+    }
+
+    /**
+     * Reports a phase, which ends now.
+     * @param phase The completed phase
+     * @param bytes The number of bytes the phase transferred
+     * @param outcome What became of the phase's work
+     */
+    void completed(UnpackPhase phase, long bytes, UnpackEvent.Outcome outcome) {
+        if (this == DISABLED) {
+            return;
+        }
+
+        UnpackEvent event = new UnpackEvent(phase, outcome, version, destination, resourcePath,
+                System.nanoTime() - mark, bytes);
+
+        for (UnpackListener listener : LISTENERS) {
+            notify(listener, event);
+        }
+        if (FLIGHT_RECORDER != null) {
+            notify(FLIGHT_RECORDER, event);
+        }
+
+        //Time spent in the listeners is not charged to the next phase
+        mark = System.nanoTime();
+    }
+
+    /**
+     * Passes an event to a listener, which must not break the unpack.
+     * @param listener The listener
+     * @param event The completed phase
+     */
+    private static void notify(UnpackListener listener, UnpackEvent event) {
+        try {
+            listener.phaseCompleted(event);
+        } catch (RuntimeException e) {
+            LOG.warn(ERROR_MESSAGE.unpackListenerFailed(), e);
+        }
+    }
+
+    /**
+     * Creates the listener emitting Flight Recorder events, if this runtime provides them.
+     * @return The listener, or null without <code>jdk.jfr</code>
+     */
+    private static ConditionalListener flightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event", false, UnpackTrace.class.getClassLoader());
+            return (ConditionalListener) Class.forName(FLIGHT_RECORDER_LISTENER, true,
+                    UnpackTrace.class.getClassLoader()).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            //Java 10 or older, no events
+            return null;
+        } catch (LinkageError e) {
+            //The jdk.jfr module is not in this runtime image
+            return null;
+        }
+    }
+}
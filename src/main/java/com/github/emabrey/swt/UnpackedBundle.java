@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.io.File;
+
+/**
+ * An immutable description of an SWT library that has been unpacked to the file system.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public final class UnpackedBundle {
+
+    /**
+     * The unpacked library
+     */
+    private final File path;
+
+    /**
+     * The SWT version of the library
+     */
+    private final SWT_VERSION version;
+
+    /**
+     * The operating system the library was built for
+     */
+    private final SWT_PLATFORM platform;
+
+    /**
+     * The processor architecture the library was built for
+     */
+    private final SWT_PLATFORM_ARCH arch;
+
+    /**
+     * The size of the library in bytes
+     */
+    private final long size;
+
+    /**
+     * Creates a bundle description.
+     * @param path The unpacked library
+     * @param version The SWT version of the library
+     * @param platform The operating system the library was built for
+     * @param arch The processor architecture the library was built for
+     * @param size The size of the library in bytes
+     */
+    UnpackedBundle(File path, SWT_VERSION version, SWT_PLATFORM platform, SWT_PLATFORM_ARCH arch, long size) {
+        this.path = path;
+        this.version = version;
+        this.platform = platform;
+        this.arch = arch;
+        this.size = size;
+    }
+
+    /**
+     * The unpacked library.
+     * @return The absolute path of the library
+     */
+    public File getPath() {
+        return path;
+    }
+
+    /**
+     * The SWT version of the library.
+     * @return The SWT version
+     */
+    public SWT_VERSION getVersion() {
+        return version;
+    }
+
+    /**
+     * The operating system the library was built for.
+     * @return The OS platform
+     */
+    public SWT_PLATFORM getPlatform() {
+        return platform;
+    }
+
+    /**
+     * The processor architecture the library was built for.
+     * @return The processor architecture
+     */
+    public SWT_PLATFORM_ARCH getArch() {
+        return arch;
+    }
+
+    /**
+     * The size of the library.
+     * @return The size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof UnpackedBundle)) {
+            return false;
+        }
+        UnpackedBundle other = (UnpackedBundle) obj;
+        return path.equals(other.path) && version == other.version && platform == other.platform
+                && arch == other.arch && size == other.size;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = path.hashCode();
+        hash = 31 * hash + version.hashCode();
+        hash = 31 * hash + platform.hashCode();
+        hash = 31 * hash + arch.hashCode();
+        return 31 * hash + (int) (size ^ (size >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "UnpackedBundle[" + version + "/" + platform + "/" + arch + ", " + size + " bytes, " + path + "]";
+    }
+}
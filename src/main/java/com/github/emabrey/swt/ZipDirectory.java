@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal reader for the central directory of a zip archive.
+ * <br>
+ * Unlike {@link java.util.zip.ZipFile} this exposes where each entry's data starts within the archive, which lets
+ * stored entries be transferred or sliced directly instead of being streamed through an inflater. Zip64 archives are
+ * not supported; every bundle is far below the limits that would require it.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+final class ZipDirectory {
+
+    /**
+     * Signature of the end of central directory record
+     */
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    /**
+     * Signature of a central directory file header
+     */
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+    /**
+     * Signature of a local file header
+     */
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    /**
+     * Fixed length of the end of central directory record, excluding the comment
+     */
+    private static final int END_LENGTH = 22;
+
+    /**
+     * Fixed length of a central directory file header, excluding the variable fields
+     */
+    private static final int CENTRAL_LENGTH = 46;
+
+    /**
+     * Fixed length of a local file header, excluding the variable fields
+     */
+    private static final int LOCAL_LENGTH = 30;
+
+    /**
+     * The longest possible archive comment
+     */
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+    /**
+     * Marker value meaning the real value lives in a zip64 extra field
+     */
+    private static final long ZIP64_MARKER = 0xffffffffL;
+
+    /**
+     * Entry names are read as UTF-8, which covers the ASCII names used by every bundle
+     */
+    private static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * A single central directory entry.
+     */
+    static final class Entry {
+
+        /**
+         * The entry name
+         */
+        final String name;
+
+        /**
+         * The compression method, one of {@link java.util.zip.ZipEntry#STORED} or {@link java.util.zip.ZipEntry#DEFLATED}
+         */
+        final int method;
+
+        /**
+         * The modification time in MS-DOS format
+         */
+        final int dosTime;
+
+        /**
+         * The CRC-32 of the uncompressed data
+         */
+        final long crc;
+
+        /**
+         * The size of the data as stored in the archive
+         */
+        final long compressedSize;
+
+        /**
+         * The size of the data once uncompressed
+         */
+        final long size;
+
+        /**
+         * The offset of the entry's local file header within the archive
+         */
+        final long headerOffset;
+
+        /**
+         * Creates an entry.
+         * @param name The entry name
+         * @param method The compression method
+         * @param dosTime The modification time in MS-DOS format
+         * @param crc The CRC-32 of the uncompressed data
+         * @param compressedSize The stored size
+         * @param size The uncompressed size
+         * @param headerOffset The local file header offset
+         */
+        Entry(String name, int method, int dosTime, long crc, long compressedSize, long size, long headerOffset) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+        }
+
+        /**
+         * Whether this entry names a directory rather than a file.
+         * @return True for directory entries
+         */
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    /**
+     * The entries, in central directory order
+     */
+    private final Map<String, Entry> entries;
+
+    /**
+     * Creates a directory over already parsed entries.
+     * @param entries The entries by name
+     */
+    private ZipDirectory(Map<String, Entry> entries) {
+        this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Looks up an entry by name.
+     * @param name The entry name
+     * @return The entry, or null if the archive has no such entry
+     */
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * All entries of the archive.
+     * @return The entries in central directory order
+     */
+    Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * Reads the central directory of an archive file.
+     * @param channel The archive
+     * @return The parsed directory
+     * @throws IOException If the archive cannot be read or is not a supported zip archive
+     */
+    static ZipDirectory read(FileChannel channel) throws IOException {
+        long archiveSize = channel.size();
+        int tailLength = (int) Math.min(archiveSize, END_LENGTH + MAX_COMMENT_LENGTH);
+        ByteBuffer tail = readFully(channel, archiveSize - tailLength, tailLength);
+
+        int end = findEnd(tail);
+        long directorySize = tail.getInt(end + 12) & ZIP64_MARKER;
+        long directoryOffset = tail.getInt(end + 16) & ZIP64_MARKER;
+
+        if (directoryOffset + directorySize > archiveSize) {
+            throw new ZipException("Central directory lies outside of the archive");
+        }
+
+        return parse(readFully(channel, directoryOffset, (int) directorySize));
+    }
+
+    /**
+     * Reads the central directory of an archive held in memory.
+     * @param archive The whole archive, from position zero to its limit
+     * @return The parsed directory
+     * @throws IOException If the buffer does not hold a supported zip archive
+     */
+    static ZipDirectory read(ByteBuffer archive) throws IOException {
+        ByteBuffer whole = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int end = findEnd(whole);
+        int directorySize = whole.getInt(end + 12);
+        int directoryOffset = whole.getInt(end + 16);
+
+        if (directoryOffset < 0 || directorySize < 0 || directoryOffset + directorySize > whole.limit()) {
+            throw new ZipException("Central directory lies outside of the archive");
+        }
+
+        whole.position(directoryOffset).limit(directoryOffset + directorySize);
+        return parse(whole.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Determines where an entry's data starts within an archive file.
+     * @param channel The archive
+     * @param entry An entry of that archive
+     * @return The absolute offset of the entry's first data byte
+     * @throws IOException If the local file header cannot be read
+     */
+    static long dataOffset(FileChannel channel, Entry entry) throws IOException {
+        ByteBuffer header = readFully(channel, entry.headerOffset, LOCAL_LENGTH);
+        return entry.headerOffset + localHeaderLength(header, 0);
+    }
+
+    /**
+     * Determines where an entry's data starts within an archive held in memory.
+     * @param archive The whole archive
+     * @param entry An entry of that archive
+     * @return The absolute offset of the entry's first data byte
+     * @throws IOException If the local file header is invalid
+     */
+    static int dataOffset(ByteBuffer archive, Entry entry) throws IOException {
+        int headerOffset = (int) entry.headerOffset;
+        return headerOffset + localHeaderLength(archive.duplicate().order(ByteOrder.LITTLE_ENDIAN), headerOffset);
+    }
+
+    /**
+     * Computes the full length of a local file header.
+     * @param buffer A little endian buffer holding the header
+     * @param offset The start of the header within the buffer
+     * @return The header length including the name and extra field
+     * @throws IOException If the header signature is wrong
+     */
+    private static int localHeaderLength(ByteBuffer buffer, int offset) throws IOException {
+        if (buffer.getInt(offset) != LOCAL_SIGNATURE) {
+            throw new ZipException("Invalid local file header");
+        }
+        return LOCAL_LENGTH + (buffer.getShort(offset + 26) & 0xffff) + (buffer.getShort(offset + 28) & 0xffff);
+    }
+
+    /**
+     * Finds the end of central directory record by scanning backwards over a possible archive comment.
+     * @param tail A little endian buffer ending with the end of the archive
+     * @return The index of the record within the buffer
+     * @throws IOException If there is no such record
+     */
+    private static int findEnd(ByteBuffer tail) throws IOException {
+        for (int i = tail.limit() - END_LENGTH; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                return i;
+            }
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    /**
+     * Parses the central directory records.
+     * @param directory A little endian buffer holding exactly the central directory
+     * @return The parsed directory
+     * @throws IOException If a record is malformed or needs zip64 support
+     */
+    private static ZipDirectory parse(ByteBuffer directory) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        int position = 0;
+
+        while (position + CENTRAL_LENGTH <= directory.limit()) {
+
+            if (directory.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new ZipException("Invalid central directory header");
+            }
+
+            int method = directory.getShort(position + 10) & 0xffff;
+            int dosTime = directory.getInt(position + 12);
+            long crc = directory.getInt(position + 16) & ZIP64_MARKER;
+            long compressedSize = directory.getInt(position + 20) & ZIP64_MARKER;
+            long size = directory.getInt(position + 24) & ZIP64_MARKER;
+            int nameLength = directory.getShort(position + 28) & 0xffff;
+            int extraLength = directory.getShort(position + 30) & 0xffff;
+            int commentLength = directory.getShort(position + 32) & 0xffff;
+            long headerOffset = directory.getInt(position + 42) & ZIP64_MARKER;
+
+            if (compressedSize == ZIP64_MARKER || size == ZIP64_MARKER || headerOffset == ZIP64_MARKER) {
+                throw new ZipException("Zip64 archives are not supported");
+            }
+
+            byte[] name = new byte[nameLength];
+            ByteBuffer nameView = directory.duplicate();
+            nameView.position(position + CENTRAL_LENGTH);
+            nameView.get(name);
+
+            Entry entry = new Entry(new String(name, NAME_CHARSET), method, dosTime, crc, compressedSize, size,
+                    headerOffset);
+            entries.put(entry.name, entry);
+
+            position += CENTRAL_LENGTH + nameLength + extraLength + commentLength;
+        }
+
+        return new ZipDirectory(entries);
+    }
+
+    /**
+     * Reads an exact region of a file.
+     * @param channel The file
+     * @param position Where the region starts
+     * @param length The region length
+     * @return A little endian buffer holding the region
+     * @throws IOException If the file ends before the region does
+     */
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
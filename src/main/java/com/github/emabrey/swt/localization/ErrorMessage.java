@@ -26,6 +26,9 @@ import c10n.annotations.En;
  * <ul>
  * <li>En</li>
  * </ul>
+ * The implementation, <code>ErrorMessages</code>, is generated from the annotations at compile time by
+ * {@link MessageBundleProcessor}, so c10n is not needed at runtime.
+ * <br>
  * @author Emily Mabrey emilymabrey93@gmail.com
  */
 public interface ErrorMessage {
@@ -50,6 +53,13 @@ public interface ErrorMessage {
    */ 
   @En("Unable to copy IO streams")
   String unableToCopyStreams();  
+
+  /**
+   * The localized error message for the channel based copy failing and the stream based copy being used instead.
+   * @return The localized error message
+   */
+  @En("Channel transfer of the SWT libraries failed, falling back to a stream copy")
+  String channelCopyFailed();
   
   /**
    * The localized error message for the destination file being referenced by a relative path.
@@ -78,7 +88,237 @@ public interface ErrorMessage {
    */ 
   @En("Forced unpack was unable to force the overwrite of the destination")
   String cannotForceOverwriteOfExistingDestination();
-  
+
+  /**
+   * The localized error message for being unable to compare an existing destination against the bundle manifest.
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to verify the existing destination, it will be unpacked again")
+  String unableToVerifyExistingDestination();
+
+  /**
+   * The localized error message for being unable to take the lock which guards the destination.
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to lock the destination against concurrent unpacking")
+  String unableToLockDestination();
+
+  /**
+   * The localized error message for being unable to move the unpacked library over the destination.
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to replace the destination with the unpacked library")
+  String unableToReplaceDestination();
+
+  /**
+   * The localized error message for being unable to clean up a temporary file.
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to delete a temporary file")
+  String unableToDeleteTemporaryFile();
+
+  /**
+   * The localized error message for being interrupted while waiting on an unpack.
+   * @return The localized error message
+   */
+  @En("SWTBundle was interrupted while waiting for the SWT libraries to be unpacked")
+  String interruptedWhileUnpacking();
+
+  /**
+   * The localized error message for an asynchronous unpack being cancelled before it completed.
+   * @return The localized error message
+   */
+  @En("SWTBundle did not unpack the SWT libraries, the unpack was cancelled")
+  String unpackCancelled();
+
+  /**
+   * The localized error message for an executor refusing to run an asynchronous unpack.
+   * @return The localized error message
+   */
+  @En("SWTBundle could not start unpacking the SWT libraries, the executor rejected the unpack")
+  String unpackRejected();
+
+  /**
+   * The localized error message for the prefetch system property naming an unknown SWT version.
+   * @return The localized error message
+   */
+  @En("SWTBundle was asked to prefetch an unknown SWT version, the prefetch was skipped")
+  String invalidPrefetchVersion();
+
+  /**
+   * The localized error message for an unpack listener throwing an exception.
+   * @return The localized error message
+   */
+  @En("An unpack listener failed, the unpack continues regardless")
+  String unpackListenerFailed();
+
+  /**
+   * The localized error message for the bundle of the current platform not being on the classpath.
+   * @param version The SWT version
+   * @param platform The OS platform
+   * @param arch The processor architecture
+   * @param classifier The classifier of the artifact which carries the bundle
+   * @return The localized error message
+   */
+  @En("SWTBundle could not find the SWT {0} libraries for {1} {2} on the classpath. Add the artifact with classifier {3}, or the complete artifact")
+  String bundleNotPresent(String version, String platform, String arch, String classifier);
+
+  /**
+   * The localized error message for there being no known location for the bundle cache.
+   * @return The localized error message
+   */
+  @En("SWTBundle could not determine a cache directory, set the swt.natives.cache.directory system property")
+  String cacheDirectoryUnavailable();
+
+  /**
+   * The localized error message for a bundle cache system property holding an invalid number.
+   * @param property The name of the system property
+   * @return The localized error message
+   */
+  @En("SWTBundle ignored the invalid value of the {0} system property and used the default")
+  String invalidCacheSetting(String property);
+
+  /**
+   * The localized error message for a problem while evicting bundles from the cache.
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to sweep part of the bundle cache, it will be retried by a later sweep")
+  String unableToSweepCache();
+
+  /**
+   * The localized error message for a destination which could not be linked to the cached copy of the bundle.
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to link the destination to the cached SWT libraries, copying them instead")
+  String linkFailed();
+
+  /**
+   * The localized error message for a batch unpack layout placing a bundle outside the output directory.
+   * @param path The path the layout returned
+   * @return The localized error message
+   */
+  @En("SWTBundle was given a bundle layout path outside the output directory: {0}")
+  String layoutPathOutsideDirectory(String path);
+
+  /**
+   * The localized error message for a buffer too small to hold the bundle.
+   * @param size The size of the bundle in bytes
+   * @param remaining The space left in the buffer in bytes
+   * @return The localized error message
+   */
+  @En("SWTBundle was given a buffer with {1} bytes remaining for a bundle of {0} bytes")
+  String bundleDoesNotFit(long size, long remaining);
+
+  /**
+   * The localized error message for the bundle archive named by a system property being unreadable.
+   * @param archive The path of the archive
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to read the bundle archive {0}, bundles are looked up on the class path instead")
+  String unreadableBundleArchive(String archive);
+
+  /**
+   * The localized error message for being unable to write the manifest of a staging directory.
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to write the manifest of the staged bundles")
+  String unableToWriteStagedManifest();
+
+  /**
+   * The localized error message for a bundle missing from a staging directory, or changed since it was staged.
+   * @param classifier The classifier of the bundle
+   * @param directory The staging directory
+   * @return The localized error message
+   */
+  @En("SWTBundle found no unchanged staged bundle {0} in {1}")
+  String bundleNotStaged(String classifier, String directory);
+
+  /**
+   * The localized error message for looking up a staged bundle while the staging directory system property is unset.
+   * @param property The name of the system property
+   * @return The localized error message
+   */
+  @En("SWTBundle cannot find staged bundles because the {0} system property is not set")
+  String stagedDirectoryNotSet(String property);
+
+  /**
+   * The localized error message for being unable to sync a directory after writing a file into it.
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to sync the destination directory, the new directory entry may not survive a crash")
+  String unableToSyncDirectory();
+
+  /**
+   * The localized error message for a bundle whose entries or signatures do not check out.
+   * @param bundle The path of the bundle, or of the offending entry
+   * @return The localized error message
+   */
+  @En("SWTBundle found a corrupt or tampered SWT library: {0}")
+  String bundleFailedVerification(String bundle);
+
+  /**
+   * The localized error message for being unable to remember that a bundle was verified.
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to record the verification of the SWT libraries, they will be checked again")
+  String unableToRecordVerification();
+
+  /**
+   * The localized error message for none of the candidate locations being fit to hold native libraries.
+   * @param candidates The candidate locations
+   * @return The localized error message
+   */
+  @En("SWTBundle found no writable location allowing native libraries to be loaded among {0}")
+  String noViablePlacement(String candidates);
+
+  /**
+   * The localized error message for a candidate location failing the write probe.
+   * @param candidate The candidate location
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to write to {0}, it is not used for native libraries")
+  String placementProbeFailed(String candidate);
+
+  /**
+   * The localized error message for being unable to remember the chosen location of native libraries.
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to record the chosen location of the native libraries, it will be probed again")
+  String unableToRecordPlacement();
+
+  /**
+   * The localized error message for a per-user directory of native libraries which another user could have tampered with.
+   * @param directory The directory
+   * @return The localized error message
+   */
+  @En("SWTBundle refused to use {0} for native libraries, it is a link, belongs to another user or is writable by others")
+  String placedDirectoryNotPrivate(String directory);
+
+  /**
+   * The localized error message for a failed training run or dump of a class data sharing archive.
+   * @param log The file holding the output of the failed run
+   * @return The localized error message
+   */
+  @En("SWTBundle was unable to create the class data sharing archive of the SWT library, see {0}")
+  String unableToCreateSharedArchive(String log);
+
+  /**
+   * The localized error message for a JVM which cannot dump class data sharing archives of application classes.
+   * @param version The Java specification version of the JVM
+   * @return The localized error message
+   */
+  @En("SWTBundle cannot create class data sharing archives on Java {0}, which needs Java 11 or later")
+  String sharedArchiveUnsupported(String version);
+
+  /**
+   * The localized error message for the durability system property naming no known level.
+   * @param property The name of the system property
+   * @param value The value of the system property
+   * @return The localized error message
+   */
+  @En("SWTBundle ignored the unknown durability {1} named by the {0} system property, which must be none, data or full, and used none")
+  String invalidDurability(String property, String value);
+
   /**
    * The localized error message for the destination file being read-only.
    * @return The localized error message 
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt.localization;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Build-time annotation processor which turns a message interface into a plain class.
+ * <br>
+ * For every interface whose methods carry the c10n locale annotations (<code>@En</code>, <code>@De</code>, ...) it
+ * generates a final class named after the interface with an <code>s</code> appended, e.g. <code>ErrorMessages</code>
+ * for {@link ErrorMessage}. The generated class implements the interface by formatting the annotated text with
+ * {@link java.text.MessageFormat}, as c10n does, but needs neither c10n nor reflection at runtime. The texts of the
+ * default Locale are picked on the first message, falling back to English, so merely holding an instance costs
+ * nothing.
+ * <br>
+ * The Maven build compiles this class on its own first and names it as the processor of the main compilation; it is
+ * deliberately not registered as a service, so it never runs in the builds of projects using this library.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+@SupportedAnnotationTypes("c10n.annotations.*")
+public final class MessageBundleProcessor extends AbstractProcessor {
+
+    /**
+     * The package of the c10n locale annotations
+     */
+    private static final String ANNOTATION_PACKAGE = "c10n.annotations";
+
+    /**
+     * The language whose texts are used when the default Locale has none
+     */
+    private static final String FALLBACK_LANGUAGE = "en";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+
+        Set<TypeElement> interfaces = new LinkedHashSet<TypeElement>();
+
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                Element enclosing = element.getEnclosingElement();
+                if (element.getKind() == ElementKind.METHOD && enclosing.getKind() == ElementKind.INTERFACE) {
+                    interfaces.add((TypeElement) enclosing);
+                }
+            }
+        }
+
+        for (TypeElement type : interfaces) {
+            generate(type);
+        }
+
+        return false;
+    }
+
+    /**
+     * Generates the implementation of a message interface.
+     * @param type The message interface
+     */
+    private void generate(TypeElement type) {
+
+        List<ExecutableElement> methods = ElementFilter.methodsIn(type.getEnclosedElements());
+        Map<String, String[]> texts = new LinkedHashMap<String, String[]>();
+
+        for (int i = 0; i < methods.size(); i++) {
+            ExecutableElement method = methods.get(i);
+
+            if (!"java.lang.String".equals(method.getReturnType().toString())) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Messages must return String",
+                        method);
+                return;
+            }
+
+            for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+                TypeElement annotation = (TypeElement) mirror.getAnnotationType().asElement();
+                if (!ANNOTATION_PACKAGE.equals(packageOf(annotation))) {
+                    continue;
+                }
+
+                String language = annotation.getSimpleName().toString().toLowerCase();
+                String[] languageTexts = texts.get(language);
+                if (languageTexts == null) {
+                    languageTexts = new String[methods.size()];
+                    texts.put(language, languageTexts);
+                }
+                languageTexts[i] = valueOf(mirror);
+            }
+        }
+
+        if (texts.isEmpty()) {
+            return;
+        }
+
+        String fallback = texts.containsKey(FALLBACK_LANGUAGE) ? FALLBACK_LANGUAGE : texts.keySet().iterator().next();
+
+        for (int i = 0; i < methods.size(); i++) {
+            if (texts.get(fallback)[i] == null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Messages need a text for the fallback language " + fallback, methods.get(i));
+                return;
+            }
+        }
+
+        String packageName = packageOf(type);
+        String interfaceName = type.getSimpleName().toString();
+        String className = interfaceName + "s";
+
+        try {
+            PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(
+                    packageName + "." + className, type).openWriter());
+            try {
+                write(out, packageName, interfaceName, className, methods, texts, fallback);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to generate " + className + ": " + e.getMessage(), type);
+        }
+    }
+
+    /**
+     * Writes the source of the implementation.
+     * @param out The source file
+     * @param packageName The package of the interface
+     * @param interfaceName The simple name of the interface
+     * @param className The simple name of the implementation
+     * @param methods The methods of the interface
+     * @param texts The texts of each language, indexed like the methods
+     * @param fallback The language used when the default Locale has no texts
+     */
+    private static void write(PrintWriter out, String packageName, String interfaceName, String className,
+            List<ExecutableElement> methods, Map<String, String[]> texts, String fallback) {
+
+        out.println("package " + packageName + ";");
+        out.println();
+        out.println("import java.text.MessageFormat;");
+        out.println("import java.util.Locale;");
+        out.println();
+        out.println("/**");
+        out.println(" * The {@link " + interfaceName + "} texts, generated from its locale annotations by "
+                + MessageBundleProcessor.class.getSimpleName() + ".");
+        out.println(" */");
+        out.println("public final class " + className + " implements " + interfaceName + " {");
+        out.println();
+        out.println("    private static final " + interfaceName + " INSTANCE = new " + className + "();");
+        out.println();
+        out.println("    private " + className + "() {");
+        out.println("        //Do nothing");
+        out.println("    }");
+        out.println();
+        out.println("    /**");
+        out.println("     * Returns the messages; the texts of the default Locale are picked on the first message.");
+        out.println("     * @return The messages");
+        out.println("     */");
+        out.println("    public static " + interfaceName + " get() {");
+        out.println("        return INSTANCE;");
+        out.println("    }");
+        out.println();
+        out.println("    private static String format(int message, Object... arguments) {");
+        out.println("        return MessageFormat.format(Texts.SELECTED[message], arguments);");
+        out.println("    }");
+
+        for (int i = 0; i < methods.size(); i++) {
+            ExecutableElement method = methods.get(i);
+            StringBuilder parameters = new StringBuilder();
+            StringBuilder arguments = new StringBuilder();
+            for (VariableElement parameter : method.getParameters()) {
+                if (parameters.length() > 0) {
+                    parameters.append(", ");
+                }
+                parameters.append(parameter.asType()).append(' ').append(parameter.getSimpleName());
+                arguments.append(", ").append(parameter.getSimpleName());
+            }
+
+            out.println();
+            out.println("    @Override");
+            out.println("    public String " + method.getSimpleName() + "(" + parameters + ") {");
+            out.println("        return format(" + i + arguments + ");");
+            out.println("    }");
+        }
+
+        out.println();
+        out.println("    private static final class Texts {");
+        for (Map.Entry<String, String[]> language : texts.entrySet()) {
+            out.println();
+            out.println("        private static final String[] " + language.getKey().toUpperCase() + " = {");
+            String[] languageTexts = language.getValue();
+            for (int i = 0; i < languageTexts.length; i++) {
+                String text = languageTexts[i] == null ? texts.get(fallback)[i] : languageTexts[i];
+                out.println("            " + quote(text) + (i + 1 < languageTexts.length ? "," : ""));
+            }
+            out.println("        };");
+        }
+        out.println();
+        out.println("        private static final String[] SELECTED = select(Locale.getDefault().getLanguage());");
+        out.println();
+        out.println("        private static String[] select(String language) {");
+        for (String language : texts.keySet()) {
+            if (!language.equals(fallback)) {
+                out.println("            if (\"" + language + "\".equals(language)) {");
+                out.println("                return " + language.toUpperCase() + ";");
+                out.println("            }");
+            }
+        }
+        out.println("            return " + fallback.toUpperCase() + ";");
+        out.println("        }");
+        out.println("    }");
+        out.println("}");
+    }
+
+    /**
+     * Quotes a text as a Java string literal.
+     * @param text The text
+     * @return The literal
+     */
+    private static String quote(String text) {
+        StringBuilder literal = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    literal.append('\\').append(c);
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                case '\t':
+                    literal.append("\\t");
+                    break;
+                default:
+                    if (c < ' ' || c > '~') {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    /**
+     * Returns the text of a locale annotation.
+     * @param mirror The annotation
+     * @return Its value
+     */
+    private static String valueOf(AnnotationMirror mirror) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+                : mirror.getElementValues().entrySet()) {
+            if ("value".equals(value.getKey().getSimpleName().toString())) {
+                return String.valueOf(value.getValue().getValue());
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Returns the package a type is declared in.
+     * @param type The type
+     * @return The qualified package name
+     */
+    private static String packageOf(TypeElement type) {
+        Element element = type;
+        while (!(element instanceof PackageElement)) {
+            element = element.getEnclosingElement();
+        }
+        return ((PackageElement) element).getQualifiedName().toString();
+    }
+}
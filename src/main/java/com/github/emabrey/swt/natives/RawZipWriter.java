@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt.natives;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip archive from entries whose data is already compressed.
+ * <br>
+ * Both the bundle pack and the bundles rebuilt from it are written by this class, so the build and the runtime
+ * produce byte-identical archives. Headers carry no extra fields or comments, and entries are written in the order
+ * they are added. Zip64 is not supported, which no bundle needs.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public final class RawZipWriter {
+
+    /**
+     * Signature of a local file header
+     */
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    /**
+     * Signature of a central directory file header
+     */
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+    /**
+     * Signature of the end of central directory record
+     */
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    /**
+     * Fixed length of a local file header, excluding the name
+     */
+    private static final int LOCAL_LENGTH = 30;
+
+    /**
+     * Fixed length of a central directory file header, excluding the name
+     */
+    private static final int CENTRAL_LENGTH = 46;
+
+    /**
+     * Fixed length of the end of central directory record
+     */
+    private static final int END_LENGTH = 22;
+
+    /**
+     * General purpose flag marking entry names as UTF-8
+     */
+    private static final short UTF8_FLAG = 0x0800;
+
+    /**
+     * Entry names are written as UTF-8
+     */
+    private static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Size of the staging buffer, which turns the many small headers into few large writes
+     */
+    private static final int STAGING_SIZE = 64 * 1024;
+
+    /**
+     * Where the archive is written
+     */
+    private final WritableByteChannel out;
+
+    /**
+     * Collects writes until they are large enough to be worth a system call
+     */
+    private final ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The central directory, grown as entries are added
+     */
+    private ByteBuffer central = ByteBuffer.allocate(STAGING_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The number of entries written
+     */
+    private int count;
+
+    /**
+     * The number of bytes written so far, which is the offset of the next local header
+     */
+    private long offset;
+
+    /**
+     * Creates a writer.
+     * @param out Where the archive is written; it is not closed by this writer
+     */
+    public RawZipWriter(WritableByteChannel out){
+        this.out = out;
+    }
+
+    /**
+     * Adds an entry.
+     * @param name The entry name
+     * @param dosTime The modification time in MS-DOS format
+     * @param method {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param crc The CRC-32 of the uncompressed data
+     * @param size The size of the uncompressed data
+     * @param data The data as stored, i.e. raw deflate data for deflated entries; only its remaining bytes are used
+     * @throws IOException If the archive cannot be written
+     */
+    public void add(String name, int dosTime, int method, long crc, long size, ByteBuffer data) throws IOException{
+        add(name.getBytes(NAME_CHARSET), dosTime, method, crc, size, data);
+    }
+
+    /**
+     * Adds an entry whose name is already encoded, which spares callers that write the same entries repeatedly the
+     * encoding.
+     * @param nameBytes The entry name as UTF-8
+     * @param dosTime The modification time in MS-DOS format
+     * @param method {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param crc The CRC-32 of the uncompressed data
+     * @param size The size of the uncompressed data
+     * @param data The data as stored, i.e. raw deflate data for deflated entries; only its remaining bytes are used
+     * @throws IOException If the archive cannot be written
+     */
+    public void add(byte[] nameBytes, int dosTime, int method, long crc, long size, ByteBuffer data)
+            throws IOException{
+        int compressedSize = data.remaining();
+        short versionNeeded = (short) (method == ZipEntry.DEFLATED ? 20 : 10);
+
+        ensureCentral(CENTRAL_LENGTH + nameBytes.length);
+        central.putInt(CENTRAL_SIGNATURE)
+                .putShort((short) 20)
+                .putShort(versionNeeded)
+                .putShort(UTF8_FLAG)
+                .putShort((short) method)
+                .putInt(dosTime)
+                .putInt((int) crc)
+                .putInt(compressedSize)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(0)
+                .putInt((int) offset)
+                .put(nameBytes);
+
+        stage(LOCAL_LENGTH + nameBytes.length);
+        staging.putInt(LOCAL_SIGNATURE)
+                .putShort(versionNeeded)
+                .putShort(UTF8_FLAG)
+                .putShort((short) method)
+                .putInt(dosTime)
+                .putInt((int) crc)
+                .putInt(compressedSize)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .put(nameBytes);
+        write(data.duplicate());
+
+        offset += LOCAL_LENGTH + nameBytes.length + compressedSize;
+        count++;
+    }
+
+    /**
+     * Writes the central directory. No entry can be added afterwards.
+     * @throws IOException If the archive cannot be written
+     */
+    public void finish() throws IOException{
+        central.flip();
+        int centralLength = central.remaining();
+        write(central);
+
+        stage(END_LENGTH);
+        staging.putInt(END_SIGNATURE)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) count)
+                .putShort((short) count)
+                .putInt(centralLength)
+                .putInt((int) offset)
+                .putShort((short) 0);
+        flush();
+    }
+
+    /**
+     * Copies data through the staging buffer, writing large blocks straight to the channel.
+     * @param data The data to write
+     * @throws IOException If the archive cannot be written
+     */
+    private void write(ByteBuffer data) throws IOException{
+        if(data.remaining() <= staging.remaining()){
+            staging.put(data);
+            return;
+        }
+        flush();
+        if(data.remaining() <= staging.remaining()){
+            staging.put(data);
+        } else{
+            while(data.hasRemaining()){
+                out.write(data);
+            }
+        }
+    }
+
+    /**
+     * Makes room in the staging buffer.
+     * @param length The number of bytes about to be staged
+     * @throws IOException If the archive cannot be written
+     */
+    private void stage(int length) throws IOException{
+        if(staging.remaining() < length){
+            flush();
+        }
+    }
+
+    /**
+     * Writes out the staging buffer.
+     * @throws IOException If the archive cannot be written
+     */
+    private void flush() throws IOException{
+        staging.flip();
+        while(staging.hasRemaining()){
+            out.write(staging);
+        }
+        staging.clear();
+    }
+
+    /**
+     * Grows the central directory buffer as needed.
+     * @param length The number of bytes about to be added
+     */
+    private void ensureCentral(int length){
+        if(central.remaining() < length){
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(central.capacity() * 2, central.position() + length))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            central.flip();
+            grown.put(central);
+            central = grown;
+        }
+    }
+}
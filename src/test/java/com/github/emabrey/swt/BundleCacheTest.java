@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the eviction of {@link BundleCache#sweep(File, long, long)} and the use records of
+ * {@link BundleCache#use(File)}.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public class BundleCacheTest {
+
+    /**
+     * Size of each cached bundle
+     */
+    private static final int BUNDLE_SIZE = 1024;
+
+    /**
+     * An age budget none of the entries exceeds
+     */
+    private static final long LONG_AGO = TimeUnit.DAYS.toMillis(60);
+
+    /**
+     * Holds the cache, deleted after each test
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Beyond the size budget, the least recently used entries are evicted until the rest fits.
+     * @throws IOException If the cache cannot be created
+     */
+    @Test
+    public void evictsLeastRecentlyUsedBeyondSize() throws IOException {
+        File oldest = entry("a", TimeUnit.HOURS.toMillis(4));
+        File older = entry("b", TimeUnit.HOURS.toMillis(3));
+        File newer = entry("c", TimeUnit.HOURS.toMillis(2));
+
+        assertEquals(BUNDLE_SIZE, BundleCache.sweep(folder.getRoot(), 2 * BUNDLE_SIZE, LONG_AGO));
+
+        assertFalse(oldest.exists());
+        assertTrue(older.isFile());
+        assertTrue(newer.isFile());
+    }
+
+    /**
+     * Entries unused for longer than the age budget are evicted even when the cache is within its size budget.
+     * @throws IOException If the cache cannot be created
+     */
+    @Test
+    public void evictsEntriesBeyondAge() throws IOException {
+        File stale = entry("a", TimeUnit.DAYS.toMillis(3));
+        File fresh = entry("b", TimeUnit.HOURS.toMillis(2));
+
+        assertEquals(BUNDLE_SIZE, BundleCache.sweep(folder.getRoot(), Long.MAX_VALUE, TimeUnit.DAYS.toMillis(1)));
+
+        assertFalse(stale.exists());
+        assertTrue(fresh.isFile());
+    }
+
+    /**
+     * Entries used within the last hour are kept whatever the budgets.
+     * @throws IOException If the cache cannot be created
+     */
+    @Test
+    public void keepsRecentlyUsedEntries() throws IOException {
+        File recent = entry("a", TimeUnit.MINUTES.toMillis(10));
+
+        assertEquals(0, BundleCache.sweep(folder.getRoot(), 0, 0));
+        assertTrue(recent.isFile());
+    }
+
+    /**
+     * Entries being unpacked, whose lock is held, are neither inspected nor evicted.
+     * @throws Exception If the cache cannot be created or locked
+     */
+    @Test
+    public void skipsLockedEntries() throws Exception {
+        final File locked = entry("a", TimeUnit.DAYS.toMillis(3));
+        ExclusiveFileLock lock = ExclusiveFileLock.acquire(lockOf(locked));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            //The in-process half of the lock is reentrant, so the sweep has to run on another thread
+            long freed = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return BundleCache.sweep(folder.getRoot(), 0, 0);
+                }
+            }).get(1, TimeUnit.MINUTES);
+
+            assertEquals(0, freed);
+            assertTrue(locked.isFile());
+        } finally {
+            lock.release();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Temporary files left by an unpack which died are removed without making their entry look recently used.
+     * @throws IOException If the cache cannot be created
+     */
+    @Test
+    public void removesLeftoverTemporaryFiles() throws IOException {
+        File bundle = entry("a", TimeUnit.HOURS.toMillis(2));
+        File directory = bundle.getParentFile();
+        long lastUsed = directory.lastModified();
+
+        File temporary = new File(directory, "swt.jar.123.tmp");
+        assertTrue(temporary.createNewFile());
+        assertTrue(directory.setLastModified(lastUsed));
+
+        assertEquals(0, BundleCache.sweep(folder.getRoot(), Long.MAX_VALUE, LONG_AGO));
+
+        assertFalse(temporary.exists());
+        assertTrue(bundle.isFile());
+        assertEquals(lastUsed, directory.lastModified());
+    }
+
+    /**
+     * Verification records of destinations which are gone or changed are removed with leftover temporary files, while
+     * those still describing their destination are kept.
+     * @throws IOException If the records cannot be created
+     */
+    @Test
+    public void prunesOutdatedVerificationRecords() throws IOException {
+        File root = folder.newFolder("cache");
+        File kept = folder.newFile("kept.jar");
+        File changed = folder.newFile("changed.jar");
+        File gone = folder.newFile("gone.jar");
+
+        for (File destination : new File[]{kept, changed, gone}) {
+            BundleVerifier.digest(destination, destination, root);
+        }
+        File records = new File(root, "verified");
+        assertEquals(3, records.list().length);
+
+        OutputStream out = new FileOutputStream(changed);
+        try {
+            out.write(1);
+        } finally {
+            out.close();
+        }
+        assertTrue(gone.delete());
+
+        File leftover = new File(records, "0.record.1.tmp");
+        assertTrue(leftover.createNewFile());
+        assertTrue(leftover.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)));
+        File writing = new File(records, "0.record.2.tmp");
+        assertTrue(writing.createNewFile());
+
+        BundleCache.sweep(root, Long.MAX_VALUE, LONG_AGO);
+
+        assertFalse(leftover.exists());
+        assertTrue(writing.exists());
+        //The record of the kept destination, and the file still being written
+        assertEquals(2, records.list().length);
+        assertEquals(Integer.toHexString(kept.getCanonicalPath().hashCode()) + ".record",
+                records.list(new FilenameFilter() {
+                    @Override
+                    public boolean accept(File directory, String name) {
+                        return name.endsWith(".record");
+                    }
+                })[0]);
+    }
+
+    /**
+     * A use is recorded once it is a while since the last, and skipped while the last one still protects the entry.
+     * @throws IOException If the cache cannot be created
+     */
+    @Test
+    public void recordsUseOnlyWhenDue() throws IOException {
+        File bundle = entry("a", TimeUnit.HOURS.toMillis(2));
+        File directory = bundle.getParentFile();
+
+        assertTrue(BundleCache.use(bundle));
+        long used = directory.lastModified();
+        assertTrue(System.currentTimeMillis() - used < TimeUnit.MINUTES.toMillis(1));
+
+        long recently = used - TimeUnit.MINUTES.toMillis(10);
+        assertTrue(directory.setLastModified(recently));
+        assertTrue(BundleCache.use(bundle));
+        assertEquals(recently, directory.lastModified());
+    }
+
+    /**
+     * A use of a bundle not cached yet creates its entry directory.
+     */
+    @Test
+    public void useCreatesEntryDirectory() {
+        File bundle = new File(new File(new File(folder.getRoot(), "linux-x64-4.2.1"), "0123456789abcdef"), "swt.jar");
+
+        assertTrue(BundleCache.use(bundle));
+        assertTrue(bundle.getParentFile().isDirectory());
+    }
+
+    /**
+     * Creates a cache entry holding a bundle and its lock file.
+     * @param key The name of the entry directory
+     * @param age How long ago the entry was last used
+     * @return The bundle
+     * @throws IOException If the entry cannot be created
+     */
+    private File entry(String key, long age) throws IOException {
+        File directory = new File(new File(folder.getRoot(), "linux-x64-4.2.1"), key);
+        assertTrue(directory.mkdirs());
+
+        File bundle = new File(directory, "swt.jar");
+        OutputStream out = new FileOutputStream(bundle);
+        try {
+            out.write(new byte[BUNDLE_SIZE]);
+        } finally {
+            out.close();
+        }
+        assertTrue(lockOf(bundle).createNewFile());
+
+        //Whole seconds, which every file system keeps
+        long lastUsed = (System.currentTimeMillis() - age) / 1000 * 1000;
+        assertTrue(directory.setLastModified(lastUsed));
+        return bundle;
+    }
+
+    /**
+     * Names the lock file of a cached bundle.
+     * @param bundle The bundle
+     * @return The lock file beside it
+     */
+    private static File lockOf(File bundle) {
+        return new File(bundle.getParentFile(), bundle.getName() + ".lock");
+    }
+}
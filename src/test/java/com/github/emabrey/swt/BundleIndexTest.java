@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the lookups of the build-time {@link BundleIndex} against the bundles it describes.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public class BundleIndexTest {
+
+    /**
+     * Holds the copied bundles, deleted after each test
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Every bundle is indexed under its own slot with the size, digest and native libraries of the bundle itself.
+     * @throws IOException If a bundle cannot be read
+     */
+    @Test
+    public void indexesEveryBundle() throws IOException {
+        Set<Integer> slots = new HashSet<Integer>();
+
+        for (BundleTarget target : BundleTarget.all()) {
+            BundleIndex.Record bundle = BundleIndex.get(target.getVersion(), target.getPlatform(), target.getArch());
+            assertNotNull(target.toString(), bundle);
+            assertEquals(target.getVersion(), bundle.version);
+            assertEquals(target.getPlatform(), bundle.platform);
+            assertEquals(target.getArch(), bundle.arch);
+            assertTrue(target.toString(), bundle.isIndexed());
+            assertFalse(target.toString(), bundle.packed);
+
+            int slot = BundleIndex.slot(target.getVersion(), target.getPlatform(), target.getArch());
+            assertTrue(target.toString(), slot >= 0 && slot < BundleIndex.SLOTS);
+            assertTrue(target.toString(), slots.add(slot));
+
+            URL resource = BundleIndexTest.class.getClassLoader().getResource(bundle.resourcePath);
+            assertNotNull(target.toString(), resource);
+            ByteBuffer archive = BundleChannels.map(resource);
+            assertEquals(target.toString(), bundle.size, archive.remaining());
+            assertArrayEquals(target.toString(), bundle.digest(), BundleFiles.sha256(archive.duplicate()));
+            assertEquals(BundleIndex.toHex(bundle.digest()), bundle.sha256Hex());
+
+            Map<String, Long> natives = new HashMap<String, Long>();
+            for (ZipDirectory.Entry entry : ZipDirectory.read(archive.duplicate()).entries()) {
+                if (BundleFiles.isNativeLibrary(entry.name)) {
+                    natives.put(entry.name, entry.size);
+                }
+            }
+            assertFalse(target.toString(), bundle.natives.isEmpty());
+            assertEquals(target.toString(), natives.size(), bundle.natives.size());
+            for (BundleIndex.NativeLibrary library : bundle.natives) {
+                assertEquals(library.name, natives.get(library.name), Long.valueOf(library.size));
+            }
+        }
+    }
+
+    /**
+     * A bundle unknown to the index carries its location only.
+     */
+    @Test
+    public void unindexedBundleKnowsOnlyItsLocation() {
+        BundleIndex.Record bundle = BundleIndex.unindexed(SWT_VERSION._4_2_1, SWT_PLATFORM.linux,
+                SWT_PLATFORM_ARCH.x64, "some/swt.jar");
+
+        assertFalse(bundle.isIndexed());
+        assertEquals("some/swt.jar", bundle.resourcePath);
+        assertEquals(-1, bundle.size);
+        assertNull(bundle.digest());
+        assertNull(bundle.sha256Hex());
+        assertTrue(bundle.natives.isEmpty());
+    }
+
+    /**
+     * Ordinals which name no constant, as a corrupt or newer index may hold, are rejected as unreadable data.
+     * @throws IOException If a valid ordinal is rejected
+     */
+    @Test
+    public void rejectsUnknownOrdinals() throws IOException {
+        assertEquals(SWT_PLATFORM.linux, BundleIndex.constant(SWT_PLATFORM.values(), SWT_PLATFORM.linux.ordinal()));
+
+        for (int ordinal : new int[]{-1, SWT_PLATFORM.values().length, Byte.MIN_VALUE}) {
+            try {
+                BundleIndex.constant(SWT_PLATFORM.values(), ordinal);
+                fail("Accepted ordinal " + ordinal);
+            } catch (IOException e) {
+                //Expected
+            }
+        }
+    }
+
+    /**
+     * A file matches a record only while it holds exactly the bundle's bytes.
+     * @throws IOException If the bundle cannot be copied
+     */
+    @Test
+    public void matchesOnlyTheBundle() throws IOException {
+        BundleIndex.Record bundle = BundleIndex.get(SWT_VERSION._4_2_1, SWT_PLATFORM.linux, SWT_PLATFORM_ARCH.x64);
+        URL resource = BundleIndexTest.class.getClassLoader().getResource(bundle.resourcePath);
+        File copy = folder.newFile("swt.jar");
+
+        FileChannel channel = FileChannel.open(copy.toPath(), StandardOpenOption.WRITE);
+        try {
+            BundleChannels.copy(resource, channel);
+        } finally {
+            channel.close();
+        }
+        assertTrue(bundle.matches(copy));
+
+        //Same size, one byte changed
+        RandomAccessFile file = new RandomAccessFile(copy, "rw");
+        try {
+            file.seek(bundle.size / 2);
+            int value = file.read();
+            file.seek(bundle.size / 2);
+            file.write(value ^ 0xFF);
+        } finally {
+            file.close();
+        }
+        assertFalse(bundle.matches(copy));
+        assertFalse(bundle.matches(new File(folder.getRoot(), "missing.jar")));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Iterator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link BundlePack} rebuilds every bundle with the same entries as the original. The pack compresses the
+ * entries again, so the rebuilt bundle is smaller than the original, but each entry inflates to the same bytes.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public class BundlePackTest {
+
+    /**
+     * Every bundle is rebuilt with the size and digest the pack records, and with the names, sizes and CRCs of the
+     * original's entries in the original order.
+     * @throws IOException If a bundle cannot be read or rebuilt
+     */
+    @Test
+    public void rebuildsEveryBundle() throws IOException {
+        for (BundleTarget target : BundleTarget.all()) {
+            BundleIndex.Record original = BundleIndex.get(target.getVersion(), target.getPlatform(), target.getArch());
+            assertNotNull(target.toString(), original);
+
+            BundleIndex.Record packed = BundlePack.get(original);
+            assertNotNull(target.toString(), packed);
+
+            ByteBuffer rebuilt = BundlePack.rebuild(packed);
+            assertEquals(target.toString(), packed.size, rebuilt.remaining());
+            assertArrayEquals(target.toString(), packed.digest(), BundleFiles.sha256(rebuilt.duplicate()));
+
+            URL resource = BundlePackTest.class.getClassLoader().getResource(original.resourcePath);
+            assertNotNull(target.toString(), resource);
+
+            Iterator<ZipDirectory.Entry> expected = ZipDirectory.read(BundleChannels.map(resource)).entries()
+                    .iterator();
+            for (ZipDirectory.Entry entry : ZipDirectory.read(rebuilt.duplicate()).entries()) {
+                assertTrue(target.toString(), expected.hasNext());
+                ZipDirectory.Entry other = expected.next();
+                assertEquals(target.toString(), other.name, entry.name);
+                assertEquals(other.name, other.size, entry.size);
+                assertEquals(other.name, other.crc, entry.crc);
+            }
+            assertFalse(target.toString(), expected.hasNext());
+
+            assertInflates(rebuilt.duplicate());
+        }
+    }
+
+    /**
+     * Reads every entry of a bundle through its local headers, which fails if any entry does not inflate to the size
+     * and CRC the headers give.
+     * @param bundle The bundle
+     * @throws IOException If an entry is invalid
+     */
+    private static void assertInflates(ByteBuffer bundle) throws IOException {
+        byte[] buffer = new byte[BundleChannels.BUFFER_SIZE];
+        ZipInputStream in = new ZipInputStream(Channels.newInputStream(BundleChannels.source(bundle)));
+
+        try {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                while (in.read(buffer) >= 0) {
+                    //Checked by ZipInputStream at the end of each entry
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
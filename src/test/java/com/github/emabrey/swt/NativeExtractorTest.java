@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that {@link NativeExtractor} streams native libraries out of a bundle intact and rejects corrupt ones.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public class NativeExtractorTest {
+
+    /**
+     * Holds the extracted libraries, deleted after each test
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Every native library extracted on the shared executor holds the data of its entry.
+     * @throws Exception If the bundle cannot be read or extracted
+     */
+    @Test
+    public void extractsEveryLibrary() throws Exception {
+        BundleImage image = BundleImage.of(bundle());
+        List<ZipDirectory.Entry> natives = NativeExtractor.nativeLibraries(image.directory());
+        File directory = folder.getRoot();
+
+        NativeExtractor.extractAll(image.archive(), natives, directory, UnpackExecutor.shared());
+
+        assertEquals(natives.size(), directory.list().length);
+        for (ZipDirectory.Entry entry : natives) {
+            File library = new File(directory, entry.name);
+            assertEquals(entry.name, entry.size, library.length());
+            assertArrayEquals(entry.name, image.read(entry), Files.readAllBytes(library.toPath()));
+        }
+    }
+
+    /**
+     * A library whose data does not inflate to its CRC-32 fails the extraction and leaves no file behind.
+     * @throws Exception If the bundle cannot be read
+     */
+    @Test
+    public void rejectsCorruptLibrary() throws Exception {
+        ByteBuffer original = bundle();
+        ByteBuffer archive = ByteBuffer.allocate(original.remaining());
+        archive.put(original.duplicate()).flip();
+
+        ZipDirectory.Entry entry = NativeExtractor.nativeLibraries(ZipDirectory.read(archive.duplicate())).get(0);
+        int middle = ZipDirectory.dataOffset(archive, entry) + (int) entry.compressedSize / 2;
+        archive.put(middle, (byte) (archive.get(middle) ^ 0xFF));
+
+        try {
+            NativeExtractor.extractAll(archive, Collections.singletonList(entry), folder.getRoot(),
+                    UnpackExecutor.shared());
+            fail("The corrupt library was extracted");
+        } catch (ZipException e) {
+            assertFalse(new File(folder.getRoot(), entry.name).exists());
+            assertEquals(0, folder.getRoot().list().length);
+        }
+    }
+
+    /**
+     * Maps the 4.2.1 Linux x64 bundle.
+     * @return The bundle
+     * @throws IOException If the bundle cannot be read
+     */
+    private static ByteBuffer bundle() throws IOException {
+        BundleIndex.Record bundle = BundleIndex.get(SWT_VERSION._4_2_1, SWT_PLATFORM.linux, SWT_PLATFORM_ARCH.x64);
+        URL resource = NativeExtractorTest.class.getClassLoader().getResource(bundle.resourcePath);
+        assertNotNull(resource);
+        return BundleChannels.map(resource);
+    }
+}
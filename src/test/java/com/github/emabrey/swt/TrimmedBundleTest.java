@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import com.github.emabrey.swt.natives.RawZipWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the archives written by {@link RawZipWriter} and {@link TrimmedBundle}.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public class TrimmedBundleTest {
+
+    /**
+     * The version trimmed by every test
+     */
+    private static final SWT_VERSION VERSION = SWT_VERSION._4_2_1;
+
+    /**
+     * Encoding of the test entry contents
+     */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Holds the written archives, deleted after each test
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Stored and deflated entries written by the raw writer read back as the data they were given.
+     * @throws IOException If the archive cannot be written or read
+     */
+    @Test
+    public void rawWriterOutputReopens() throws IOException {
+        byte[] stored = "Stored as it is".getBytes(CHARSET);
+        byte[] deflated = "Deflated, deflated, deflated, deflated".getBytes(CHARSET);
+        File file = folder.newFile("raw.jar");
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        try {
+            RawZipWriter writer = new RawZipWriter(channel);
+            writer.add("stored.txt", 0, ZipEntry.STORED, crc(stored), stored.length, ByteBuffer.wrap(stored));
+            writer.add("dir/deflated.txt", 0, ZipEntry.DEFLATED, crc(deflated), deflated.length,
+                    ByteBuffer.wrap(deflate(deflated)));
+            writer.finish();
+        } finally {
+            channel.close();
+        }
+
+        JarFile jar = new JarFile(file, true);
+        try {
+            assertEquals(2, jar.size());
+            assertArrayEquals(stored, read(jar, "stored.txt"));
+            assertArrayEquals(deflated, read(jar, "dir/deflated.txt"));
+        } finally {
+            jar.close();
+        }
+        assertEntriesIntact(file);
+    }
+
+    /**
+     * A trimmed bundle has the computed length, holds exactly the kept entries, reopens as a valid jar and is
+     * recognised by its size and central directory, for no, some and all features.
+     * @throws IOException If the bundle cannot be read or trimmed
+     */
+    @Test
+    public void trimmedBundleReopens() throws IOException {
+        List<Set<SWTFeature>> profiles = Arrays.<Set<SWTFeature>>asList(EnumSet.noneOf(SWTFeature.class),
+                EnumSet.of(SWTFeature.BROWSER, SWTFeature.ADVANCED_GRAPHICS), EnumSet.allOf(SWTFeature.class));
+        ByteBuffer archive = currentBundle();
+        ZipDirectory directory = ZipDirectory.read(archive.duplicate());
+
+        for (Set<SWTFeature> features : profiles) {
+            List<ZipDirectory.Entry> entries = TrimmedBundle.entries(directory, features);
+            File file = folder.newFile();
+
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            try {
+                TrimmedBundle.write(archive.duplicate(), entries, channel);
+            } finally {
+                channel.close();
+            }
+
+            assertEquals(features.toString(), TrimmedBundle.length(entries), file.length());
+            assertArrayEquals(features.toString(), BundleFiles.sha256(file),
+                    TrimmedBundle.digest(archive.duplicate(), entries));
+            assertTrue(features.toString(), TrimmedBundle.matches(file, entries));
+
+            JarFile jar = new JarFile(file, true);
+            try {
+                assertEquals(features.toString(), entries.size(), jar.size());
+                for (ZipDirectory.Entry entry : entries) {
+                    assertNotNull(entry.name, jar.getJarEntry(entry.name));
+                }
+                for (Enumeration<JarEntry> kept = jar.entries(); kept.hasMoreElements();) {
+                    SWTFeature feature = SWTFeature.ofEntry(kept.nextElement().getName());
+                    assertTrue(features.toString(), feature == null || features.contains(feature));
+                }
+            } finally {
+                jar.close();
+            }
+            assertEntriesIntact(file);
+        }
+    }
+
+    /**
+     * Leaving out a feature leaves out its classes and native libraries, and a bundle trimmed for other features is
+     * not taken for it.
+     * @throws IOException If the bundle cannot be read or trimmed
+     */
+    @Test
+    public void leavesOutUnchosenFeatures() throws IOException {
+        ByteBuffer archive = currentBundle();
+        ZipDirectory directory = ZipDirectory.read(archive.duplicate());
+        List<ZipDirectory.Entry> all = TrimmedBundle.entries(directory, EnumSet.allOf(SWTFeature.class));
+        List<ZipDirectory.Entry> core = TrimmedBundle.entries(directory, EnumSet.noneOf(SWTFeature.class));
+
+        assertEquals(directory.entries().size(), all.size());
+        assertTrue(core.size() < all.size());
+        assertTrue(TrimmedBundle.length(core) < TrimmedBundle.length(all));
+        for (ZipDirectory.Entry entry : core) {
+            assertNull(entry.name, SWTFeature.ofEntry(entry.name));
+        }
+
+        File file = folder.newFile();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        try {
+            TrimmedBundle.write(archive.duplicate(), core, channel);
+        } finally {
+            channel.close();
+        }
+        assertFalse(TrimmedBundle.matches(file, all));
+    }
+
+    /**
+     * Maps the bundle of this platform.
+     * @return The bundle
+     * @throws IOException If the bundle cannot be read
+     */
+    private static ByteBuffer currentBundle() throws IOException {
+        try {
+            BundleTarget target = SWTNatives.currentTarget(VERSION);
+            BundleIndex.Record bundle = BundleIndex.get(VERSION, target.getPlatform(), target.getArch());
+            URL resource = TrimmedBundleTest.class.getClassLoader().getResource(bundle.resourcePath);
+            assertNotNull(resource);
+            return BundleChannels.map(resource);
+        } catch (InstantiationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads every entry of an archive through its local headers, which fails if any entry does not inflate to the
+     * size and CRC the headers give.
+     * @param file The archive
+     * @throws IOException If an entry is invalid
+     */
+    private static void assertEntriesIntact(File file) throws IOException {
+        byte[] buffer = new byte[BundleChannels.BUFFER_SIZE];
+        ZipInputStream in = new ZipInputStream(new FileInputStream(file));
+
+        try {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                while (in.read(buffer) >= 0) {
+                    //Checked by ZipInputStream at the end of each entry
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads an entry of a jar.
+     * @param jar The jar
+     * @param name The entry name
+     * @return The inflated contents
+     * @throws IOException If the entry cannot be read
+     */
+    private static byte[] read(JarFile jar, String name) throws IOException {
+        JarEntry entry = jar.getJarEntry(name);
+        assertNotNull(name, entry);
+
+        byte[] contents = new byte[(int) entry.getSize()];
+        InputStream in = jar.getInputStream(entry);
+        try {
+            int read = 0;
+            while (read < contents.length) {
+                int count = in.read(contents, read, contents.length - read);
+                assertTrue(name, count > 0);
+                read += count;
+            }
+            assertEquals(name, -1, in.read());
+        } finally {
+            in.close();
+        }
+        return contents;
+    }
+
+    /**
+     * Computes the CRC-32 of some data.
+     * @param data The data
+     * @return The CRC-32
+     */
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    /**
+     * Compresses some data as a deflated zip entry stores it.
+     * @param data The data
+     * @return The raw deflate data
+     */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            byte[] buffer = new byte[data.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM;
+import com.github.emabrey.swt.SWTNatives.SWT_PLATFORM_ARCH;
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests how {@link UnpackCoordinator} shares, re-runs and forgets unpacks.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public class UnpackCoordinatorTest {
+
+    /**
+     * Number of threads asking for the same unpack
+     */
+    private static final int THREADS = 8;
+
+    /**
+     * Holds the files the unpacks create, deleted after each test
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Concurrent callers of the same key share one run and get the same handle, as do later callers.
+     * @throws Exception If the unpack fails
+     */
+    @Test
+    public void concurrentCallersShareOneRun() throws Exception {
+        final File file = new File(folder.getRoot(), "swt.jar");
+        final CountingUnpack unpack = new CountingUnpack(file);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            List<Future<UnpackedBundle>> results = new ArrayList<Future<UnpackedBundle>>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(new Callable<UnpackedBundle>() {
+                    @Override
+                    public UnpackedBundle call() throws Exception {
+                        start.await();
+                        return UnpackCoordinator.unpack(file.getPath(), unpack);
+                    }
+                }));
+            }
+            start.countDown();
+
+            UnpackedBundle first = results.get(0).get(1, TimeUnit.MINUTES);
+            for (Future<UnpackedBundle> result : results) {
+                assertSame(first, result.get(1, TimeUnit.MINUTES));
+            }
+            assertSame(first, UnpackCoordinator.unpack(file.getPath(), unpack));
+            assertEquals(1, unpack.runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A failed unpack is reported to its caller and forgotten, so the next caller runs it again.
+     * @throws Exception If the second unpack fails
+     */
+    @Test
+    public void failureIsForgotten() throws Exception {
+        File file = new File(folder.getRoot(), "swt.jar");
+        CountingUnpack unpack = new CountingUnpack(file);
+        unpack.failures.set(1);
+
+        try {
+            UnpackCoordinator.unpack(file.getPath(), unpack);
+            fail("The failure was not reported");
+        } catch (InstantiationException e) {
+            assertEquals(1, unpack.runs.get());
+        }
+
+        UnpackedBundle bundle = UnpackCoordinator.unpack(file.getPath(), unpack);
+        assertEquals(file, bundle.getPath());
+        assertEquals(2, unpack.runs.get());
+    }
+
+    /**
+     * A checked exception other than InstantiationException is reported as one, with the original as its cause.
+     * @throws Exception If the coordinator fails otherwise
+     */
+    @Test
+    public void otherFailuresAreWrapped() throws Exception {
+        final IOException failure = new IOException("Disk full");
+        String key = new File(folder.getRoot(), "swt.jar").getPath();
+
+        try {
+            UnpackCoordinator.unpack(key, new Callable<UnpackedBundle>() {
+                @Override
+                public UnpackedBundle call() throws IOException {
+                    throw failure;
+                }
+            });
+            fail("The failure was not reported");
+        } catch (InstantiationException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    /**
+     * A remembered unpack whose file was deleted since is run again rather than handed out.
+     * @throws Exception If the unpack fails
+     */
+    @Test
+    public void deletedFileIsUnpackedAgain() throws Exception {
+        File file = new File(folder.getRoot(), "swt.jar");
+        CountingUnpack unpack = new CountingUnpack(file);
+
+        UnpackedBundle first = UnpackCoordinator.unpack(file.getPath(), unpack);
+        assertTrue(file.delete());
+
+        UnpackedBundle second = UnpackCoordinator.unpack(file.getPath(), unpack);
+        assertTrue(file.isFile());
+        assertEquals(first, second);
+        assertEquals(2, unpack.runs.get());
+    }
+
+    /**
+     * Creates a file and counts how often it did, failing as often as asked first.
+     */
+    private static final class CountingUnpack implements Callable<UnpackedBundle> {
+
+        /**
+         * The file standing in for the bundle
+         */
+        private final File file;
+
+        /**
+         * Number of times the unpack ran
+         */
+        final AtomicInteger runs = new AtomicInteger();
+
+        /**
+         * Number of runs left to fail
+         */
+        final AtomicInteger failures = new AtomicInteger();
+
+        /**
+         * Creates an unpack.
+         * @param file The file standing in for the bundle
+         */
+        CountingUnpack(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public UnpackedBundle call() throws InstantiationException, IOException {
+            runs.incrementAndGet();
+
+            if (failures.getAndDecrement() > 0) {
+                throw new InstantiationException("Failed on purpose");
+            }
+
+            if (!file.isFile() && !file.createNewFile()) {
+                throw new IOException("Unable to create " + file);
+            }
+            return new UnpackedBundle(file, SWT_VERSION._4_2_1, SWT_PLATFORM.linux, SWT_PLATFORM_ARCH.x64,
+                    file.length());
+        }
+    }
+}
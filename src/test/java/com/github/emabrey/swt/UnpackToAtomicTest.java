@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2013 Emily Mabrey emilymabrey93@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.emabrey.swt;
+
+import com.github.emabrey.swt.SWTNatives.SWT_VERSION;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the lock file and temporary file rename of {@link SWTNatives#unpackToAtomic(File, SWT_VERSION)}.
+ * @author Emily Mabrey emilymabrey93@gmail.com
+ */
+public class UnpackToAtomicTest {
+
+    /**
+     * The version unpacked by every test
+     */
+    private static final SWT_VERSION VERSION = SWT_VERSION._4_2_1;
+
+    /**
+     * Number of threads racing to unpack the same destination
+     */
+    private static final int THREADS = 8;
+
+    /**
+     * Holds the destinations, deleted after each test
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A first unpack writes the bundle, leaving only the bundle and its lock file behind, and a second one reuses it.
+     * @throws Exception If the unpack fails
+     */
+    @Test
+    public void unpacksOnceThenReuses() throws Exception {
+        File destination = new File(folder.getRoot(), "swt.jar");
+
+        assertTrue(SWTNatives.unpackToAtomic(destination, VERSION));
+        assertTrue(currentBundle().matches(destination));
+        assertDirectoryHolds(destination, new File(folder.getRoot(), "swt.jar.lock"));
+
+        assertFalse(SWTNatives.unpackToAtomic(destination, VERSION));
+    }
+
+    /**
+     * A destination which no longer matches the bundle is replaced rather than reused.
+     * @throws Exception If the unpack fails
+     */
+    @Test
+    public void replacesChangedDestination() throws Exception {
+        File destination = new File(folder.getRoot(), "swt.jar");
+        OutputStream out = new FileOutputStream(destination);
+        try {
+            out.write(new byte[]{'P', 'K', 3, 4});
+        } finally {
+            out.close();
+        }
+
+        assertTrue(SWTNatives.unpackToAtomic(destination, VERSION));
+        assertTrue(currentBundle().matches(destination));
+        assertDirectoryHolds(destination, new File(folder.getRoot(), "swt.jar.lock"));
+    }
+
+    /**
+     * Of several threads unpacking the same destination at once, exactly one writes the bundle and the others reuse
+     * it once they get the lock.
+     * @throws Exception If an unpack fails
+     */
+    @Test
+    public void concurrentUnpacksWriteOnce() throws Exception {
+        final File destination = new File(folder.getRoot(), "swt.jar");
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        start.await();
+                        return SWTNatives.unpackToAtomic(destination, VERSION);
+                    }
+                }));
+            }
+            start.countDown();
+
+            int written = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get(1, TimeUnit.MINUTES)) {
+                    written++;
+                }
+            }
+
+            assertEquals(1, written);
+            assertTrue(currentBundle().matches(destination));
+            assertDirectoryHolds(destination, new File(folder.getRoot(), "swt.jar.lock"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A held lock keeps other threads from taking it until it is released.
+     * @throws Exception If the lock file cannot be locked
+     */
+    @Test
+    public void lockExcludesOtherThreads() throws Exception {
+        final File lockFile = new File(folder.getRoot(), "swt.jar.lock");
+        ExclusiveFileLock lock = ExclusiveFileLock.acquire(lockFile);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Callable<Boolean> tryLock = new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    ExclusiveFileLock other = ExclusiveFileLock.tryAcquire(lockFile);
+                    if (other == null) {
+                        return false;
+                    }
+                    other.release();
+                    return true;
+                }
+            };
+
+            assertFalse(executor.submit(tryLock).get(1, TimeUnit.MINUTES));
+            lock.release();
+            lock = null;
+            assertTrue(executor.submit(tryLock).get(1, TimeUnit.MINUTES));
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Looks up the index record of the bundle for this platform.
+     * @return The record
+     * @throws InstantiationException If this platform is unsupported
+     */
+    private static BundleIndex.Record currentBundle() throws InstantiationException {
+        BundleTarget target = SWTNatives.currentTarget(VERSION);
+        BundleIndex.Record bundle = BundleIndex.get(VERSION, target.getPlatform(), target.getArch());
+        assertNotNull(bundle);
+        return bundle;
+    }
+
+    /**
+     * Checks that no temporary file was left next to the destination.
+     * @param expected The only files the directory may hold
+     */
+    private void assertDirectoryHolds(File... expected) {
+        List<String> names = new ArrayList<String>();
+        for (File file : expected) {
+            names.add(file.getName());
+        }
+
+        File[] files = folder.getRoot().listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            assertTrue(file.getName(), names.contains(file.getName()));
+        }
+    }
+}